@@ -0,0 +1,35 @@
+package fr.dawan.formation.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Runs the JMH benchmarks with the GC profiler and writes JSON results to
+ * {@code results/<name>.json} (default name: baseline). Any standard JMH option is accepted,
+ * e.g. {@code java -jar target/benchmarks.jar MappingBenchmark -Dmongo.uri=...}.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        String name = System.getProperty("bench.name", "baseline");
+        Path results = Path.of("results");
+        Files.createDirectories(results);
+
+        Options options = new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .jvmArgsAppend("-Dmongo.uri=" + Fixtures.MONGO_URI, "-Dmongo.db=" + Fixtures.DATABASE)
+            .resultFormat(ResultFormatType.JSON)
+            .result(results.resolve(name + ".json").toString())
+            .build();
+
+        new Runner(options).run();
+    }
+}
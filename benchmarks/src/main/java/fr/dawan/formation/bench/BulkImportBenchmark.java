@@ -0,0 +1,140 @@
+package fr.dawan.formation.bench;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+import fr.dawan.formation.model.Vehicle;
+import fr.dawan.formation.service.BulkVehicleImporter;
+import fr.dawan.formation.service.FleetAggregates;
+import fr.dawan.formation.service.VehicleService;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Onboarding a 50k-vehicle customer: one registerVehicle per row against the bulk importer,
+ * for both input formats and a few batch sizes. Each invocation starts from an empty
+ * vehicles collection; vehicles/s is logged per run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BulkImportBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(BulkImportBenchmark.class);
+
+    @Param({"50000"})
+    public int vehicles;
+
+    @Param({"ndjson", "csv"})
+    public String format;
+
+    @Param({"500", "1000", "5000"})
+    public int batchSize;
+
+    private MongoClient client;
+    private MongoDatabase db;
+    private ExecutorService executor;
+    private BulkVehicleImporter importer;
+    private VehicleService vehicleService;
+    private Vehicle[] rows;
+    private byte[] input;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        client = MongoClients.create(Fixtures.MONGO_URI);
+        db = client.getDatabase(Fixtures.DATABASE);
+        Fixtures.dropAll(db);
+
+        Random random = new Random(21);
+        List<ObjectId> owners = Fixtures.seedOwners(db, 500);
+        rows = new Vehicle[vehicles];
+        StringBuilder out = new StringBuilder(vehicles * 160);
+        if (format.equals("csv")) out.append("registration,brand,model,ownerId,status,lat,lon,batteryPercent\n");
+        for (int i = 0; i < vehicles; i++) {
+            Vehicle v = Fixtures.vehicle(random, owners.get(random.nextInt(owners.size())), 0);
+            rows[i] = v;
+            if (format.equals("csv")) {
+                out.append(v.getRegistration()).append(',').append(v.getBrand()).append(',').append(v.getModel()).append(',')
+                    .append(v.getOwnerId().toHexString()).append(',').append(v.getStatus()).append(',')
+                    .append(v.getTelemetry().getLat()).append(',').append(v.getTelemetry().getLon()).append(',')
+                    .append(v.getTelemetry().getBatteryPercent()).append('\n');
+            } else {
+                out.append(new Document("registration", v.getRegistration())
+                    .append("brand", v.getBrand())
+                    .append("model", v.getModel())
+                    .append("ownerId", v.getOwnerId().toHexString())
+                    .append("status", v.getStatus())
+                    .append("telemetry", new Document("lat", v.getTelemetry().getLat())
+                        .append("lon", v.getTelemetry().getLon())
+                        .append("batteryPercent", v.getTelemetry().getBatteryPercent()))
+                    .toJson()).append('\n');
+            }
+        }
+        input = out.toString().getBytes(StandardCharsets.UTF_8);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        executor = Executors.newFixedThreadPool(cores);
+        FleetAggregates aggregates = new FleetAggregates(db);
+        importer = new BulkVehicleImporter(db, executor, batchSize, cores);
+        importer.setAggregates(aggregates);
+        vehicleService = new VehicleService(db);
+        vehicleService.setAggregates(aggregates);
+    }
+
+    @Setup(Level.Invocation)
+    public void emptyVehicles() {
+        db.getCollection("vehicles").deleteMany(new Document());
+        db.getCollection("fleet_stats").deleteMany(new Document());
+        for (Vehicle v : rows) v.setId(null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdown();
+        client.close();
+    }
+
+    @Benchmark
+    public BulkVehicleImporter.Report bulkImport() throws Exception {
+        BulkVehicleImporter.Report report = importer.importStream(new ByteArrayInputStream(input),
+            format.equals("csv") ? BulkVehicleImporter.Format.CSV : BulkVehicleImporter.Format.NDJSON);
+        if (report.getRejected() > 0) throw new IllegalStateException("Rejected rows: " + report.getErrors());
+        log.info("bulk import {} x{}, batch {}: {} vehicles/s", format, rows.length, batchSize, Math.round(report.getVehiclesPerSecond()));
+        return report;
+    }
+
+    // Baseline; format and batch size do not apply.
+    @Benchmark
+    public long oneByOne() {
+        long start = System.nanoTime();
+        for (Vehicle v : rows) vehicleService.registerVehicle(v);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        log.info("registerVehicle x{}: {} vehicles/s", rows.length, Math.round(rows.length / seconds));
+        return rows.length;
+    }
+}
@@ -0,0 +1,76 @@
+package fr.dawan.formation.bench;
+
+import com.mongodb.client.MongoDatabase;
+import fr.dawan.formation.model.Incident;
+import fr.dawan.formation.model.Telemetry;
+import fr.dawan.formation.model.Vehicle;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public final class Fixtures {
+
+    public static final String MONGO_URI = System.getProperty("mongo.uri", "mongodb://localhost:27017");
+    public static final String DATABASE = System.getProperty("mongo.db", "fleetdb_bench");
+
+    private static final String[] BRANDS = {"Renault", "Peugeot", "Tesla", "Citroen", "Kia", "Hyundai", "Volkswagen", "BMW"};
+    private static final String[] INCIDENT_TYPES = {"Moteur", "flat_tire", "Batterie", "Carrosserie"};
+
+    private Fixtures() {
+    }
+
+    public static Vehicle vehicle(Random random, ObjectId ownerId, int incidents) {
+        Vehicle vehicle = new Vehicle();
+        vehicle.setId(new ObjectId());
+        vehicle.setBrand(BRANDS[random.nextInt(BRANDS.length)]);
+        vehicle.setModel("Model-" + random.nextInt(20));
+        vehicle.setRegistration(String.format("%c%c-%03d-%c%c", 'A' + random.nextInt(26), 'A' + random.nextInt(26), random.nextInt(1000), 'A' + random.nextInt(26), 'A' + random.nextInt(26)));
+        vehicle.setOwnerId(ownerId);
+        vehicle.setStatus(random.nextInt(10) == 0 ? "maintenance" : "active");
+        vehicle.setTelemetry(telemetry(random));
+
+        List<Incident> list = new ArrayList<>(incidents);
+        for (int i = 0; i < incidents; i++) {
+            list.add(new Incident(new Date(System.currentTimeMillis() - random.nextInt(1_000_000_000)), INCIDENT_TYPES[random.nextInt(INCIDENT_TYPES.length)], "Incident #" + i));
+        }
+        vehicle.setIncidents(list);
+
+        Map<String, Object> specs = new LinkedHashMap<>();
+        specs.put("range_km", 300 + random.nextInt(300));
+        specs.put("motor_kw", 60 + random.nextInt(200));
+        specs.put("battery_kwh", 40 + random.nextInt(60));
+        specs.put("software_version", "v2." + random.nextInt(10));
+        vehicle.setSpecs(specs);
+
+        Date now = new Date();
+        vehicle.setCreatedAt(now);
+        vehicle.setUpdatedAt(now);
+        return vehicle;
+    }
+
+    public static Telemetry telemetry(Random random) {
+        return new Telemetry(43.0 + random.nextDouble() * 6.0, -1.0 + random.nextDouble() * 8.0, new Date(), random.nextInt(101));
+    }
+
+    public static List<ObjectId> seedOwners(MongoDatabase db, int owners) {
+        List<Document> docs = new ArrayList<>(owners);
+        List<ObjectId> ids = new ArrayList<>(owners);
+        for (int i = 0; i < owners; i++) {
+            ObjectId id = new ObjectId();
+            ids.add(id);
+            docs.add(new Document("_id", id).append("name", "Owner " + i).append("createdAt", new Date()));
+        }
+        db.getCollection("users").insertMany(docs);
+        return ids;
+    }
+
+    public static void dropAll(MongoDatabase db) {
+        for (String name : db.listCollectionNames()) db.getCollection(name).drop();
+    }
+}
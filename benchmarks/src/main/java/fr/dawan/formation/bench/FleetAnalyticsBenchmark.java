@@ -0,0 +1,110 @@
+package fr.dawan.formation.bench;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import fr.dawan.formation.codec.FleetCodecs;
+import fr.dawan.formation.model.Vehicle;
+import fr.dawan.formation.service.FleetAggregates;
+import fr.dawan.formation.service.FleetAnalytics;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FleetAnalyticsBenchmark {
+
+    @Param({"10000", "100000"})
+    public int vehicles;
+
+    private MongoClient client;
+    private FleetAnalytics analytics;
+    private FleetAggregates aggregates;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        client = MongoClients.create(Fixtures.MONGO_URI);
+        MongoDatabase db = client.getDatabase(Fixtures.DATABASE);
+        Fixtures.dropAll(db);
+
+        Random random = new Random(11);
+        List<ObjectId> owners = Fixtures.seedOwners(db, 1000);
+        List<Vehicle> batch = new ArrayList<>(1000);
+        MongoCollection<Vehicle> typed = db.getCollection("vehicles", Vehicle.class).withCodecRegistry(FleetCodecs.REGISTRY);
+        for (int i = 0; i < vehicles; i++) {
+            batch.add(Fixtures.vehicle(random, owners.get(random.nextInt(owners.size())), random.nextInt(6)));
+            if (batch.size() == 1000) {
+                typed.insertMany(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) typed.insertMany(batch);
+
+        analytics = new FleetAnalytics(db);
+        aggregates = new FleetAggregates(db);
+        aggregates.ensureIndexes();
+        aggregates.reconcile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.close();
+    }
+
+    @Benchmark
+    public List<Document> batteryAverageByBrand() {
+        return analytics.batteryAverageByBrand();
+    }
+
+    @Benchmark
+    public List<Document> batteryAverageByBrandMaterialized() {
+        return aggregates.batteryAverageByBrand();
+    }
+
+    @Benchmark
+    public List<Document> topOwners() {
+        return analytics.topOwners();
+    }
+
+    @Benchmark
+    public List<Document> topOwnersMaterialized() {
+        return aggregates.topOwners(3);
+    }
+
+    @Benchmark
+    public List<Document> maintenanceAlertsList() {
+        return analytics.maintenanceAlertsEngineIncidents();
+    }
+
+    @Benchmark
+    public void maintenanceAlertsStream(Blackhole bh) {
+        try (Stream<Document> alerts = analytics.streamMaintenanceAlertsEngineIncidents(FleetAnalytics.DEFAULT_BATCH_SIZE, true)) {
+            alerts.forEach(bh::consume);
+        }
+    }
+}
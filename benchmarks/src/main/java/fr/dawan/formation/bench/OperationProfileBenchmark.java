@@ -0,0 +1,136 @@
+package fr.dawan.formation.bench;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+import fr.dawan.formation.model.Incident;
+import fr.dawan.formation.model.Vehicle;
+import fr.dawan.formation.service.FleetAnalytics;
+import fr.dawan.formation.service.OperationProfiles;
+import fr.dawan.formation.service.VehicleService;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the telemetry, incident and analytics paths under each operation profile,
+ * plus the primary's opcounters over the trial. Meant for a replica set
+ * ({@code scripts/replica-set.sh start}, then
+ * {@code -Dmongo.uri=mongodb://localhost:27301,localhost:27302,localhost:27303/?replicaSet=rs0}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(8)
+@Fork(1)
+public class OperationProfileBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(OperationProfileBenchmark.class);
+
+    @Param({"primary", "tiered", "fire-and-forget"})
+    public String profile;
+
+    private MongoClient client;
+    private VehicleService vehicleService;
+    private FleetAnalytics analytics;
+    private ObjectId[] ids;
+    private Document opcountersBefore;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        client = MongoClients.create(Fixtures.MONGO_URI);
+        MongoDatabase db = client.getDatabase(Fixtures.DATABASE);
+        Fixtures.dropAll(db);
+
+        VehicleService seeding = new VehicleService(db);
+        Random random = new Random(11);
+        List<ObjectId> owners = Fixtures.seedOwners(db, 50);
+        ids = new ObjectId[5_000];
+        for (int i = 0; i < ids.length; i++) {
+            Vehicle v = Fixtures.vehicle(random, owners.get(random.nextInt(owners.size())), 3);
+            seeding.registerVehicle(v);
+            ids[i] = v.getId();
+        }
+
+        OperationProfiles profiles = profiles(profile);
+        vehicleService = new VehicleService(db);
+        analytics = new FleetAnalytics(db);
+        if (profiles != null) {
+            vehicleService.setProfiles(profiles);
+            analytics.setProfiles(profiles);
+        }
+        opcountersBefore = primaryOpcounters();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Document after = primaryOpcounters();
+        StringBuilder delta = new StringBuilder();
+        for (String key : after.keySet()) {
+            Object before = opcountersBefore.get(key);
+            long d = ((Number) after.get(key)).longValue() - (before instanceof Number ? ((Number) before).longValue() : 0L);
+            delta.append(key).append('=').append(d).append(' ');
+        }
+        log.info("Primary opcounters during '{}' trial: {}", profile, delta.toString().trim());
+        client.close();
+    }
+
+    static OperationProfiles profiles(String name) {
+        switch (name) {
+            case "primary":
+                return null;
+            case "tiered":
+                return OperationProfiles.DEFAULT;
+            case "fire-and-forget":
+                return new OperationProfiles(WriteConcern.UNACKNOWLEDGED, OperationProfiles.DEFAULT.incidents(), ReadPreference.secondary(90, TimeUnit.SECONDS));
+            default:
+                throw new IllegalArgumentException("Unknown profile " + name);
+        }
+    }
+
+    private Document primaryOpcounters() {
+        Document status = client.getDatabase("admin").runCommand(new Document("serverStatus", 1), ReadPreference.primary());
+        return status.get("opcounters", Document.class);
+    }
+
+    @Benchmark
+    public void telemetryUpdate() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        vehicleService.updateTelemetry(ids[random.nextInt(ids.length)], Fixtures.telemetry(random));
+    }
+
+    @Benchmark
+    public void reportIncident() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        vehicleService.reportIncident(ids[random.nextInt(ids.length)], new Incident(new Date(), "Moteur", "bench"));
+    }
+
+    @Benchmark
+    public List<Document> analyticsBatteryByBrand() {
+        return analytics.batteryAverageByBrand();
+    }
+}
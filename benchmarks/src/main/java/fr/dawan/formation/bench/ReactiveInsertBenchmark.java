@@ -0,0 +1,107 @@
+package fr.dawan.formation.bench;
+
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import fr.dawan.formation.reactive.IteratorPublisher;
+import fr.dawan.formation.reactive.ReactiveBatchWriter;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to load {@link #DOCS} history documents through ReactiveBatchWriter for each
+ * batch size / in-flight combination. inFlight=1 reproduces the former latch-per-batch loop.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReactiveInsertBenchmark {
+
+    static final int DOCS = 100_000;
+
+    @Param({"500", "1000", "5000"})
+    public int batchSize;
+
+    @Param({"1", "4", "8", "16"})
+    public int inFlight;
+
+    private MongoClient client;
+    private MongoCollection<Document> collection;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        client = MongoClients.create(Fixtures.MONGO_URI);
+        collection = client.getDatabase(Fixtures.DATABASE).getCollection("telemetry_history_bench");
+    }
+
+    @Setup(Level.Iteration)
+    public void dropCollection() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        collection.drop().subscribe(new Subscriber<Void>() {
+            @Override public void onSubscribe(Subscription s) { s.request(1); }
+            @Override public void onNext(Void v) { }
+            @Override public void onError(Throwable t) { latch.countDown(); }
+            @Override public void onComplete() { latch.countDown(); }
+        });
+        latch.await(30, TimeUnit.SECONDS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.close();
+    }
+
+    @Benchmark
+    public ReactiveBatchWriter.Result insert() throws Exception {
+        ReactiveBatchWriter writer = new ReactiveBatchWriter(collection, batchSize, inFlight, 3);
+        return writer.write(new IteratorPublisher<>(ReactiveInsertBenchmark::generator)).get(10, TimeUnit.MINUTES);
+    }
+
+    private static Iterator<Document> generator() {
+        return new Iterator<>() {
+            private int produced;
+
+            @Override
+            public boolean hasNext() {
+                return produced < DOCS;
+            }
+
+            @Override
+            public Document next() {
+                if (produced++ >= DOCS) throw new NoSuchElementException();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                return new Document("vehicleId", String.format("VEH-%04d", random.nextInt(200) + 1))
+                    .append("timestamp", new Date(System.currentTimeMillis() - random.nextLong(90L * 24 * 3600 * 1000)))
+                    .append("location", new Document("city", "Paris").append("coords", List.of(2.35 + random.nextDouble(), 48.85 + random.nextDouble())))
+                    .append("energyConsumed", random.nextDouble() * 10)
+                    .append("speed", random.nextDouble() * 130)
+                    .append("createdAt", new Date());
+            }
+        };
+    }
+}
@@ -0,0 +1,121 @@
+package fr.dawan.formation.bench;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.InsertManyOptions;
+import fr.dawan.formation.model.Telemetry;
+import fr.dawan.formation.service.ShardingSetup;
+import fr.dawan.formation.service.TelemetryHistoryService;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write throughput of raw points and hourly buckets through a mongos. Run it once per
+ * topology size and compare points/ms, e.g.:
+ *
+ * <pre>
+ * scripts/sharded-cluster.sh start 1 &amp;&amp; java -Dmongo.uri=mongodb://localhost:27117 -jar benchmarks.jar ShardedWriteBenchmark
+ * scripts/sharded-cluster.sh start 2 ...   # grows the same cluster; rerun
+ * </pre>
+ *
+ * Against a plain mongod the sharding step is skipped and this is the single-node baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Threads(16)
+@Fork(1)
+public class ShardedWriteBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(ShardedWriteBenchmark.class);
+    private static final int BATCH = 1_000;
+
+    @Param({"10000"})
+    public int vehicles;
+
+    private MongoClient client;
+    private MongoCollection<Document> points;
+    private TelemetryHistoryService history;
+    private String[] vehicleIds;
+    private ObjectId[] vehicleObjectIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        client = MongoClients.create(Fixtures.MONGO_URI);
+        MongoDatabase db = client.getDatabase(Fixtures.DATABASE);
+        Fixtures.dropAll(db);
+
+        history = new TelemetryHistoryService(db);
+        history.ensureIndexes();
+        ShardingSetup sharding = new ShardingSetup(client, Fixtures.DATABASE);
+        sharding.run();
+        log.info("Benchmarking against {} shard(s)", sharding.isMongos() ? sharding.shardCount() : 0);
+
+        points = db.getCollection("telemetry_history");
+        vehicleIds = new String[vehicles];
+        vehicleObjectIds = new ObjectId[vehicles];
+        for (int i = 0; i < vehicles; i++) {
+            vehicleIds[i] = String.format("VEH-%06d", i);
+            vehicleObjectIds[i] = new ObjectId();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void insertPoints() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<Document> batch = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            Telemetry t = Fixtures.telemetry(random);
+            batch.add(new Document("vehicleId", vehicleIds[random.nextInt(vehicleIds.length)])
+                .append("timestamp", new Date())
+                .append("location", new Document("coords", List.of(t.getLon(), t.getLat())))
+                .append("speed", random.nextDouble() * 130.0));
+        }
+        points.insertMany(batch, new InsertManyOptions().ordered(false));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void appendBuckets() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Map<ObjectId, List<Telemetry>> batch = new HashMap<>();
+        for (int i = 0; i < BATCH; i++) {
+            batch.computeIfAbsent(vehicleObjectIds[random.nextInt(vehicleObjectIds.length)], k -> new ArrayList<>()).add(Fixtures.telemetry(random));
+        }
+        history.appendAll(batch);
+    }
+}
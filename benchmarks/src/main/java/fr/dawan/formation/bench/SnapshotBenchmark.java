@@ -0,0 +1,147 @@
+package fr.dawan.formation.bench;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.InsertManyOptions;
+import fr.dawan.formation.snapshot.FleetSnapshots;
+import fr.dawan.formation.snapshot.SnapshotReader;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exporting {@link #POINTS} telemetry_history points as NDJSON (the former export) against a
+ * columnar snapshot, and energy per city from the snapshot against the same $group on the
+ * server. File sizes are logged once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SnapshotBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(SnapshotBenchmark.class);
+
+    static final int POINTS = 1_000_000;
+    static final String[] CITIES = {"Paris", "Lyon", "Marseille", "Toulouse", "Bordeaux", "Nantes", "Lille", "Rennes"};
+
+    private MongoClient client;
+    private MongoCollection<Document> telemetry;
+    private FleetSnapshots snapshots;
+    private Path directory;
+    private Path snapshot;
+    private Date from;
+    private Date to;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        client = MongoClients.create(Fixtures.MONGO_URI);
+        MongoDatabase db = client.getDatabase(Fixtures.DATABASE);
+        Fixtures.dropAll(db);
+        telemetry = db.getCollection("telemetry_history");
+        telemetry.createIndex(Indexes.compoundIndex(Indexes.ascending("vehicleId"), Indexes.descending("timestamp")));
+
+        Random random = new Random(24);
+        long now = System.currentTimeMillis();
+        List<Document> batch = new ArrayList<>(10_000);
+        for (int i = 0; i < POINTS; i++) {
+            batch.add(new Document("vehicleId", "V" + random.nextInt(2_000))
+                .append("timestamp", new Date(now - random.nextLong(30L * 24 * 3_600_000)))
+                .append("location", new Document("city", CITIES[random.nextInt(CITIES.length)])
+                    .append("coords", List.of(-1.0 + random.nextDouble() * 4.0, 43.0 + random.nextDouble() * 6.0)))
+                .append("energyConsumed", Math.round((0.1 + random.nextDouble() * 9.9) * 1000.0) / 1000.0)
+                .append("speed", Math.round(random.nextDouble() * 130.0 * 100.0) / 100.0));
+            if (batch.size() == 10_000) {
+                telemetry.insertMany(batch, new InsertManyOptions().ordered(false));
+                batch.clear();
+            }
+        }
+        from = new Date(now - 31L * 24 * 3_600_000);
+        to = new Date(now + 1);
+
+        snapshots = new FleetSnapshots(db);
+        directory = Files.createTempDirectory("fleet-snapshots");
+        snapshot = directory.resolve("telemetry.snap");
+        snapshots.exportTelemetry(snapshot, from, to);
+        Path json = directory.resolve("telemetry.ndjson");
+        exportJson(json);
+        log.info("telemetry_history x{}: NDJSON {} bytes, snapshot {} bytes", POINTS, Files.size(json), Files.size(snapshot));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path p : (Iterable<Path>) files::iterator) Files.delete(p);
+        }
+        Files.delete(directory);
+        client.close();
+    }
+
+    @Benchmark
+    public long exportNdjson() throws IOException {
+        return exportJson(directory.resolve("bench.ndjson"));
+    }
+
+    @Benchmark
+    public long exportSnapshot() throws IOException {
+        return snapshots.exportTelemetry(directory.resolve("bench.snap"), from, to);
+    }
+
+    @Benchmark
+    public Map<String, SnapshotReader.Stats> energyByCitySnapshot() throws IOException {
+        try (SnapshotReader reader = new SnapshotReader(snapshot)) {
+            return reader.groupBy("location.city", "energyConsumed", "timestamp", from.getTime(), to.getTime());
+        }
+    }
+
+    @Benchmark
+    public List<Document> energyByCityAggregation() {
+        return telemetry.aggregate(List.of(
+            new Document("$match", new Document("timestamp", new Document("$gte", from).append("$lt", to))),
+            new Document("$group", new Document("_id", "$location.city").append("totalEnergy", new Document("$sum", "$energyConsumed")))
+        )).into(new ArrayList<>());
+    }
+
+    private long exportJson(Path file) throws IOException {
+        long rows = 0;
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+             MongoCursor<Document> cursor = telemetry.find(new Document("timestamp", new Document("$gte", from).append("$lt", to)))
+                 .batchSize(2_000).cursor()) {
+            while (cursor.hasNext()) {
+                out.write(cursor.next().toJson());
+                out.newLine();
+                rows++;
+            }
+        }
+        return rows;
+    }
+}
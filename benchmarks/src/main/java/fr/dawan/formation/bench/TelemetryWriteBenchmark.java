@@ -0,0 +1,92 @@
+package fr.dawan.formation.bench;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+import fr.dawan.formation.model.Vehicle;
+import fr.dawan.formation.service.TelemetryHistoryService;
+import fr.dawan.formation.service.TelemetryIngestor;
+import fr.dawan.formation.service.VehicleService;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One updateOne per fix (VehicleService.updateTelemetry) against the coalescing bulk
+ * TelemetryIngestor. Ingestor throughput is measured at the producer, which blocks once the
+ * buffer is full, so the steady state reflects what the flusher sustains.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(8)
+@Fork(1)
+public class TelemetryWriteBenchmark {
+
+    @Param({"1000", "20000"})
+    public int vehicles;
+
+    private MongoClient client;
+    private VehicleService vehicleService;
+    private TelemetryIngestor ingestor;
+    private ObjectId[] ids;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        client = MongoClients.create(Fixtures.MONGO_URI);
+        MongoDatabase db = client.getDatabase(Fixtures.DATABASE);
+        Fixtures.dropAll(db);
+        new TelemetryHistoryService(db).ensureIndexes();
+
+        vehicleService = new VehicleService(db);
+        Random random = new Random(7);
+        List<ObjectId> owners = Fixtures.seedOwners(db, 100);
+        List<ObjectId> list = new ArrayList<>(vehicles);
+        for (int i = 0; i < vehicles; i++) {
+            Vehicle v = Fixtures.vehicle(random, owners.get(random.nextInt(owners.size())), 2);
+            vehicleService.registerVehicle(v);
+            list.add(v.getId());
+        }
+        ids = list.toArray(new ObjectId[0]);
+
+        ingestor = new TelemetryIngestor(db, 1000, 100, 20_000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        ingestor.close();
+        client.close();
+    }
+
+    @Benchmark
+    public void singleUpdate() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        vehicleService.updateTelemetry(ids[random.nextInt(ids.length)], Fixtures.telemetry(random));
+    }
+
+    @Benchmark
+    public void coalescingIngest() throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        ingestor.submit(ids[random.nextInt(ids.length)], Fixtures.telemetry(random));
+    }
+}
@@ -0,0 +1,86 @@
+package fr.dawan.formation.service;
+
+import fr.dawan.formation.bench.Fixtures;
+import fr.dawan.formation.codec.FleetCodecs;
+import fr.dawan.formation.model.Vehicle;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Document-based toDocument/fromDocument against the streaming VehicleCodec, down to BSON bytes
+ * in both directions. Needs no database; run with {@code -prof gc} for allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappingBenchmark {
+
+    @Param({"0", "10", "200"})
+    public int incidents;
+
+    private final EncoderContext encoderContext = EncoderContext.builder().build();
+    private final DecoderContext decoderContext = DecoderContext.builder().build();
+    private final Codec<Document> documentCodec = FleetCodecs.REGISTRY.get(Document.class);
+    private final Codec<Vehicle> vehicleCodec = FleetCodecs.REGISTRY.get(Vehicle.class);
+
+    private Vehicle vehicle;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        vehicle = Fixtures.vehicle(new Random(42), new ObjectId(), incidents);
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        vehicleCodec.encode(new BsonBinaryWriter(buffer), vehicle, encoderContext);
+        encoded = buffer.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encodeWithDocument() {
+        BasicOutputBuffer buffer = new BasicOutputBuffer(encoded.length);
+        documentCodec.encode(new BsonBinaryWriter(buffer), VehicleService.toDocument(vehicle), encoderContext);
+        return buffer.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encodeWithCodec() {
+        BasicOutputBuffer buffer = new BasicOutputBuffer(encoded.length);
+        vehicleCodec.encode(new BsonBinaryWriter(buffer), vehicle, encoderContext);
+        return buffer.toByteArray();
+    }
+
+    @Benchmark
+    public Vehicle decodeWithDocument() {
+        Document document = documentCodec.decode(new BsonBinaryReader(ByteBuffer.wrap(encoded)), decoderContext);
+        return VehicleService.fromDocument(document);
+    }
+
+    @Benchmark
+    public Vehicle decodeWithCodec() {
+        return vehicleCodec.decode(new BsonBinaryReader(ByteBuffer.wrap(encoded)), decoderContext);
+    }
+}
@@ -0,0 +1,66 @@
+#!/usr/bin/env bash
+# Local three-member replica set (rs0 on ports 27301-27303) for testing write concerns
+# and secondary reads:
+#
+#   scripts/replica-set.sh start      # URI: mongodb://localhost:27301,localhost:27302,localhost:27303/?replicaSet=rs0
+#   scripts/replica-set.sh lag 5      # delay secondary 27303 replication by 5 s (maxStaleness tests)
+#   scripts/replica-set.sh stop | clean
+set -euo pipefail
+
+BASE_DIR="${RS_DIR:-/tmp/fleet-rs}"
+PORTS=(27301 27302 27303)
+MONGOSH="${MONGOSH:-mongosh}"
+
+wait_for() {
+  for _ in $(seq 1 50); do
+    "$MONGOSH" --quiet --port "$1" --eval 'db.adminCommand({ping: 1}).ok' >/dev/null 2>&1 && return 0
+    sleep 0.2
+  done
+  echo "mongod on port $1 did not come up" >&2
+  exit 1
+}
+
+start() {
+  mkdir -p "$BASE_DIR/logs"
+  for port in "${PORTS[@]}"; do
+    if ! pgrep -f "mongod.*--port $port" >/dev/null; then
+      mkdir -p "$BASE_DIR/$port"
+      mongod --replSet rs0 --port "$port" --dbpath "$BASE_DIR/$port" \
+        --logpath "$BASE_DIR/logs/$port.log" --wiredTigerCacheSizeGB 0.5 --fork
+      wait_for "$port"
+    fi
+  done
+
+  "$MONGOSH" --quiet --port "${PORTS[0]}" --eval "
+    try { rs.status() } catch (e) {
+      rs.initiate({_id: 'rs0', members: [
+        {_id: 0, host: 'localhost:${PORTS[0]}', priority: 2},
+        {_id: 1, host: 'localhost:${PORTS[1]}'},
+        {_id: 2, host: 'localhost:${PORTS[2]}'}]})
+    }
+    while (!db.hello().isWritablePrimary) sleep(200)"
+
+  echo "replica set ready: mongodb://localhost:${PORTS[0]},localhost:${PORTS[1]},localhost:${PORTS[2]}/?replicaSet=rs0"
+}
+
+lag() {
+  local seconds=${1:-5}
+  "$MONGOSH" --quiet --port "${PORTS[0]}" --eval "
+    const cfg = rs.conf();
+    cfg.members[2].priority = 0;
+    cfg.members[2].hidden = false;
+    cfg.members[2].secondaryDelaySecs = $seconds;
+    rs.reconfig(cfg)"
+}
+
+stop() {
+  for port in "${PORTS[@]}"; do pkill -f "mongod.*--port $port" || true; done
+}
+
+case "${1:-}" in
+  start) start ;;
+  lag) lag "${2:-5}" ;;
+  stop) stop ;;
+  clean) stop; sleep 1; rm -rf "$BASE_DIR" ;;
+  *) echo "usage: $0 start | lag [seconds] | stop | clean" >&2; exit 1 ;;
+esac
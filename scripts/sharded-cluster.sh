@@ -0,0 +1,81 @@
+#!/usr/bin/env bash
+# Local sharded topology for development and the sharded write benchmark:
+# one config server, N single-member shard replica sets and a mongos on port 27117.
+#
+#   scripts/sharded-cluster.sh start 4     # start (or grow to) 4 shards
+#   scripts/sharded-cluster.sh stop
+#   scripts/sharded-cluster.sh clean       # stop and remove data
+set -euo pipefail
+
+BASE_DIR="${CLUSTER_DIR:-/tmp/fleet-cluster}"
+CONFIG_PORT=27119
+MONGOS_PORT=27117
+SHARD_BASE_PORT=27200
+MONGOSH="${MONGOSH:-mongosh}"
+
+wait_for() {
+  for _ in $(seq 1 50); do
+    "$MONGOSH" --quiet --port "$1" --eval 'db.adminCommand({ping: 1}).ok' >/dev/null 2>&1 && return 0
+    sleep 0.2
+  done
+  echo "mongod on port $1 did not come up" >&2
+  exit 1
+}
+
+init_replset() {
+  local port=$1 name=$2 extra=$3
+  "$MONGOSH" --quiet --port "$port" --eval "
+    try { rs.status() } catch (e) {
+      rs.initiate({_id: '$name', $extra members: [{_id: 0, host: 'localhost:$port'}]})
+    }
+    while (!db.hello().isWritablePrimary) sleep(200)"
+}
+
+start() {
+  local shards=${1:-2}
+  mkdir -p "$BASE_DIR/config" "$BASE_DIR/logs"
+
+  if ! pgrep -f "mongod.*--port $CONFIG_PORT" >/dev/null; then
+    mongod --configsvr --replSet cfg --port $CONFIG_PORT --dbpath "$BASE_DIR/config" \
+      --logpath "$BASE_DIR/logs/config.log" --fork
+    wait_for $CONFIG_PORT
+    init_replset $CONFIG_PORT cfg "configsvr: true,"
+  fi
+
+  for i in $(seq 0 $((shards - 1))); do
+    local port=$((SHARD_BASE_PORT + i))
+    if ! pgrep -f "mongod.*--port $port" >/dev/null; then
+      mkdir -p "$BASE_DIR/shard$i"
+      mongod --shardsvr --replSet "shard$i" --port "$port" --dbpath "$BASE_DIR/shard$i" \
+        --logpath "$BASE_DIR/logs/shard$i.log" --wiredTigerCacheSizeGB 0.5 --fork
+      wait_for "$port"
+      init_replset "$port" "shard$i" ""
+    fi
+  done
+
+  if ! pgrep -f "mongos.*--port $MONGOS_PORT" >/dev/null; then
+    mongos --configdb "cfg/localhost:$CONFIG_PORT" --port $MONGOS_PORT \
+      --logpath "$BASE_DIR/logs/mongos.log" --fork
+    wait_for $MONGOS_PORT
+  fi
+
+  for i in $(seq 0 $((shards - 1))); do
+    "$MONGOSH" --quiet --port $MONGOS_PORT --eval "
+      if (!db.adminCommand({listShards: 1}).shards.some(s => s._id === 'shard$i'))
+        sh.addShard('shard$i/localhost:$((SHARD_BASE_PORT + i))')"
+  done
+
+  echo "mongos ready: mongodb://localhost:$MONGOS_PORT ($shards shards)"
+}
+
+stop() {
+  pkill -f "mongos.*--port $MONGOS_PORT" || true
+  pkill -f "mongod.*--port 27[12][0-9][0-9].*$BASE_DIR" || true
+}
+
+case "${1:-}" in
+  start) start "${2:-2}" ;;
+  stop) stop ;;
+  clean) stop; sleep 1; rm -rf "$BASE_DIR" ;;
+  *) echo "usage: $0 start [shards] | stop | clean" >&2; exit 1 ;;
+esac
@@ -7,8 +7,17 @@ import fr.dawan.formation.model.Incident;
 import fr.dawan.formation.model.Telemetry;
 import fr.dawan.formation.model.User;
 import fr.dawan.formation.model.Vehicle;
+import fr.dawan.formation.service.FleetAggregates;
 import fr.dawan.formation.service.FleetAnalytics;
+import fr.dawan.formation.service.GeoQueryService;
 import fr.dawan.formation.service.GridFsService;
+import fr.dawan.formation.service.IncidentStore;
+import fr.dawan.formation.service.IndexBootstrap;
+import fr.dawan.formation.service.OperationProfiles;
+import fr.dawan.formation.service.TelemetryColumnStore;
+import fr.dawan.formation.service.TelemetryHistoryService;
+import fr.dawan.formation.service.TelemetryIngestor;
+import fr.dawan.formation.service.VehicleCache;
 import fr.dawan.formation.service.VehicleService;
 
 import org.bson.Document;
@@ -18,7 +27,8 @@ import org.slf4j.LoggerFactory;
 
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.nio.file.Path;
+import java.io.OutputStream;
+import java.time.Duration;
 import java.util.Date;
 import java.util.List;
 
@@ -34,10 +44,31 @@ public class Main {
             db.getCollection("vehicles").drop();
             db.getCollection("fs.files").drop();
             db.getCollection("fs.chunks").drop();
+            db.getCollection("telemetry_buckets").drop();
+            db.getCollection("fleet_stats").drop();
+            db.getCollection("incidents").drop();
+
+            new IndexBootstrap(db).run();
 
             VehicleService vehicleService = new VehicleService(db);
             FleetAnalytics analytics = new FleetAnalytics(db);
             GridFsService gridFs = new GridFsService(db);
+            FleetAggregates aggregates = new FleetAggregates(db);
+            GeoQueryService geo = new GeoQueryService(db);
+            OperationProfiles profiles = OperationProfiles.DEFAULT;
+            vehicleService.setProfiles(profiles);
+            analytics.setProfiles(profiles);
+            gridFs.setProfiles(profiles);
+            aggregates.setProfiles(profiles);
+            vehicleService.setAggregates(aggregates);
+            VehicleCache cache = new VehicleCache(10_000, Duration.ofMinutes(5));
+            vehicleService.setCache(cache);
+            gridFs.setCache(cache);
+            IncidentStore incidents = new IncidentStore(db, IncidentStore.DEFAULT_MAX_EMBEDDED);
+            incidents.setProfiles(profiles);
+            vehicleService.setIncidentStore(incidents);
+            gridFs.setIncidentStore(incidents);
+            analytics.setIncidentStore(incidents);
 
             User user = new User();
             user.setName("Jean Dupont");
@@ -71,6 +102,28 @@ public class Main {
 
             log.info("Updated telemetry for {} battery={}%%", vehicle.getRegistration(), updated.getBatteryPercent());
 
+            TelemetryIngestor ingestor = new TelemetryIngestor(db);
+            try (ingestor) {
+                ingestor.setProfiles(profiles);
+                ingestor.setAggregates(aggregates);
+                ingestor.setCache(cache);
+                for (int i = 0; i < 10; i++) {
+                    ingestor.submit(vehicle.getId(), new Telemetry(48.8570 + i * 0.0001, 2.3530, new Date(), 65 - i));
+                }
+            }
+            log.info("Ingested {} fixes in {} writes (coalesce ratio {})", ingestor.getReceivedCount(), ingestor.getWrittenCount(), ingestor.getCoalesceRatio());
+
+            List<Telemetry> history = vehicleService.findTelemetryHistory(vehicle.getId(), new Date(now.getTime() - 3_600_000L), new Date());
+            log.info("Telemetry history for {}: {} points", vehicle.getRegistration(), history.size());
+
+            TelemetryColumnStore store = new TelemetryColumnStore();
+            new TelemetryHistoryService(db).loadInto(store, vehicle.getId(), new Date(now.getTime() - 86_400_000L), new Date());
+            long dayStart = now.getTime() - 86_400_000L;
+            log.info("Trip distance {} m, battery drain {}% over {} points ({} bytes)",
+                Math.round(store.tripDistanceMeters(vehicle.getId(), dayStart, System.currentTimeMillis())),
+                store.batteryDrain(vehicle.getId(), dayStart, System.currentTimeMillis()),
+                store.totalPoints(), store.estimatedBytes());
+
             Incident incident = new Incident(new Date(), "Moteur", "Strange noise from engine");
             vehicleService.reportIncident(vehicle.getId(), incident);
 
@@ -87,17 +140,27 @@ public class Main {
             log.info("Battery average by brand: {} results", avgByBrand.size());
             avgByBrand.forEach(d -> log.info("  {}", d.toJson()));
 
-            List<Document> alerts = analytics.maintenanceAlertsEngineIncidents();
-            log.info("Maintenance alerts (engine incidents): {} results", alerts.size());
-            alerts.forEach(d -> log.info("  {}", d.toJson()));
+            log.info("Maintenance alerts (engine incidents):");
+            analytics.maintenanceAlertsEngineIncidents(FleetAnalytics.DEFAULT_BATCH_SIZE, true, d -> log.info("  {}", d.toJson()));
 
             List<Document> topOwners = analytics.topOwners();
             log.info("Top owners: {} results", topOwners.size());
             topOwners.forEach(d -> log.info("  {}", d.toJson()));
 
+            aggregates.reconcile();
+            log.info("Materialized battery average by brand: {}", aggregates.batteryAverageByBrand());
+            log.info("Materialized top owners: {}", aggregates.topOwners(3));
+
+            log.info("Vehicles within 2 km of Notre-Dame: {}", geo.withinRadius(48.8530, 2.3499, 2_000, null));
+            log.info("Nearest vehicles: {}", geo.nearest(48.8530, 2.3499, 5, 10_000, null));
+
+            vehicleService.findById(vehicle.getId());
+            vehicleService.findById(vehicle.getId());
+            log.info("Vehicle cache: {} hits, {} misses, {} evictions", cache.getHitCount(), cache.getMissCount(), cache.getEvictionCount());
+
             try {
-                Path downloaded = gridFs.getIncidentEvidence(vehicle.getId().toHexString(), 0);
-                log.info("Downloaded evidence to {}", downloaded.toAbsolutePath());
+                var evidence = gridFs.streamIncidentEvidence(vehicle.getId().toHexString(), 0, OutputStream.nullOutputStream());
+                log.info("Streamed evidence {} ({} bytes)", evidence.getFilename(), evidence.getLength());
             } catch (Exception e) {
                 log.warn("Could not download evidence: {}", e.getMessage());
             }
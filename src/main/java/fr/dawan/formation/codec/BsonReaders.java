@@ -0,0 +1,58 @@
+package fr.dawan.formation.codec;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.types.ObjectId;
+
+import java.util.Date;
+
+final class BsonReaders {
+  private BsonReaders() {
+  }
+
+  static double readDouble(BsonReader reader) {
+    switch (reader.getCurrentBsonType()) {
+      case DOUBLE: return reader.readDouble();
+      case INT32: return reader.readInt32();
+      case INT64: return reader.readInt64();
+      case DECIMAL128: return reader.readDecimal128().bigDecimalValue().doubleValue();
+      default:
+        reader.skipValue();
+        return 0.0;
+    }
+  }
+
+  // Null for a BSON null (or any non-number), so an unknown value does not read back as 0.
+  static Integer readInt(BsonReader reader) {
+    switch (reader.getCurrentBsonType()) {
+      case INT32: return reader.readInt32();
+      case INT64: return (int) reader.readInt64();
+      case DOUBLE: return (int) reader.readDouble();
+      case DECIMAL128: return reader.readDecimal128().bigDecimalValue().intValue();
+      case NULL:
+        reader.readNull();
+        return null;
+      default:
+        reader.skipValue();
+        return null;
+    }
+  }
+
+  static String readString(BsonReader reader) {
+    if (reader.getCurrentBsonType() == BsonType.STRING) return reader.readString();
+    reader.skipValue();
+    return null;
+  }
+
+  static Date readDate(BsonReader reader) {
+    if (reader.getCurrentBsonType() == BsonType.DATE_TIME) return new Date(reader.readDateTime());
+    reader.skipValue();
+    return null;
+  }
+
+  static ObjectId readObjectId(BsonReader reader) {
+    if (reader.getCurrentBsonType() == BsonType.OBJECT_ID) return reader.readObjectId();
+    reader.skipValue();
+    return null;
+  }
+}
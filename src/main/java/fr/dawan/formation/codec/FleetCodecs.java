@@ -0,0 +1,27 @@
+package fr.dawan.formation.codec;
+
+import com.mongodb.MongoClientSettings;
+import fr.dawan.formation.model.Incident;
+import fr.dawan.formation.model.Telemetry;
+import fr.dawan.formation.model.Vehicle;
+import org.bson.codecs.Codec;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+
+public final class FleetCodecs implements CodecProvider {
+
+  public static final CodecRegistry REGISTRY = CodecRegistries.fromRegistries(
+    CodecRegistries.fromProviders(new FleetCodecs()),
+    MongoClientSettings.getDefaultCodecRegistry()
+  );
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> Codec<T> get(Class<T> clazz, CodecRegistry registry) {
+    if (clazz == Vehicle.class) return (Codec<T>) new VehicleCodec(registry);
+    if (clazz == Telemetry.class) return (Codec<T>) new TelemetryCodec();
+    if (clazz == Incident.class) return (Codec<T>) new IncidentCodec();
+    return null;
+  }
+}
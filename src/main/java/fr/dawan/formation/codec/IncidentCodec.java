@@ -0,0 +1,61 @@
+package fr.dawan.formation.codec;
+
+import fr.dawan.formation.model.Incident;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import static fr.dawan.formation.codec.BsonReaders.readDate;
+import static fr.dawan.formation.codec.BsonReaders.readInt;
+import static fr.dawan.formation.codec.BsonReaders.readObjectId;
+import static fr.dawan.formation.codec.BsonReaders.readString;
+
+public class IncidentCodec implements Codec<Incident> {
+
+  @Override
+  public void encode(BsonWriter writer, Incident incident, EncoderContext context) {
+    writer.writeStartDocument();
+
+    if (incident.getSeq() != null) writer.writeInt32("seq", incident.getSeq());
+    if (incident.getDate() != null) writer.writeDateTime("date", incident.getDate().getTime());
+    else writer.writeNull("date");
+    writeNullableString(writer, "type", incident.getType());
+    writeNullableString(writer, "description", incident.getDescription());
+    if (incident.getEvidenceId() != null) writer.writeObjectId("evidenceId", incident.getEvidenceId());
+
+    writer.writeEndDocument();
+  }
+
+  static void writeNullableString(BsonWriter writer, String name, String value) {
+    if (value != null) writer.writeString(name, value);
+    else writer.writeNull(name);
+  }
+
+  @Override
+  public Incident decode(BsonReader reader, DecoderContext context) {
+    Incident incident = new Incident();
+
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      switch (reader.readName()) {
+        case "seq": incident.setSeq(readInt(reader)); break;
+        case "date": incident.setDate(readDate(reader)); break;
+        case "type": incident.setType(readString(reader)); break;
+        case "description": incident.setDescription(readString(reader)); break;
+        case "evidenceId": incident.setEvidenceId(readObjectId(reader)); break;
+        default: reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+
+    return incident;
+  }
+
+  @Override
+  public Class<Incident> getEncoderClass() {
+    return Incident.class;
+  }
+}
@@ -0,0 +1,82 @@
+package fr.dawan.formation.codec;
+
+import fr.dawan.formation.model.Telemetry;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import static fr.dawan.formation.codec.BsonReaders.readDate;
+import static fr.dawan.formation.codec.BsonReaders.readDouble;
+import static fr.dawan.formation.codec.BsonReaders.readInt;
+
+/**
+ * Maps the embedded {@code telemetry} sub-document: {lastPosition: {lat, lon, ts}, location, batteryPercent}.
+ * {@code location} is a GeoJSON mirror of lastPosition for the 2dsphere index and is not read back.
+ */
+public class TelemetryCodec implements Codec<Telemetry> {
+
+  @Override
+  public void encode(BsonWriter writer, Telemetry telemetry, EncoderContext context) {
+    writer.writeStartDocument();
+
+    writer.writeStartDocument("lastPosition");
+    writer.writeDouble("lat", telemetry.getLat());
+    writer.writeDouble("lon", telemetry.getLon());
+    if (telemetry.getTs() != null) writer.writeDateTime("ts", telemetry.getTs().getTime());
+    else writer.writeNull("ts");
+    writer.writeEndDocument();
+
+    writer.writeStartDocument("location");
+    writer.writeString("type", "Point");
+    writer.writeStartArray("coordinates");
+    writer.writeDouble(telemetry.getLon());
+    writer.writeDouble(telemetry.getLat());
+    writer.writeEndArray();
+    writer.writeEndDocument();
+
+    if (telemetry.getBatteryPercent() != null) writer.writeInt32("batteryPercent", telemetry.getBatteryPercent());
+
+    writer.writeEndDocument();
+  }
+
+  @Override
+  public Telemetry decode(BsonReader reader, DecoderContext context) {
+    Telemetry telemetry = new Telemetry();
+
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      String name = reader.readName();
+      if ("lastPosition".equals(name) && reader.getCurrentBsonType() == BsonType.DOCUMENT) {
+        readLastPosition(reader, telemetry);
+      } else if ("batteryPercent".equals(name)) {
+        telemetry.setBatteryPercent(readInt(reader));
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+
+    return telemetry;
+  }
+
+  private static void readLastPosition(BsonReader reader, Telemetry telemetry) {
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      switch (reader.readName()) {
+        case "lat": telemetry.setLat(readDouble(reader)); break;
+        case "lon": telemetry.setLon(readDouble(reader)); break;
+        case "ts": telemetry.setTs(readDate(reader)); break;
+        default: reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+  }
+
+  @Override
+  public Class<Telemetry> getEncoderClass() {
+    return Telemetry.class;
+  }
+}
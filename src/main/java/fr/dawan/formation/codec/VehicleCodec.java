@@ -0,0 +1,160 @@
+package fr.dawan.formation.codec;
+
+import fr.dawan.formation.model.Incident;
+import fr.dawan.formation.model.Telemetry;
+import fr.dawan.formation.model.Vehicle;
+import org.bson.BsonObjectId;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.BsonWriter;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.CollectibleCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static fr.dawan.formation.codec.BsonReaders.readDate;
+import static fr.dawan.formation.codec.BsonReaders.readObjectId;
+import static fr.dawan.formation.codec.BsonReaders.readString;
+import static fr.dawan.formation.codec.IncidentCodec.writeNullableString;
+
+/**
+ * Streams a {@link Vehicle} to and from BSON with the same field layout the Document-based
+ * mapping in VehicleService produces.
+ */
+public class VehicleCodec implements CollectibleCodec<Vehicle> {
+  private final Codec<Telemetry> telemetryCodec;
+  private final Codec<Incident> incidentCodec;
+  private final Codec<Document> documentCodec;
+
+  public VehicleCodec(CodecRegistry registry) {
+    this.telemetryCodec = registry.get(Telemetry.class);
+    this.incidentCodec = registry.get(Incident.class);
+    this.documentCodec = registry.get(Document.class);
+  }
+
+  @Override
+  public void encode(BsonWriter writer, Vehicle vehicle, EncoderContext context) {
+    writer.writeStartDocument();
+
+    if (vehicle.getId() != null) writer.writeObjectId("_id", vehicle.getId());
+    writeNullableString(writer, "brand", vehicle.getBrand());
+    writeNullableString(writer, "model", vehicle.getModel());
+    writeNullableString(writer, "registration", vehicle.getRegistration());
+    if (vehicle.getOwnerId() != null) writer.writeObjectId("ownerId", vehicle.getOwnerId());
+    else writer.writeNull("ownerId");
+    if (vehicle.getStatus() != null) writer.writeString("status", vehicle.getStatus());
+
+    if (vehicle.getTelemetry() != null) {
+      writer.writeName("telemetry");
+      context.encodeWithChildContext(telemetryCodec, writer, vehicle.getTelemetry());
+    }
+
+    if (vehicle.getIncidents() != null) {
+      writer.writeStartArray("incidents");
+      for (Incident incident : vehicle.getIncidents()) context.encodeWithChildContext(incidentCodec, writer, incident);
+      writer.writeEndArray();
+    }
+    writer.writeInt32("incidentCount", incidentCount(vehicle.getIncidents()));
+
+    if (vehicle.getSpecs() != null) {
+      writer.writeName("specs");
+      context.encodeWithChildContext(documentCodec, writer, new Document(vehicle.getSpecs()));
+    }
+
+    writeNullableDate(writer, "createdAt", vehicle.getCreatedAt());
+    writeNullableDate(writer, "updatedAt", vehicle.getUpdatedAt());
+
+    writer.writeEndDocument();
+  }
+
+  // Only the latest incidents are embedded; the last one's seq tells how many there were in total.
+  public static int incidentCount(List<Incident> incidents) {
+    if (incidents == null || incidents.isEmpty()) return 0;
+    Integer lastSeq = incidents.get(incidents.size() - 1).getSeq();
+    return lastSeq != null ? lastSeq + 1 : incidents.size();
+  }
+
+  private static void writeNullableDate(BsonWriter writer, String name, Date value) {
+    if (value != null) writer.writeDateTime(name, value.getTime());
+    else writer.writeNull(name);
+  }
+
+  @Override
+  public Vehicle decode(BsonReader reader, DecoderContext context) {
+    Vehicle vehicle = new Vehicle();
+
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      String name = reader.readName();
+      BsonType type = reader.getCurrentBsonType();
+      switch (name) {
+        case "_id": vehicle.setId(readObjectId(reader)); break;
+        case "brand": vehicle.setBrand(readString(reader)); break;
+        case "model": vehicle.setModel(readString(reader)); break;
+        case "registration": vehicle.setRegistration(readString(reader)); break;
+        case "ownerId": vehicle.setOwnerId(readObjectId(reader)); break;
+        case "status": vehicle.setStatus(readString(reader)); break;
+        case "createdAt": vehicle.setCreatedAt(readDate(reader)); break;
+        case "updatedAt": vehicle.setUpdatedAt(readDate(reader)); break;
+        case "telemetry":
+          if (type == BsonType.DOCUMENT) vehicle.setTelemetry(telemetryCodec.decode(reader, context));
+          else reader.skipValue();
+          break;
+        case "incidents":
+          if (type == BsonType.ARRAY) vehicle.setIncidents(readIncidents(reader, context));
+          else reader.skipValue();
+          break;
+        case "specs":
+          if (type == BsonType.DOCUMENT) vehicle.setSpecs(documentCodec.decode(reader, context));
+          else reader.skipValue();
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+
+    return vehicle;
+  }
+
+  private List<Incident> readIncidents(BsonReader reader, DecoderContext context) {
+    List<Incident> incidents = new ArrayList<>();
+    reader.readStartArray();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      if (reader.getCurrentBsonType() == BsonType.DOCUMENT) incidents.add(incidentCodec.decode(reader, context));
+      else reader.skipValue();
+    }
+    reader.readEndArray();
+    return incidents;
+  }
+
+  @Override
+  public Class<Vehicle> getEncoderClass() {
+    return Vehicle.class;
+  }
+
+  @Override
+  public Vehicle generateIdIfAbsentFromDocument(Vehicle vehicle) {
+    if (vehicle.getId() == null) vehicle.setId(new ObjectId());
+    return vehicle;
+  }
+
+  @Override
+  public boolean documentHasId(Vehicle vehicle) {
+    return vehicle.getId() != null;
+  }
+
+  @Override
+  public BsonValue getDocumentId(Vehicle vehicle) {
+    if (vehicle.getId() == null) throw new IllegalStateException("Vehicle has no _id");
+    return new BsonObjectId(vehicle.getId());
+  }
+}
@@ -0,0 +1,53 @@
+package fr.dawan.formation.config;
+
+import org.apache.coyote.ProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Executors for the web tier and the service fan-out. With {@code fleet.threads.virtual=true}
+ * each request and each service call gets its own virtual thread, so a blocking Mongo
+ * round-trip no longer pins a platform thread.
+ */
+@Configuration
+public class ExecutionConfig {
+    private static final Logger log = LoggerFactory.getLogger(ExecutionConfig.class);
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService serviceExecutor(@Value("${fleet.threads.virtual:false}") boolean virtual,
+                                           @Value("${fleet.threads.platform-pool-size:32}") int platformPoolSize) {
+        ExecutorService perTask = virtual ? VirtualThreads.newPerTaskExecutor() : null;
+        if (perTask != null) return perTask;
+        if (virtual) log.warn("fleet.threads.virtual is set but this JVM has no virtual threads; using {} platform threads", platformPoolSize);
+        return Executors.newFixedThreadPool(platformPoolSize);
+    }
+
+    // Background maintenance (compactions, reconciliations); a single daemon thread is plenty.
+    @Bean(destroyMethod = "shutdown")
+    public ScheduledExecutorService maintenanceScheduler() {
+        return Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "fleet-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "fleet.threads.virtual", havingValue = "true")
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadRequests() {
+        return handler -> {
+            // without virtual threads, keep Tomcat's bounded pool rather than an unbounded cached one
+            ExecutorService perTask = VirtualThreads.newPerTaskExecutor();
+            if (perTask != null) handler.setExecutor(perTask);
+        };
+    }
+}
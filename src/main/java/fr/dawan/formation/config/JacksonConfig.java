@@ -0,0 +1,20 @@
+package fr.dawan.formation.config;
+
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import org.bson.types.ObjectId;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * JSON rendering of driver types. Ids go out as the 24-digit hex string the endpoints take
+ * back as path and query parameters, rather than ObjectId's bean view {timestamp, date}.
+ */
+@Configuration
+public class JacksonConfig {
+
+    @Bean
+    public Jackson2ObjectMapperBuilderCustomizer objectIdAsHex() {
+        return builder -> builder.serializerByType(ObjectId.class, ToStringSerializer.instance);
+    }
+}
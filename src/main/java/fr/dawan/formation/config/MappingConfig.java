@@ -0,0 +1,54 @@
+package fr.dawan.formation.config;
+
+import fr.dawan.formation.codec.VehicleCodec;
+import fr.dawan.formation.model.Telemetry;
+import fr.dawan.formation.model.Vehicle;
+import fr.dawan.formation.service.VehicleService;
+import org.bson.Document;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.ReadingConverter;
+import org.springframework.data.convert.WritingConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.mapping.event.BeforeSaveCallback;
+
+import java.util.List;
+
+/**
+ * Keeps documents written through Spring Data (the /api/vehicles resource) in the layout the
+ * driver-level services write and query: telemetry under {@code lastPosition} with its GeoJSON
+ * {@code location} mirror, and a maintained {@code incidentCount}.
+ */
+@Configuration
+public class MappingConfig {
+
+    @Bean
+    public MongoCustomConversions mongoCustomConversions() {
+        return new MongoCustomConversions(List.of(new TelemetryWriter(), new TelemetryReader()));
+    }
+
+    @Bean
+    public BeforeSaveCallback<Vehicle> vehicleIncidentCount() {
+        return (vehicle, document, collection) -> {
+            document.put("incidentCount", VehicleCodec.incidentCount(vehicle.getIncidents()));
+            return vehicle;
+        };
+    }
+
+    @WritingConverter
+    static class TelemetryWriter implements Converter<Telemetry, Document> {
+        @Override
+        public Document convert(Telemetry telemetry) {
+            return VehicleService.telemetryDocument(telemetry);
+        }
+    }
+
+    @ReadingConverter
+    static class TelemetryReader implements Converter<Document, Telemetry> {
+        @Override
+        public Telemetry convert(Document telemetry) {
+            return VehicleService.telemetryFromDocument(telemetry);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package fr.dawan.formation.config;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import fr.dawan.formation.metrics.PoolWaitListener;
+import fr.dawan.formation.metrics.ServiceMetrics;
+import fr.dawan.formation.metrics.SlowCommandLogger;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.mongo.MongoClientFactory;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Instrumentation on top of what the actuator already registers: command latency and pool
+ * size/checked-out gauges come from Boot's Mongo metrics, this adds per-service-method timers,
+ * pool wait time and slow-command logging.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public ServiceMetrics serviceMetrics(MeterRegistry registry) {
+        return new ServiceMetrics(registry);
+    }
+
+    // The explain client is looked up lazily: this customizer runs while that client is being built.
+    @Bean
+    public MongoClientSettingsBuilderCustomizer mongoDiagnostics(ObjectProvider<MongoClient> client,
+                                                                 @Value("${fleet.metrics.slow-command-threshold:PT0.1S}") Duration threshold) {
+        SlowCommandLogger slowCommands = new SlowCommandLogger(threshold, client::getObject);
+        return builder -> builder.addCommandListener(slowCommands);
+    }
+
+    // Boot's sync client plus the pool wait listener. Not a shared customizer: the reactive client
+    // checks connections out and in on different threads, which the listener cannot pair.
+    @Bean(destroyMethod = "close")
+    public MongoClient mongoClient(ObjectProvider<MongoClientSettingsBuilderCustomizer> customizers, MongoClientSettings settings,
+                                   MeterRegistry registry) {
+        PoolWaitListener poolWait = new PoolWaitListener(registry);
+        List<MongoClientSettingsBuilderCustomizer> all = new ArrayList<>(customizers.orderedStream().toList());
+        all.add(builder -> builder.applyToConnectionPoolSettings(pool -> pool.addConnectionPoolListener(poolWait)));
+        return new MongoClientFactory(all).createMongoClient(settings);
+    }
+}
@@ -0,0 +1,195 @@
+package fr.dawan.formation.config;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoDatabase;
+import fr.dawan.formation.metrics.ServiceMetrics;
+import fr.dawan.formation.service.BulkVehicleImporter;
+import fr.dawan.formation.service.FleetAggregates;
+import fr.dawan.formation.service.FleetAnalytics;
+import fr.dawan.formation.service.FleetReports;
+import fr.dawan.formation.service.GeoQueryService;
+import fr.dawan.formation.service.GridFsService;
+import fr.dawan.formation.service.IncidentStore;
+import fr.dawan.formation.service.IndexBootstrap;
+import fr.dawan.formation.service.OperationProfiles;
+import fr.dawan.formation.service.ShardingSetup;
+import fr.dawan.formation.service.TelemetryIngestor;
+import fr.dawan.formation.service.VehicleCache;
+import fr.dawan.formation.service.VehicleService;
+import fr.dawan.formation.snapshot.FleetSnapshots;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exposes the driver-level services as beans and sizes the connection pool. In virtual-thread
+ * mode the pool, not the thread count, becomes the concurrency limit, so it defaults larger.
+ */
+@Configuration
+public class MongoConfig {
+
+    @Bean
+    public MongoClientSettingsBuilderCustomizer connectionPoolSizing(
+            @Value("${fleet.threads.virtual:false}") boolean virtual,
+            @Value("${fleet.mongo.pool.max-size:0}") int maxSize,
+            @Value("${fleet.mongo.pool.min-size:0}") int minSize,
+            @Value("${fleet.mongo.pool.max-connecting:4}") int maxConnecting,
+            @Value("${fleet.mongo.pool.max-wait:PT10S}") Duration maxWait) {
+        // the larger default only when requests really run on virtual threads
+        int size = maxSize > 0 ? maxSize : (virtual && VirtualThreads.isAvailable() ? 500 : 100);
+        return builder -> builder.applyToConnectionPoolSettings(pool -> pool
+            .maxSize(size)
+            .minSize(Math.min(minSize, size))
+            .maxConnecting(maxConnecting)
+            .maxWaitTime(maxWait.toMillis(), TimeUnit.MILLISECONDS));
+    }
+
+    @Bean
+    public OperationProfiles operationProfiles(@Value("${fleet.profiles.telemetry-write-concern:w1}") String telemetry,
+                                               @Value("${fleet.profiles.incident-write-concern:majority}") String incidents,
+                                               @Value("${fleet.profiles.analytics-read-preference:secondaryPreferred}") String analytics,
+                                               @Value("${fleet.profiles.analytics-max-staleness:PT2M}") Duration maxStaleness) {
+        return OperationProfiles.of(telemetry, incidents, analytics, maxStaleness);
+    }
+
+    @Bean
+    public MongoDatabase fleetDatabase(MongoDatabaseFactory factory) {
+        return factory.getMongoDatabase();
+    }
+
+    // Creates and checks every index the services query through before the app takes traffic.
+    @Bean
+    @ConditionalOnProperty(name = "fleet.indexes.bootstrap", havingValue = "true", matchIfMissing = true)
+    public ApplicationRunner indexBootstrap(MongoDatabase db) {
+        return args -> new IndexBootstrap(db).run();
+    }
+
+    // Against a mongos, shards the high-volume collections (idempotent) and logs whether per-vehicle queries stay targeted.
+    @Bean
+    @ConditionalOnProperty(name = "fleet.sharding.enabled", havingValue = "true")
+    public ApplicationRunner shardingSetup(MongoClient client, MongoDatabase db) {
+        return args -> {
+            ShardingSetup sharding = new ShardingSetup(client, db.getName());
+            sharding.run();
+            if (sharding.isMongos()) sharding.verifyTargeting();
+        };
+    }
+
+    @Bean
+    public VehicleCache vehicleCache(@Value("${fleet.cache.max-entries:10000}") int maxEntries,
+                                     @Value("${fleet.cache.ttl:PT5M}") Duration ttl) {
+        return new VehicleCache(maxEntries, ttl);
+    }
+
+    @Bean
+    public FleetAggregates fleetAggregates(MongoDatabase db, OperationProfiles profiles, ScheduledExecutorService maintenanceScheduler,
+                                           @Value("${fleet.aggregates.reconcile-period:PT15M}") Duration reconcilePeriod) {
+        FleetAggregates aggregates = new FleetAggregates(db);
+        aggregates.setProfiles(profiles);
+        aggregates.scheduleReconciliation(maintenanceScheduler, reconcilePeriod);
+        return aggregates;
+    }
+
+    @Bean
+    public IncidentStore incidentStore(MongoDatabase db, OperationProfiles profiles,
+                                       @Value("${fleet.incidents.max-embedded:" + IncidentStore.DEFAULT_MAX_EMBEDDED + "}") int maxEmbedded,
+                                       @Value("${fleet.incidents.migrate-on-startup:false}") boolean migrate) {
+        IncidentStore store = new IncidentStore(db, maxEmbedded);
+        store.setProfiles(profiles);
+        if (migrate) store.migrate(db.getCollection("vehicles"));
+        return store;
+    }
+
+    // Closed after the services using it (they depend on it) and before the client: close() flushes what is buffered.
+    @Bean(destroyMethod = "close")
+    public TelemetryIngestor telemetryIngestor(MongoDatabase db, OperationProfiles profiles, FleetAggregates aggregates, VehicleCache cache,
+                                               ServiceMetrics metrics,
+                                               @Value("${fleet.telemetry.ingest.batch-size:500}") int batchSize,
+                                               @Value("${fleet.telemetry.ingest.flush-interval:PT0.2S}") Duration flushInterval,
+                                               @Value("${fleet.telemetry.ingest.max-pending:10000}") int maxPending) {
+        TelemetryIngestor ingestor = new TelemetryIngestor(db, batchSize, flushInterval.toMillis(), maxPending);
+        ingestor.setProfiles(profiles);
+        ingestor.setMetrics(metrics);
+        ingestor.setAggregates(aggregates);
+        ingestor.setCache(cache);
+        return ingestor;
+    }
+
+    @Bean
+    public VehicleService vehicleService(MongoDatabase db, OperationProfiles profiles, FleetAggregates aggregates, VehicleCache cache,
+                                         IncidentStore incidents, TelemetryIngestor ingestor, ServiceMetrics metrics) {
+        VehicleService service = new VehicleService(db);
+        service.setProfiles(profiles);
+        service.setMetrics(metrics);
+        service.setAggregates(aggregates);
+        service.setCache(cache);
+        service.setIncidentStore(incidents);
+        service.setIngestor(ingestor);
+        return service;
+    }
+
+    @Bean
+    public BulkVehicleImporter bulkVehicleImporter(MongoDatabase db, OperationProfiles profiles, FleetAggregates aggregates, ServiceMetrics metrics,
+                                                   ExecutorService serviceExecutor,
+                                                   @Value("${fleet.import.batch-size:1000}") int batchSize,
+                                                   @Value("${fleet.import.parallelism:0}") int parallelism) {
+        int workers = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        BulkVehicleImporter importer = new BulkVehicleImporter(db, serviceExecutor, batchSize, workers);
+        importer.setProfiles(profiles);
+        importer.setAggregates(aggregates);
+        importer.setMetrics(metrics);
+        return importer;
+    }
+
+    @Bean
+    public FleetAnalytics fleetAnalytics(MongoDatabase db, OperationProfiles profiles, IncidentStore incidents, FleetAggregates aggregates,
+                                         ServiceMetrics metrics) {
+        FleetAnalytics analytics = new FleetAnalytics(db);
+        analytics.setProfiles(profiles);
+        analytics.setMetrics(metrics);
+        analytics.setIncidentStore(incidents);
+        analytics.setAggregates(aggregates);
+        return analytics;
+    }
+
+    @Bean
+    public GridFsService gridFsService(MongoDatabase db, OperationProfiles profiles, VehicleCache cache, IncidentStore incidents,
+                                       ServiceMetrics metrics, ScheduledExecutorService maintenanceScheduler,
+                                       @Value("${fleet.evidence.compaction-period:PT6H}") Duration compactionPeriod,
+                                       @Value("${fleet.evidence.compaction-grace:PT1H}") Duration compactionGrace) {
+        GridFsService service = new GridFsService(db);
+        service.setProfiles(profiles);
+        service.setMetrics(metrics);
+        service.setCache(cache);
+        service.setIncidentStore(incidents);
+        service.scheduleCompaction(maintenanceScheduler, compactionPeriod, compactionGrace);
+        return service;
+    }
+
+    @Bean
+    public GeoQueryService geoQueryService(MongoDatabase db) {
+        return new GeoQueryService(db);
+    }
+
+    @Bean
+    public FleetSnapshots fleetSnapshots(MongoDatabase db, OperationProfiles profiles,
+                                         @Value("${fleet.snapshot.row-group-size:65536}") int rowGroupSize) {
+        FleetSnapshots snapshots = new FleetSnapshots(db, rowGroupSize);
+        snapshots.setProfiles(profiles);
+        return snapshots;
+    }
+
+    @Bean
+    public FleetReports fleetReports(FleetAnalytics analytics, ExecutorService serviceExecutor) {
+        return new FleetReports(analytics, serviceExecutor);
+    }
+}
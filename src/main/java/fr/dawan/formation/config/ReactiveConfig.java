@@ -0,0 +1,76 @@
+package fr.dawan.formation.config;
+
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import fr.dawan.formation.reactive.TelemetryRollups;
+import fr.dawan.formation.reactive.TelemetryStreamService;
+import fr.dawan.formation.reactive.VehicleChangeStream;
+import fr.dawan.formation.reactive.VehicleEvent;
+import fr.dawan.formation.reactive.VehicleEventBus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.mongo.MongoProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Reactive-streams side of the driver. The client itself comes from Spring Boot's reactive
+ * Mongo auto-configuration, which picks up the same pool customizer as the sync client.
+ */
+@Configuration
+public class ReactiveConfig {
+    private static final Logger log = LoggerFactory.getLogger(ReactiveConfig.class);
+
+    @Bean
+    public MongoDatabase reactiveFleetDatabase(MongoClient reactiveMongoClient, MongoProperties properties) {
+        return reactiveMongoClient.getDatabase(properties.getMongoClientDatabase());
+    }
+
+    @Bean
+    public TelemetryRollups telemetryRollups(MongoDatabase reactiveFleetDatabase,
+                                             ScheduledExecutorService maintenanceScheduler,
+                                             @Value("${fleet.rollups.minute-retention:P2D}") Duration minuteRetention,
+                                             @Value("${fleet.rollups.hour-retention:P90D}") Duration hourRetention,
+                                             @Value("${fleet.rollups.compaction-period:PT1H}") Duration compactionPeriod) {
+        TelemetryRollups rollups = new TelemetryRollups(reactiveFleetDatabase, minuteRetention, hourRetention);
+        rollups.ensureIndexes().subscribe(
+            name -> log.info("Telemetry rollup index {} ready", name),
+            t -> log.error("Could not create telemetry rollup index", t));
+        rollups.scheduleCompaction(maintenanceScheduler, compactionPeriod);
+        return rollups;
+    }
+
+    @Bean
+    public TelemetryStreamService telemetryStreamService(MongoDatabase reactiveFleetDatabase,
+                                                         TelemetryRollups rollups,
+                                                         @Value("${fleet.ingest.batch-size:1000}") int batchSize,
+                                                         @Value("${fleet.ingest.max-in-flight:4}") int maxInFlight) {
+        TelemetryStreamService service = new TelemetryStreamService(reactiveFleetDatabase, batchSize, maxInFlight);
+        service.setRollups(rollups);
+        service.ensureIndexes().subscribe(
+            name -> log.info("Telemetry history index {} ready", name),
+            t -> log.error("Could not create telemetry history index", t));
+        return service;
+    }
+
+    @Bean(destroyMethod = "close")
+    public VehicleEventBus vehicleEventBus() {
+        VehicleEventBus bus = new VehicleEventBus();
+        bus.subscribe("alerts", event -> log.warn("Fleet alert: {}", event),
+            VehicleEvent.Type.LOW_BATTERY, VehicleEvent.Type.ENGINE_INCIDENT);
+        return bus;
+    }
+
+    // Change streams need a replica set or a sharded cluster.
+    @Bean(initMethod = "start", destroyMethod = "close")
+    @ConditionalOnProperty(name = "fleet.events.change-stream", havingValue = "true", matchIfMissing = true)
+    public VehicleChangeStream vehicleChangeStream(MongoDatabase reactiveFleetDatabase, VehicleEventBus vehicleEventBus,
+                                                   @Value("${fleet.events.low-battery-threshold:20}") int lowBatteryThreshold) {
+        return new VehicleChangeStream(reactiveFleetDatabase, "vehicle-events", vehicleEventBus, lowBatteryThreshold);
+    }
+}
@@ -0,0 +1,44 @@
+package fr.dawan.formation.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Thread-per-task executors backed by virtual threads when the runtime has them (Java 21+).
+ * The project still compiles for 17, so the factory method is looked up reflectively; without
+ * it callers keep their own bounded pools rather than a thread per task.
+ */
+public final class VirtualThreads {
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreads.class);
+    private static final Method FACTORY = lookup();
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isAvailable() {
+        return FACTORY != null;
+    }
+
+    // null when the runtime has no virtual threads
+    public static ExecutorService newPerTaskExecutor() {
+        if (FACTORY == null) return null;
+        try {
+            return (ExecutorService) FACTORY.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.warn("Could not create a virtual-thread executor", e);
+            return null;
+        }
+    }
+
+    private static Method lookup() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package fr.dawan.formation.metrics;
+
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent waiting for a pooled connection, per server. Pool size and checked-out counts
+ * come from Micrometer's own pool listener; this adds the wait, which is what grows first
+ * when the pool is undersized. The sync driver checks out on the calling thread, so start and
+ * end are paired through a thread local; that is why it is only registered on the sync client.
+ */
+public class PoolWaitListener implements ConnectionPoolListener {
+  private final MeterRegistry registry;
+  private final ConcurrentHashMap<String, Timer> waits = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Counter> failures = new ConcurrentHashMap<>();
+  private final ThreadLocal<long[]> started = ThreadLocal.withInitial(() -> new long[1]);
+
+  public PoolWaitListener(MeterRegistry registry) {
+    this.registry = registry;
+  }
+
+  @Override
+  public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+    started.get()[0] = System.nanoTime();
+  }
+
+  @Override
+  public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+    long[] start = started.get();
+    if (start[0] == 0) return;
+    long elapsed = System.nanoTime() - start[0];
+    start[0] = 0;
+
+    String server = event.getConnectionId().getServerId().getAddress().toString();
+    waits.computeIfAbsent(server, s -> Timer.builder("fleet.mongo.pool.wait")
+        .tag("server", s)
+        .publishPercentileHistogram()
+        .register(registry))
+      .record(elapsed, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+    started.get()[0] = 0;
+    String server = event.getServerId().getAddress().toString();
+    String reason = event.getReason().name().toLowerCase();
+    failures.computeIfAbsent(server + '/' + reason, k -> Counter.builder("fleet.mongo.pool.checkout.failures")
+        .tag("server", server)
+        .tag("reason", reason)
+        .register(registry))
+      .increment();
+  }
+}
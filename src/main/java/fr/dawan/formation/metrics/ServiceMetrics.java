@@ -0,0 +1,61 @@
+package fr.dawan.formation.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Latency histograms per service method and outcome ({@code fleet.service.calls}) and
+ * transferred bytes ({@code fleet.service.bytes}), plus gauges services register on their own
+ * state. Services default to {@link #NOOP} until a
+ * registry is set.
+ */
+public class ServiceMetrics {
+  public static final ServiceMetrics NOOP = new ServiceMetrics(null);
+
+  private final MeterRegistry registry;
+  private final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, DistributionSummary> summaries = new ConcurrentHashMap<>();
+
+  public ServiceMetrics(MeterRegistry registry) {
+    this.registry = registry;
+  }
+
+  public long start() {
+    return registry != null ? System.nanoTime() : 0L;
+  }
+
+  // Called from a finally block, so failed calls are timed too and tagged outcome=error.
+  public void record(String service, String method, long startNanos, boolean success) {
+    if (registry == null) return;
+    String outcome = success ? "success" : "error";
+    timers.computeIfAbsent(service + '.' + method + '.' + outcome, k -> Timer.builder("fleet.service.calls")
+        .tag("service", service)
+        .tag("method", method)
+        .tag("outcome", outcome)
+        .publishPercentileHistogram()
+        .register(registry))
+      .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+  }
+
+  // The registry only keeps a weak reference to the target, which has to outlive the gauge.
+  public <T> void gauge(String name, String description, T target, ToDoubleFunction<T> value) {
+    if (registry == null) return;
+    Gauge.builder(name, target, value).description(description).register(registry);
+  }
+
+  public void recordBytes(String service, String method, long bytes) {
+    if (registry == null) return;
+    summaries.computeIfAbsent(service + '.' + method, k -> DistributionSummary.builder("fleet.service.bytes")
+        .tag("service", service)
+        .tag("method", method)
+        .baseUnit("bytes")
+        .register(registry))
+      .record(bytes);
+  }
+}
@@ -0,0 +1,165 @@
+package fr.dawan.formation.metrics;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import fr.dawan.formation.service.IndexBootstrap;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Logs reads slower than a threshold with their filter and the winning plan. The explain runs
+ * on a background thread, at most once per minute per command shape, so a burst of slow
+ * queries does not turn into a burst of explains.
+ */
+public class SlowCommandLogger implements CommandListener {
+  private static final Logger log = LoggerFactory.getLogger(SlowCommandLogger.class);
+
+  private static final Set<String> EXPLAINABLE = Set.of("find", "aggregate", "count", "distinct", "findAndModify");
+  private static final Set<String> SESSION_FIELDS = Set.of("lsid", "txnNumber", "autocommit", "startTransaction", "writeConcern", "readConcern");
+  private static final long EXPLAIN_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+  private static final int MAX_FILTER_CHARS = 500;
+
+  private final long thresholdNanos;
+  private final Supplier<MongoClient> client;
+  private final Map<Integer, BsonDocument> inFlight = new ConcurrentHashMap<>();
+  private final Map<String, Long> lastExplained = new ConcurrentHashMap<>();
+  private final ExecutorService explainer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(64), r -> {
+    Thread t = new Thread(r, "slow-command-explain");
+    t.setDaemon(true);
+    return t;
+  });
+
+  public SlowCommandLogger(Duration threshold, Supplier<MongoClient> client) {
+    this.thresholdNanos = threshold.toNanos();
+    this.client = client;
+  }
+
+  @Override
+  public void commandStarted(CommandStartedEvent event) {
+    // the event's command is only valid during the callback
+    if (EXPLAINABLE.contains(event.getCommandName())) inFlight.put(event.getRequestId(), event.getCommand().clone());
+  }
+
+  @Override
+  public void commandSucceeded(CommandSucceededEvent event) {
+    BsonDocument command = inFlight.remove(event.getRequestId());
+    long elapsed = event.getElapsedTime(TimeUnit.NANOSECONDS);
+    if (elapsed < thresholdNanos) return;
+
+    long millis = TimeUnit.NANOSECONDS.toMillis(elapsed);
+    if (command == null) {
+      log.warn("Slow {} took {} ms", event.getCommandName(), millis);
+      return;
+    }
+
+    // OP_MSG carries the database in the command itself ($db)
+    String database = command.getString("$db", new BsonString("?")).getValue();
+    String collection = command.get(event.getCommandName()).isString() ? command.getString(event.getCommandName()).getValue() : "?";
+    String filter = abbreviate(filterOf(event.getCommandName(), command));
+    String shape = database + '.' + collection + ' ' + event.getCommandName() + ' ' + shapeOf(filterOf(event.getCommandName(), command));
+
+    long now = System.nanoTime();
+    Long last = lastExplained.get(shape);
+    if (last != null && now - last < EXPLAIN_INTERVAL_NANOS) {
+      log.warn("Slow {} on {}.{} took {} ms, filter={}", event.getCommandName(), database, collection, millis, filter);
+      return;
+    }
+    lastExplained.put(shape, now);
+
+    try {
+      explainer.execute(() -> {
+        String plan;
+        try {
+          plan = explain(database, command);
+        } catch (RuntimeException e) {
+          plan = "explain failed: " + e.getMessage();
+        }
+        log.warn("Slow {} on {}.{} took {} ms, filter={}, plan={}", event.getCommandName(), database, collection, millis, filter, plan);
+      });
+    } catch (RejectedExecutionException e) {
+      log.warn("Slow {} on {}.{} took {} ms, filter={}", event.getCommandName(), database, collection, millis, filter);
+    }
+  }
+
+  @Override
+  public void commandFailed(CommandFailedEvent event) {
+    inFlight.remove(event.getRequestId());
+  }
+
+  private String explain(String database, BsonDocument command) {
+    BsonDocument explained = new BsonDocument();
+    for (Map.Entry<String, BsonValue> e : command.entrySet()) {
+      if (!e.getKey().startsWith("$") && !SESSION_FIELDS.contains(e.getKey())) explained.put(e.getKey(), e.getValue());
+    }
+    Document result = client.get().getDatabase(database)
+      .runCommand(new Document("explain", explained).append("verbosity", "queryPlanner"));
+
+    Document planner = result.get("queryPlanner", Document.class);
+    if (planner == null) {
+      // aggregate: the plan of the initial $cursor stage
+      List<Document> stages = result.getList("stages", Document.class);
+      Document cursor = stages != null && !stages.isEmpty() ? stages.get(0).get("$cursor", Document.class) : null;
+      planner = cursor != null ? cursor.get("queryPlanner", Document.class) : null;
+    }
+    return planner != null ? IndexBootstrap.planSummary(planner.get("winningPlan")) : "?";
+  }
+
+  private static BsonValue filterOf(String commandName, BsonDocument command) {
+    switch (commandName) {
+      case "find":
+        return command.get("filter");
+      case "aggregate":
+        BsonArray pipeline = command.getArray("pipeline", new BsonArray());
+        if (!pipeline.isEmpty() && pipeline.get(0).isDocument() && pipeline.get(0).asDocument().containsKey("$match")) {
+          return pipeline.get(0).asDocument().get("$match");
+        }
+        return pipeline;
+      default:
+        return command.get("query");
+    }
+  }
+
+  // Field names and operators only, so the same query with different values shares one explain.
+  private static String shapeOf(BsonValue value) {
+    if (value == null) return "{}";
+    if (value.isDocument()) {
+      StringBuilder out = new StringBuilder("{");
+      for (Map.Entry<String, BsonValue> e : value.asDocument().entrySet()) {
+        out.append(e.getKey()).append(':').append(shapeOf(e.getValue())).append(',');
+      }
+      return out.append('}').toString();
+    }
+    if (value.isArray()) {
+      StringBuilder out = new StringBuilder("[");
+      for (BsonValue v : value.asArray()) out.append(shapeOf(v)).append(',');
+      return out.append(']').toString();
+    }
+    return "?";
+  }
+
+  private static String abbreviate(BsonValue filter) {
+    if (filter == null) return "{}";
+    String json = filter.isDocument() ? filter.asDocument().toJson() : filter.toString();
+    return json.length() <= MAX_FILTER_CHARS ? json : json.substring(0, MAX_FILTER_CHARS) + "...";
+  }
+}
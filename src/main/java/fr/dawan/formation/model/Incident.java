@@ -4,6 +4,8 @@ import java.util.Date;
 import org.bson.types.ObjectId;
 
 public class Incident {
+  // position in the vehicle's full incident history, also once it has left the embedded array
+  private Integer seq;
   private Date date;
   private String type;
   private String description;
@@ -23,6 +25,9 @@ public class Incident {
     this.evidenceId = evidenceId;
   }
 
+  public Integer getSeq() { return seq; }
+  public void setSeq(Integer seq) { this.seq = seq; }
+
   public Date getDate() { return date; }
   public void setDate(Date date) { this.date = date; }
 
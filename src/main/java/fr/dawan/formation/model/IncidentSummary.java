@@ -0,0 +1,24 @@
+package fr.dawan.formation.model;
+
+import java.util.List;
+
+import org.bson.types.ObjectId;
+
+public class IncidentSummary {
+  private ObjectId vehicleId;
+  private String registration;
+  private int incidentCount;
+  private List<Incident> incidents;
+
+  public ObjectId getVehicleId() { return vehicleId; }
+  public void setVehicleId(ObjectId vehicleId) { this.vehicleId = vehicleId; }
+
+  public String getRegistration() { return registration; }
+  public void setRegistration(String registration) { this.registration = registration; }
+
+  public int getIncidentCount() { return incidentCount; }
+  public void setIncidentCount(int incidentCount) { this.incidentCount = incidentCount; }
+
+  public List<Incident> getIncidents() { return incidents; }
+  public void setIncidents(List<Incident> incidents) { this.incidents = incidents; }
+}
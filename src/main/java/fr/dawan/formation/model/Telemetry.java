@@ -6,12 +6,13 @@ public class Telemetry {
   private double lat;
   private double lon;
   private Date ts;
-  private int batteryPercent;
+  // null when the source did not report a level; the field is then left out of the document
+  private Integer batteryPercent;
 
   public Telemetry() {
   }
 
-  public Telemetry(double lat, double lon, Date ts, int batteryPercent) {
+  public Telemetry(double lat, double lon, Date ts, Integer batteryPercent) {
       this.lat = lat;
       this.lon = lon;
       this.ts = ts;
@@ -27,6 +28,6 @@ public class Telemetry {
   public Date getTs() { return ts; }
   public void setTs(Date ts) { this.ts = ts; }
   
-  public int getBatteryPercent() { return batteryPercent; }
-  public void setBatteryPercent(int batteryPercent) { this.batteryPercent = batteryPercent; }
+  public Integer getBatteryPercent() { return batteryPercent; }
+  public void setBatteryPercent(Integer batteryPercent) { this.batteryPercent = batteryPercent; }
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+package fr.dawan.formation.model;
+
+import java.util.Date;
+
+import org.bson.types.ObjectId;
+
+public class VehiclePosition {
+  private ObjectId id;
+  private String registration;
+  private double lat;
+  private double lon;
+  private Date ts;
+  private Integer batteryPercent;
+
+  public VehiclePosition() {
+  }
+
+  public VehiclePosition(ObjectId id, String registration, double lat, double lon, Date ts, Integer batteryPercent) {
+    this.id = id;
+    this.registration = registration;
+    this.lat = lat;
+    this.lon = lon;
+    this.ts = ts;
+    this.batteryPercent = batteryPercent;
+  }
+
+  public ObjectId getId() { return id; }
+  public void setId(ObjectId id) { this.id = id; }
+
+  public String getRegistration() { return registration; }
+  public void setRegistration(String registration) { this.registration = registration; }
+
+  public double getLat() { return lat; }
+  public void setLat(double lat) { this.lat = lat; }
+
+  public double getLon() { return lon; }
+  public void setLon(double lon) { this.lon = lon; }
+
+  public Date getTs() { return ts; }
+  public void setTs(Date ts) { this.ts = ts; }
+
+  public Integer getBatteryPercent() { return batteryPercent; }
+  public void setBatteryPercent(Integer batteryPercent) { this.batteryPercent = batteryPercent; }
+}
@@ -0,0 +1,40 @@
+package fr.dawan.formation.model;
+
+import java.util.Date;
+
+import org.bson.types.ObjectId;
+
+public class VehicleStatus {
+  private ObjectId id;
+  private String registration;
+  private String brand;
+  private String model;
+  private String status;
+  private Integer batteryPercent;
+  private int incidentCount;
+  private Date updatedAt;
+
+  public ObjectId getId() { return id; }
+  public void setId(ObjectId id) { this.id = id; }
+
+  public String getRegistration() { return registration; }
+  public void setRegistration(String registration) { this.registration = registration; }
+
+  public String getBrand() { return brand; }
+  public void setBrand(String brand) { this.brand = brand; }
+
+  public String getModel() { return model; }
+  public void setModel(String model) { this.model = model; }
+
+  public String getStatus() { return status; }
+  public void setStatus(String status) { this.status = status; }
+
+  public Integer getBatteryPercent() { return batteryPercent; }
+  public void setBatteryPercent(Integer batteryPercent) { this.batteryPercent = batteryPercent; }
+
+  public int getIncidentCount() { return incidentCount; }
+  public void setIncidentCount(int incidentCount) { this.incidentCount = incidentCount; }
+
+  public Date getUpdatedAt() { return updatedAt; }
+  public void setUpdatedAt(Date updatedAt) { this.updatedAt = updatedAt; }
+}
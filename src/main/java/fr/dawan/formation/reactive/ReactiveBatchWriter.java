@@ -0,0 +1,288 @@
+package fr.dawan.formation.reactive;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.result.InsertManyResult;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import org.bson.Document;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Writes a document publisher with up to {@code maxInFlight} concurrent unordered insertMany
+ * calls. Demand on the source is exactly what the free batch slots can absorb.
+ */
+public class ReactiveBatchWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveBatchWriter.class);
+    private static final int DUPLICATE_KEY = 11000;
+    private static final long BASE_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5_000;
+
+    private final MongoCollection<Document> collection;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final int maxRetries;
+    private volatile Function<List<Document>, CompletableFuture<?>> onWritten;
+
+    public ReactiveBatchWriter(MongoCollection<Document> collection, int batchSize, int maxInFlight, int maxRetries) {
+        if (batchSize <= 0 || maxInFlight <= 0 || maxRetries < 0) {
+            throw new IllegalArgumentException("Invalid writer sizing: batch=" + batchSize + ", inFlight=" + maxInFlight + ", retries=" + maxRetries);
+        }
+        this.collection = collection;
+        this.batchSize = batchSize;
+        this.maxInFlight = maxInFlight;
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Runs after each batch (or the part of it that landed) is acknowledged. The batch slot is
+     * only freed once the returned future completes, so a slow listener slows the source too;
+     * a failed listener is logged and does not fail the write.
+     */
+    public void setOnWritten(Function<List<Document>, CompletableFuture<?>> onWritten) {
+        this.onWritten = onWritten;
+    }
+
+    public CompletableFuture<Result> write(Publisher<Document> source) {
+        WriteSubscriber subscriber = new WriteSubscriber();
+        source.subscribe(subscriber);
+        return subscriber.result;
+    }
+
+    public static final class Result {
+        private final long written;
+        private final long failed;
+        private final long elapsedNanos;
+
+        Result(long written, long failed, long elapsedNanos) {
+            this.written = written;
+            this.failed = failed;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getWritten() { return written; }
+        public long getFailed() { return failed; }
+        public double getElapsedSeconds() { return elapsedNanos / 1e9; }
+
+        public double getDocsPerSecond() {
+            return elapsedNanos == 0 ? 0.0 : written / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d written, %d failed in %.2fs (%.0f docs/s)", written, failed, getElapsedSeconds(), getDocsPerSecond());
+        }
+    }
+
+    // The source failed part-way; carries what was written before it did.
+    public static final class WriteFailedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private final transient Result partial;
+
+        WriteFailedException(Result partial, Throwable cause) {
+            super(cause.getMessage(), cause);
+            this.partial = partial;
+        }
+
+        public Result getPartial() { return partial; }
+    }
+
+    private final class WriteSubscriber implements Subscriber<Document> {
+        private final CompletableFuture<Result> result = new CompletableFuture<>();
+        private final long start = System.nanoTime();
+        private final long progressEvery = (long) batchSize * maxInFlight * 10;
+
+        private Subscription subscription;
+        private List<Document> current = new ArrayList<>(batchSize);
+        private int inFlight;
+        private boolean sourceDone;
+        private Throwable sourceError;
+        private long written;
+        private long failed;
+        private long nextProgress = progressEvery;
+        private long pendingDemand;
+        private boolean requesting;
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            this.subscription = s;
+            request((long) batchSize * maxInFlight);
+        }
+
+        // Batches complete on driver threads; request() must still be called serially (rule 2.7),
+        // so whichever thread gets here first drains the demand the others add meanwhile.
+        private void request(long n) {
+            synchronized (this) {
+                pendingDemand += n;
+                if (requesting) return;
+                requesting = true;
+            }
+            while (true) {
+                long demand;
+                synchronized (this) {
+                    demand = pendingDemand;
+                    pendingDemand = 0;
+                    if (demand == 0) {
+                        requesting = false;
+                        return;
+                    }
+                }
+                subscription.request(demand);
+            }
+        }
+
+        @Override
+        public void onNext(Document document) {
+            List<Document> full = null;
+            synchronized (this) {
+                current.add(document);
+                if (current.size() == batchSize) {
+                    full = current;
+                    current = new ArrayList<>(batchSize);
+                    inFlight++;
+                }
+            }
+            if (full != null) send(full, 0);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            logger.error("Source publisher failed; flushing buffered documents", t);
+            synchronized (this) {
+                sourceError = t;
+            }
+            onComplete();
+        }
+
+        @Override
+        public void onComplete() {
+            List<Document> partial = null;
+            synchronized (this) {
+                sourceDone = true;
+                if (!current.isEmpty()) {
+                    partial = current;
+                    current = new ArrayList<>(0);
+                    inFlight++;
+                }
+            }
+            if (partial != null) send(partial, 0);
+            else finishIfIdle();
+        }
+
+        private void send(List<Document> batch, int attempt) {
+            collection.insertMany(batch, new InsertManyOptions().ordered(false)).subscribe(new Subscriber<InsertManyResult>() {
+                @Override public void onSubscribe(Subscription s) { s.request(1); }
+                @Override public void onNext(InsertManyResult r) {
+                    // counted on completion
+                }
+                @Override public void onError(Throwable t) { retryOrFail(batch, attempt, t); }
+                @Override public void onComplete() { landed(batch, () -> batchDone(batch.size(), 0)); }
+            });
+        }
+
+        private void retryOrFail(List<Document> batch, int attempt, Throwable t) {
+            List<Document> remaining = batch;
+            List<Document> landed = new ArrayList<>();
+            int rejected = 0;
+            if (t instanceof MongoBulkWriteException) {
+                remaining = new ArrayList<>();
+                boolean[] erroredAt = new boolean[batch.size()];
+                for (BulkWriteError error : ((MongoBulkWriteException) t).getWriteErrors()) {
+                    erroredAt[error.getIndex()] = true;
+                    if (error.getCode() != DUPLICATE_KEY) {
+                        remaining.add(batch.get(error.getIndex()));
+                    } else if (attempt > 0) {
+                        // the retried document carries the _id of the earlier attempt, which did land
+                        landed.add(batch.get(error.getIndex()));
+                    } else {
+                        // a real conflict (client _id, replayed file): not written, and retrying will not help
+                        rejected++;
+                    }
+                }
+                for (int i = 0; i < batch.size(); i++) if (!erroredAt[i]) landed.add(batch.get(i));
+                if (rejected > 0) logger.warn("{} documents rejected as duplicates", rejected);
+            }
+
+            List<Document> retry = remaining;
+            int conflicts = rejected;
+            if (remaining.isEmpty()) {
+                landed(landed, () -> batchDone(landed.size(), conflicts));
+            } else if (attempt < maxRetries) {
+                long backoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << attempt);
+                logger.warn("InsertMany attempt {} failed for {} documents, retrying in {} ms", attempt + 1, remaining.size(), backoff, t);
+                synchronized (this) {
+                    written += landed.size();
+                    failed += conflicts;
+                }
+                landed(landed, () -> CompletableFuture.delayedExecutor(backoff, TimeUnit.MILLISECONDS).execute(() -> send(retry, attempt + 1)));
+            } else {
+                logger.error("InsertMany gave up after {} attempts on {} documents", attempt + 1, remaining.size(), t);
+                landed(landed, () -> batchDone(landed.size(), retry.size() + conflicts));
+            }
+        }
+
+        private void landed(List<Document> documents, Runnable then) {
+            Function<List<Document>, CompletableFuture<?>> listener = onWritten;
+            if (listener == null || documents.isEmpty()) {
+                then.run();
+                return;
+            }
+            CompletableFuture<?> done;
+            try {
+                done = listener.apply(documents);
+            } catch (RuntimeException e) {
+                done = CompletableFuture.failedFuture(e);
+            }
+            done.whenComplete((r, t) -> {
+                if (t != null) logger.warn("Post-write listener failed for {} documents", documents.size(), t);
+                then.run();
+            });
+        }
+
+        private void batchDone(int ok, int ko) {
+            boolean requestMore;
+            boolean logProgress = false;
+            long snapshot;
+            synchronized (this) {
+                inFlight--;
+                written += ok;
+                failed += ko;
+                requestMore = !sourceDone;
+                if (written >= nextProgress) {
+                    nextProgress += progressEvery;
+                    logProgress = true;
+                }
+                snapshot = written;
+            }
+            if (logProgress) {
+                double seconds = (System.nanoTime() - start) / 1e9;
+                logger.info("{} documents inserted ({} docs/s)", snapshot, Math.round(snapshot / seconds));
+            }
+            if (requestMore) request(batchSize);
+            else finishIfIdle();
+        }
+
+        private void finishIfIdle() {
+            Result r;
+            Throwable error;
+            synchronized (this) {
+                if (!sourceDone || inFlight > 0 || result.isDone()) return;
+                r = new Result(written, failed, System.nanoTime() - start);
+                error = sourceError;
+            }
+            if (error != null) result.completeExceptionally(new WriteFailedException(r, error));
+            else result.complete(r);
+        }
+    }
+}
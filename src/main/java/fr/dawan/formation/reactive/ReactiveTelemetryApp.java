@@ -12,11 +12,14 @@ import org.reactivestreams.Subscriber;
 import org.reactivestreams.Subscription;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import com.mongodb.client.result.InsertManyResult;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ThreadLocalRandom;
@@ -89,8 +92,12 @@ public class ReactiveTelemetryApp {
 
             final int total = 100_000;
             final int batch = 1_000;
-            logger.info("Starting reactive insertion of {} documents", total);
-            insertReactive(coll, total, batch);
+            final int concurrency = 8;
+            TelemetryRollups rollups = new TelemetryRollups(db, Duration.ofDays(2), Duration.ofDays(90));
+            rollups.ensureIndexes().then().block(Duration.ofSeconds(30));
+
+            logger.info("Starting reactive insertion of {} documents ({} batches in flight)", total, concurrency);
+            insertReactive(coll, rollups, total, batch, concurrency);
 
             SingleSubscriber<Document> sampleSub = new SingleSubscriber<>();
             coll.find().projection(new Document(FIELD_VEHICLE_ID, 1)).limit(1).subscribe(sampleSub);
@@ -118,6 +125,11 @@ public class ReactiveTelemetryApp {
             coll.createIndex(Indexes.compoundIndex(Indexes.ascending(FIELD_VEHICLE_ID), Indexes.descending(FIELD_TIMESTAMP)), new IndexOptions()).subscribe(idxSub);
             idxSub.await(10);
 
+            logger.info("Creating 2dsphere index on location.coords");
+            CollectSubscriber<String> geoIdxSub = new CollectSubscriber<>();
+            coll.createIndex(Indexes.geo2dsphere("location.coords")).subscribe(geoIdxSub);
+            geoIdxSub.await(30);
+
             logger.info("=== Explain AFTER index (vehicleId + timestamp) ===");
             Document explainAfter = explainFind(coll, filter);
             if (explainAfter != null) logger.info(explainAfter.toJson());
@@ -131,53 +143,62 @@ public class ReactiveTelemetryApp {
             Document group = new Document("$group", new Document("_id", "$location.city").append("totalEnergy", new Document("$sum", "$energyConsumed")).append("avgEnergy", new Document("$avg", "$energyConsumed")).append("count", new Document("$sum", 1)));
             Document sort = new Document("$sort", new Document("totalEnergy", -1));
             CollectSubscriber<Document> aggSub = new CollectSubscriber<>();
+            long rawStart = System.nanoTime();
             coll.aggregate(List.of(match, group, sort)).subscribe(aggSub);
             boolean aggWaited = aggSub.await(30);
             if (!aggWaited) logger.warn("Aggregation timed out");
+            logger.info("Raw aggregation: {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - rawStart));
             aggSub.getItems().forEach(d -> logger.info(d.toJson()));
 
+            logger.info("=== Same totals from the rollups ===");
+            CollectSubscriber<Document> rollupSub = new CollectSubscriber<>();
+            long rollupStart = System.nanoTime();
+            Date now = new Date();
+            rollups.energyByCity(Date.from(now.toInstant().minusSeconds(30L*24*3600)), now).subscribe(rollupSub);
+            boolean rollupWaited = rollupSub.await(30);
+            if (!rollupWaited) logger.warn("Rollup query timed out");
+            logger.info("Rollup query: {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - rollupStart));
+            rollupSub.getItems().forEach(d -> logger.info(d.toJson()));
+
             logger.info("Done.");
         }
     }
 
     private static final Random RANDOM = new Random();
 
-    private static void insertReactive(MongoCollection<Document> coll, int total, int batchSize) throws InterruptedException {
+    private static void insertReactive(MongoCollection<Document> coll, TelemetryRollups rollups, int total, int batchSize, int concurrency) throws Exception {
         String[] cities = new String[]{"Paris","Lyon","Marseille","Toulouse","Nice","Nantes","Strasbourg","Bordeaux","Lille","Rennes"};
         List<String> vehicles = new ArrayList<>();
         for (int i = 0; i < 200; i++) vehicles.add(String.format("VEH-%04d", i+1));
 
-        int inserted = 0;
-        while (inserted < total) {
-            int toAdd = Math.min(batchSize, total - inserted);
-            List<Document> batch = new ArrayList<>(toAdd);
-            for (int i = 0; i < toAdd; i++) {
+        Iterator<Document> generator = new Iterator<>() {
+            private int produced;
+
+            @Override
+            public boolean hasNext() {
+                return produced < total;
+            }
+
+            @Override
+            public Document next() {
+                if (produced >= total) throw new NoSuchElementException();
+                produced++;
                 String city = cities[RANDOM.nextInt(cities.length)];
                 String vehicle = vehicles.get(RANDOM.nextInt(vehicles.size()));
                 long offset = ThreadLocalRandom.current().nextLong(0, 90L * 24 * 3600 * 1000);
-                Document doc = new Document(FIELD_VEHICLE_ID, vehicle)
+                return new Document(FIELD_VEHICLE_ID, vehicle)
                         .append(FIELD_TIMESTAMP, new java.util.Date(System.currentTimeMillis() - offset))
                         .append("location", new Document("city", city).append("coords", List.of(-1.0 + RANDOM.nextDouble()*4.0, 43.0 + RANDOM.nextDouble()*6.0)))
                         .append("energyConsumed", Math.round((0.1 + RANDOM.nextDouble()*9.9)*1000.0)/1000.0)
                         .append("speed", Math.round(RANDOM.nextDouble()*130.0*100.0)/100.0)
                         .append("createdAt", new java.util.Date());
-                batch.add(doc);
             }
-            CountDownLatch latch = new CountDownLatch(1);
-            coll.insertMany(batch).subscribe(new Subscriber<InsertManyResult>(){
-                @Override public void onSubscribe(Subscription s) { s.request(1); }
-                @Override public void onNext(InsertManyResult result) {
-                    // empty
-                }
-                @Override public void onError(Throwable t) { logger.error("InsertMany error", t); latch.countDown(); }
-                @Override public void onComplete() { latch.countDown(); }
-            });
-            boolean ok = latch.await(60, TimeUnit.SECONDS);
-            if (!ok) logger.warn("InsertMany batch timed out");
-            inserted += toAdd;
-            if (inserted % (batchSize*5) == 0) logger.info("{} documents inserted...", inserted);
-        }
-        logger.info("Inserted total: {}", inserted);
+        };
+
+        ReactiveBatchWriter writer = new ReactiveBatchWriter(coll, batchSize, concurrency, 3);
+        writer.setOnWritten(rollups::record);
+        ReactiveBatchWriter.Result result = writer.write(new IteratorPublisher<>(() -> generator)).get(30, TimeUnit.MINUTES);
+        logger.info("Inserted total: {}", result);
     }
 
     private static Document explainFind(MongoCollection<Document> coll, Document filter) throws InterruptedException {
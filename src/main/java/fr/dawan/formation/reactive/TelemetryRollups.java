@@ -0,0 +1,358 @@
+package fr.dawan.formation.reactive;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minute, hour and day rollups of {@code telemetry_history} per city and per vehicle: point
+ * count, energy sum (the average is derived) and max speed. Ingest batches are folded in with
+ * {@code $inc}/{@code $max} upserts on all three resolutions; compaction only drops minute and
+ * hour buckets past their retention. Queries are planned over the coarsest buckets that fit
+ * the window, with finer ones at the edges.
+ */
+public class TelemetryRollups {
+
+    private static final Logger logger = LoggerFactory.getLogger(TelemetryRollups.class);
+
+    public static final String SCOPE_CITY = "city";
+    public static final String SCOPE_VEHICLE = "vehicle";
+    private static final String LEGACY_INDEX = "scope_1_start_1_key_1";
+    private static final int NAMESPACE_NOT_FOUND = 26;
+    private static final int INDEX_NOT_FOUND = 27;
+
+    enum Resolution {
+        MINUTE(60_000L, "telemetry_rollups_minute"),
+        HOUR(3_600_000L, "telemetry_rollups_hour"),
+        DAY(86_400_000L, "telemetry_rollups_day");
+
+        final long millis;
+        final String collection;
+
+        Resolution(long millis, String collection) {
+            this.millis = millis;
+            this.collection = collection;
+        }
+
+        Resolution finer() {
+            return this == MINUTE ? null : values()[ordinal() - 1];
+        }
+
+        long floor(long t) { return Math.floorDiv(t, millis) * millis; }
+        long ceil(long t) { return -Math.floorDiv(-t, millis) * millis; }
+    }
+
+    static final class Segment {
+        final Resolution resolution;
+        final long from;
+        final long to;
+
+        Segment(Resolution resolution, long from, long to) {
+            this.resolution = resolution;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public String toString() {
+            return resolution + "[" + new Date(from).toInstant() + ", " + new Date(to).toInstant() + ")";
+        }
+    }
+
+    private final MongoCollection<Document> points;
+    private final Map<Resolution, MongoCollection<Document>> rollups = new EnumMap<>(Resolution.class);
+    private final Map<Resolution, Duration> retention = new EnumMap<>(Resolution.class);
+
+    public TelemetryRollups(MongoDatabase db, Duration minuteRetention, Duration hourRetention) {
+        this.points = db.getCollection("telemetry_history");
+        for (Resolution r : Resolution.values()) rollups.put(r, db.getCollection(r.collection));
+        retention.put(Resolution.MINUTE, minuteRetention);
+        retention.put(Resolution.HOUR, hourRetention);
+    }
+
+    // Key before start, so a per-vehicle window only reads that vehicle's buckets; {start, scope} serves
+    // fleet-wide windows and compaction. The former {scope, start, key} index goes once its replacement exists.
+    public Flux<String> ensureIndexes() {
+        List<IndexModel> indexes = List.of(
+            new IndexModel(Indexes.ascending("scope", "key", "start"), new IndexOptions().unique(true)),
+            new IndexModel(Indexes.ascending("start", "scope")));
+        return Flux.fromIterable(rollups.values())
+            .concatMap(c -> Flux.from(c.createIndexes(indexes))
+                .concatWith(Mono.from(c.dropIndex(LEGACY_INDEX))
+                    .onErrorResume(TelemetryRollups::isMissingIndex, e -> Mono.empty())
+                    .then(Mono.<String>empty())));
+    }
+
+    private static boolean isMissingIndex(Throwable t) {
+        return t instanceof MongoCommandException
+            && (((MongoCommandException) t).getErrorCode() == INDEX_NOT_FOUND || ((MongoCommandException) t).getErrorCode() == NAMESPACE_NOT_FOUND);
+    }
+
+    // Called with each batch the writer got acknowledged; one unordered bulk upsert per resolution.
+    public CompletableFuture<Void> record(List<Document> batch) {
+        List<CompletableFuture<?>> writes = new ArrayList<>();
+        for (Resolution r : Resolution.values()) {
+            Map<String, Bucket> buckets = new HashMap<>();
+            for (Document point : batch) {
+                Date ts = point.getDate(TelemetryStreamService.FIELD_TIMESTAMP);
+                if (ts == null) continue;
+                long start = r.floor(ts.getTime());
+                Document location = point.get("location", Document.class);
+                String city = location != null ? location.getString("city") : null;
+                if (city != null) bucket(buckets, SCOPE_CITY, city, start).add(point);
+                bucket(buckets, SCOPE_VEHICLE, point.getString(TelemetryStreamService.FIELD_VEHICLE_ID), start).add(point);
+            }
+            if (buckets.isEmpty()) continue;
+
+            List<WriteModel<Document>> upserts = new ArrayList<>(buckets.size());
+            for (Bucket b : buckets.values()) upserts.add(b.upsert());
+            writes.add(Mono.from(rollups.get(r).bulkWrite(upserts, new BulkWriteOptions().ordered(false))).toFuture());
+        }
+        return CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0]));
+    }
+
+    public static boolean isScope(String scope) {
+        return SCOPE_CITY.equals(scope) || SCOPE_VEHICLE.equals(scope);
+    }
+
+    public Flux<Document> energyByCity(Date from, Date to) {
+        return totals(SCOPE_CITY, null, from, to);
+    }
+
+    public Flux<Document> energyByVehicle(String vehicleId, Date from, Date to) {
+        return totals(SCOPE_VEHICLE, vehicleId, from, to);
+    }
+
+    // Same shape as the raw $group: _id, totalEnergy, avgEnergy, count, maxSpeed; sorted by totalEnergy.
+    // Edges are rounded outwards: to the minute, or to the hour/day once finer buckets have expired there.
+    public Flux<Document> totals(String scope, String key, Date from, Date to) {
+        if (!isScope(scope)) throw new IllegalArgumentException("Unknown rollup scope: " + scope);
+        if (from.after(to)) throw new IllegalArgumentException("Window starts after it ends: " + from.toInstant() + " > " + to.toInstant());
+        List<Segment> segments = plan(from.getTime(), to.getTime(), horizons(System.currentTimeMillis()));
+        logger.debug("Rollup plan for {} {}: {}", scope, key != null ? key : "*", segments);
+
+        return Flux.fromIterable(segments)
+            .flatMap(s -> rollups.get(s.resolution).aggregate(segmentPipeline(scope, key, s)), Math.max(1, segments.size()))
+            .collect(() -> new HashMap<String, Document>(), TelemetryRollups::accumulate)
+            .flatMapIterable(TelemetryRollups::ranked);
+    }
+
+    /**
+     * Recomputes every bucket overlapping [from, to) from the raw points, rounded to whole days,
+     * e.g. to backfill history written before rollups existed or after a failed rollup write.
+     * Points ingested while it runs can be counted twice; run it on a quiet window.
+     */
+    public Mono<Void> rebuild(Date from, Date to) {
+        Map<Resolution, Long> horizons = horizons(System.currentTimeMillis());
+        List<RebuildStep> merges = new ArrayList<>();
+        for (Resolution r : Resolution.values()) {
+            long start = Math.max(Resolution.DAY.floor(from.getTime()), horizons.get(r));
+            long end = Resolution.DAY.ceil(to.getTime());
+            if (start >= end) continue;
+            merges.add(new RebuildStep(r, SCOPE_CITY, "$location.city", start, end));
+            merges.add(new RebuildStep(r, SCOPE_VEHICLE, "$" + TelemetryStreamService.FIELD_VEHICLE_ID, start, end));
+        }
+        return Flux.fromIterable(merges)
+            .concatMap(m -> points.aggregate(m.pipeline()).allowDiskUse(true).toCollection())
+            .then();
+    }
+
+    public Mono<Long> compact() {
+        Map<Resolution, Long> horizons = horizons(System.currentTimeMillis());
+        return Flux.fromIterable(List.of(Resolution.MINUTE, Resolution.HOUR))
+            .concatMap(r -> rollups.get(r).deleteMany(Filters.lt("start", new Date(horizons.get(r)))))
+            .reduce(0L, (n, result) -> n + result.getDeletedCount());
+    }
+
+    public ScheduledFuture<?> scheduleCompaction(ScheduledExecutorService scheduler, Duration period) {
+        return scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                Long deleted = compact().block(period);
+                logger.info("Rollup compaction removed {} expired buckets", deleted);
+            } catch (RuntimeException e) {
+                logger.error("Rollup compaction failed", e);
+            }
+        }, period.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Earliest bucket start still guaranteed to be present at each resolution.
+    private Map<Resolution, Long> horizons(long now) {
+        Map<Resolution, Long> horizons = new EnumMap<>(Resolution.class);
+        for (Resolution r : Resolution.values()) {
+            Duration keep = retention.get(r);
+            horizons.put(r, keep == null ? Long.MIN_VALUE : r.ceil(now - keep.toMillis()));
+        }
+        return horizons;
+    }
+
+    static List<Segment> plan(long from, long to, Map<Resolution, Long> horizons) {
+        List<Segment> out = new ArrayList<>();
+        plan(from, to, Resolution.DAY, horizons, out);
+        return out;
+    }
+
+    // Whole buckets of `level` in the middle, finer resolutions for the partial edges when they
+    // still hold data there, otherwise the edge bucket of `level` itself (rounding outwards).
+    private static void plan(long from, long to, Resolution level, Map<Resolution, Long> horizons, List<Segment> out) {
+        if (from >= to) return;
+        Resolution finer = level.finer();
+        long start = level.ceil(from);
+        long end = level.floor(to);
+
+        if (start >= end) {
+            if (finer != null && finer.floor(from) >= horizons.get(finer)) plan(from, to, finer, horizons, out);
+            else out.add(new Segment(level, level.floor(from), level.ceil(to)));
+            return;
+        }
+
+        if (start > from) {
+            if (finer != null && finer.floor(from) >= horizons.get(finer)) plan(from, start, finer, horizons, out);
+            else start = level.floor(from);
+        }
+        boolean fineTail = end < to && finer != null && end >= horizons.get(finer);
+        if (end < to && !fineTail) end = level.ceil(to);
+
+        out.add(new Segment(level, start, end));
+        if (fineTail) plan(end, to, finer, horizons, out);
+    }
+
+    private static List<Bson> segmentPipeline(String scope, String key, Segment s) {
+        Bson match = key == null
+            ? Filters.and(Filters.eq("scope", scope), Filters.gte("start", new Date(s.from)), Filters.lt("start", new Date(s.to)))
+            : Filters.and(Filters.eq("scope", scope), Filters.gte("start", new Date(s.from)), Filters.lt("start", new Date(s.to)), Filters.eq("key", key));
+        return List.of(
+            new Document("$match", match),
+            new Document("$group", new Document("_id", "$key")
+                .append("count", new Document("$sum", "$count"))
+                .append("energySum", new Document("$sum", "$energySum"))
+                .append("speedMax", new Document("$max", "$speedMax"))));
+    }
+
+    private static void accumulate(Map<String, Document> totals, Document partial) {
+        Document total = totals.computeIfAbsent(partial.getString("_id"), k -> new Document("_id", k)
+            .append("count", 0L).append("energySum", 0.0).append("speedMax", null));
+        total.put("count", total.getLong("count") + ((Number) partial.get("count")).longValue());
+        total.put("energySum", total.getDouble("energySum") + ((Number) partial.get("energySum")).doubleValue());
+        Number speed = (Number) partial.get("speedMax");
+        Number current = (Number) total.get("speedMax");
+        if (speed != null && (current == null || speed.doubleValue() > current.doubleValue())) total.put("speedMax", speed.doubleValue());
+    }
+
+    private static List<Document> ranked(Map<String, Document> totals) {
+        List<Document> out = new ArrayList<>(totals.size());
+        for (Document t : totals.values()) {
+            long count = t.getLong("count");
+            double energy = t.getDouble("energySum");
+            out.add(new Document("_id", t.get("_id"))
+                .append("totalEnergy", energy)
+                .append("avgEnergy", count == 0 ? null : energy / count)
+                .append("count", count)
+                .append("maxSpeed", t.get("speedMax")));
+        }
+        out.sort(Comparator.comparingDouble((Document d) -> d.getDouble("totalEnergy")).reversed());
+        return out;
+    }
+
+    private static Bucket bucket(Map<String, Bucket> buckets, String scope, String key, long start) {
+        return buckets.computeIfAbsent(scope + '\u0000' + key + '\u0000' + start, k -> new Bucket(scope, key, start));
+    }
+
+    private static final class Bucket {
+        private final String scope;
+        private final String key;
+        private final long start;
+        private long count;
+        private double energy;
+        private Double speedMax;
+
+        Bucket(String scope, String key, long start) {
+            this.scope = scope;
+            this.key = key;
+            this.start = start;
+        }
+
+        void add(Document point) {
+            count++;
+            Object e = point.get("energyConsumed");
+            if (e instanceof Number) energy += ((Number) e).doubleValue();
+            Object s = point.get("speed");
+            if (s instanceof Number && (speedMax == null || ((Number) s).doubleValue() > speedMax)) speedMax = ((Number) s).doubleValue();
+        }
+
+        UpdateOneModel<Document> upsert() {
+            Document update = new Document("$inc", new Document("count", count).append("energySum", energy));
+            if (speedMax != null) update.append("$max", new Document("speedMax", speedMax));
+            return new UpdateOneModel<>(
+                Filters.and(Filters.eq("scope", scope), Filters.eq("start", new Date(start)), Filters.eq("key", key)),
+                update,
+                new UpdateOptions().upsert(true));
+        }
+    }
+
+    // One raw -> rollup $merge for a resolution and scope.
+    private static final class RebuildStep {
+        private final Resolution resolution;
+        private final String scope;
+        private final String keyPath;
+        private final long from;
+        private final long to;
+
+        RebuildStep(Resolution resolution, String scope, String keyPath, long from, long to) {
+            this.resolution = resolution;
+            this.scope = scope;
+            this.keyPath = keyPath;
+            this.from = from;
+            this.to = to;
+        }
+
+        List<Document> pipeline() {
+            Document millis = new Document("$toLong", "$" + TelemetryStreamService.FIELD_TIMESTAMP);
+            Document bucketStart = new Document("$toDate", new Document("$subtract", List.of(millis, new Document("$mod", List.of(millis, resolution.millis)))));
+            Document range = new Document("$gte", new Date(from)).append("$lt", new Date(to));
+            return List.of(
+                new Document("$match", new Document(TelemetryStreamService.FIELD_TIMESTAMP, range).append(keyPath.substring(1), new Document("$type", "string"))),
+                new Document("$group", new Document("_id", new Document("key", keyPath).append("start", bucketStart))
+                    .append("count", new Document("$sum", 1))
+                    .append("energySum", new Document("$sum", "$energyConsumed"))
+                    .append("speedMax", new Document("$max", "$speed"))),
+                new Document("$project", new Document("_id", 0)
+                    .append("scope", new Document("$literal", scope))
+                    .append("key", "$_id.key")
+                    .append("start", "$_id.start")
+                    .append("count", 1)
+                    .append("energySum", 1)
+                    .append("speedMax", 1)),
+                new Document("$merge", new Document("into", resolution.collection)
+                    .append("on", List.of("scope", "key", "start"))
+                    .append("whenMatched", "replace")
+                    .append("whenNotMatched", "insert")));
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package fr.dawan.formation.reactive;
+
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import org.bson.BsonInvalidOperationException;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.json.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking access to raw telemetry points in {@code telemetry_history}. Every path is
+ * demand-driven: ingest only reads request lines as fast as the batch writer frees slots,
+ * range queries pull cursor batches as the response is written, and live streams keep a
+ * bounded buffer per subscriber.
+ */
+public class TelemetryStreamService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TelemetryStreamService.class);
+
+    static final String FIELD_VEHICLE_ID = "vehicleId";
+    static final String FIELD_TIMESTAMP = "timestamp";
+    private static final int LIVE_BUFFER = 256;
+
+    private final MongoCollection<Document> points;
+    private final ReactiveBatchWriter writer;
+    private final AtomicLong liveDropped = new AtomicLong();
+
+    public TelemetryStreamService(MongoDatabase db, int batchSize, int maxInFlight) {
+        this.points = db.getCollection("telemetry_history");
+        this.writer = new ReactiveBatchWriter(points, batchSize, maxInFlight, 3);
+    }
+
+    // Folds each acknowledged ingest batch into the minute/hour/day rollups.
+    public void setRollups(TelemetryRollups rollups) {
+        writer.setOnWritten(rollups::record);
+    }
+
+    public static Document shardKey() {
+        return new Document(FIELD_VEHICLE_ID, "hashed");
+    }
+
+    public Mono<String> ensureIndexes() {
+        return Mono.from(points.createIndex(Indexes.compoundIndex(Indexes.ascending(FIELD_VEHICLE_ID), Indexes.descending(FIELD_TIMESTAMP))));
+    }
+
+    // Lines are read on a bounded-elastic worker, never on a driver callback thread.
+    public CompletableFuture<ReactiveBatchWriter.Result> ingest(InputStream ndjson) {
+        Flux<Document> documents = Flux.using(
+                () -> new BufferedReader(new InputStreamReader(ndjson, StandardCharsets.UTF_8)),
+                reader -> Flux.fromStream(reader.lines()),
+                TelemetryStreamService::closeReader)
+            .subscribeOn(Schedulers.boundedElastic())
+            .filter(line -> !line.isBlank())
+            .map(TelemetryStreamService::parsePoint);
+        return writer.write(documents);
+    }
+
+    public Flux<Document> history(String vehicleId, Date from, Date to, int batchSize) {
+        Bson filter = Filters.and(Filters.eq(FIELD_VEHICLE_ID, vehicleId), Filters.gte(FIELD_TIMESTAMP, from), Filters.lte(FIELD_TIMESTAMP, to));
+        return Flux.from(points.find(filter)
+            .sort(Sorts.ascending(FIELD_TIMESTAMP))
+            .projection(Projections.excludeId())
+            .batchSize(batchSize));
+    }
+
+    // Slow subscribers lose their oldest positions instead of buffering without bound.
+    public Flux<Document> livePositions(String vehicleId) {
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(Aggregates.match(Filters.eq("operationType", "insert")));
+        if (vehicleId != null) pipeline.add(Aggregates.match(Filters.eq("fullDocument." + FIELD_VEHICLE_ID, vehicleId)));
+        pipeline.add(Aggregates.project(Projections.include("fullDocument." + FIELD_VEHICLE_ID, "fullDocument." + FIELD_TIMESTAMP,
+            "fullDocument.location", "fullDocument.speed")));
+
+        return Flux.from(points.watch(pipeline).fullDocument(FullDocument.DEFAULT))
+            .map(ChangeStreamDocument::getFullDocument)
+            .onBackpressureBuffer(LIVE_BUFFER, dropped -> liveDropped.incrementAndGet(), BufferOverflowStrategy.DROP_OLDEST)
+            .doOnError(t -> logger.warn("Live position stream failed", t));
+    }
+
+    public long getLiveDroppedCount() {
+        return liveDropped.get();
+    }
+
+    // Any malformed line surfaces as an IllegalArgumentException, i.e. the client's fault.
+    static Document parsePoint(String line) {
+        Document point;
+        try {
+            point = Document.parse(line);
+            if (point.getString(FIELD_VEHICLE_ID) == null) throw new IllegalArgumentException("Telemetry point without vehicleId: " + line);
+
+            Object ts = point.get(FIELD_TIMESTAMP);
+            if (ts instanceof String) point.put(FIELD_TIMESTAMP, Date.from(Instant.parse((String) ts)));
+            else if (ts instanceof Number) point.put(FIELD_TIMESTAMP, new Date(((Number) ts).longValue()));
+            else if (ts == null) point.put(FIELD_TIMESTAMP, new Date());
+        } catch (JsonParseException | BsonInvalidOperationException | ClassCastException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Malformed telemetry point: " + e.getMessage(), e);
+        }
+        point.putIfAbsent("createdAt", new Date());
+        return point;
+    }
+
+    private static void closeReader(BufferedReader reader) {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            logger.debug("Could not close telemetry request body", e);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package fr.dawan.formation.reactive;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocumentBeforeChange;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.client.result.UpdateResult;
+import com.mongodb.reactivestreams.client.ChangeStreamPublisher;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches {@code vehicles} and turns inserts/updates into {@link VehicleEvent}s on a
+ * {@link VehicleEventBus}. At most {@code DEMAND} changes are in flight: each one is requested
+ * only once an earlier one has been handled by every listener. The resume token advances, in
+ * stream order, only past changes whose events were all handled, and it is checkpointed in
+ * {@code stream_checkpoints}, so a restart resumes where the previous run stopped (events
+ * after the last checkpoint may be delivered twice, none are skipped).
+ *
+ * <p>Battery and status transitions use the pre-image when the collection has
+ * {@code changeStreamPreAndPostImages} enabled; otherwise low battery is de-duplicated with an
+ * in-memory set of vehicles already below the threshold.
+ */
+public class VehicleChangeStream implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(VehicleChangeStream.class);
+
+    static final String ENGINE_INCIDENT_TYPE = "Moteur";
+    private static final int HISTORY_LOST = 286;
+    private static final int FATAL_ERROR = 280;
+    private static final int DEMAND = 256;
+    private static final long CHECKPOINT_MILLIS = 1_000;
+    private static final int CHECKPOINT_EVERY = 100;
+    private static final long RETRY_MILLIS = 1_000;
+
+    private final String name;
+    private final MongoCollection<Document> vehicles;
+    private final MongoCollection<Document> checkpoints;
+    private final VehicleEventBus bus;
+    private final int lowBatteryThreshold;
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "vehicle-change-stream-retry");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Set<ObjectId> lowBattery = ConcurrentHashMap.newKeySet();
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong events = new AtomicLong();
+    // events published for the change being dispatched; onNext calls are serial
+    private List<CompletableFuture<Void>> dispatched = new ArrayList<>();
+
+    private volatile boolean running;
+    private volatile Subscription subscription;
+    private volatile BsonDocument resumeToken;
+    private BsonDocument checkpointedToken;
+    private long lastCheckpoint;
+    private int sinceCheckpoint;
+
+    public VehicleChangeStream(MongoDatabase db, String name, VehicleEventBus bus, int lowBatteryThreshold) {
+        this.name = name;
+        this.vehicles = db.getCollection("vehicles");
+        this.checkpoints = db.getCollection("stream_checkpoints");
+        this.bus = bus;
+        this.lowBatteryThreshold = lowBatteryThreshold;
+    }
+
+    public void start() throws Exception {
+        Document checkpoint = first(checkpoints.find(Filters.eq("_id", name))).get(30, TimeUnit.SECONDS);
+        if (checkpoint != null) {
+            resumeToken = checkpoint.get("resumeToken", Document.class).toBsonDocument();
+            checkpointedToken = resumeToken;
+            logger.info("Change stream {} resuming from checkpoint of {}", name, checkpoint.getDate("updatedAt"));
+        } else {
+            logger.info("Change stream {} has no checkpoint, starting from now", name);
+        }
+        running = true;
+        watch();
+    }
+
+    private void watch() {
+        List<Bson> pipeline = List.of(Aggregates.match(Filters.in("operationType", "insert", "update", "replace")));
+        ChangeStreamPublisher<Document> publisher = vehicles.watch(pipeline)
+            .fullDocumentBeforeChange(FullDocumentBeforeChange.WHEN_AVAILABLE)
+            .batchSize(DEMAND);
+        if (resumeToken != null) publisher = publisher.resumeAfter(resumeToken);
+        publisher.subscribe(new ChangeSubscriber());
+    }
+
+    private final class ChangeSubscriber implements Subscriber<ChangeStreamDocument<Document>> {
+        private Subscription s;
+        // completes once every change received so far has been handled, in order
+        private CompletableFuture<Void> handled = CompletableFuture.completedFuture(null);
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            this.s = s;
+            subscription = s;
+            if (running) s.request(DEMAND);
+            else s.cancel();
+        }
+
+        @Override
+        public void onNext(ChangeStreamDocument<Document> change) {
+            List<CompletableFuture<Void>> waits = new ArrayList<>();
+            dispatched = waits;
+            try {
+                dispatch(change);
+            } catch (RuntimeException e) {
+                logger.error("Could not map change {} on {}", change.getOperationType(), change.getDocumentKey(), e);
+            }
+            waits.add(handled);
+
+            // chained on the previous change, so tokens advance in stream order and request() stays serial
+            BsonDocument token = change.getResumeToken();
+            handled = CompletableFuture.allOf(waits.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+                resumeToken = token;
+                changes.incrementAndGet();
+                synchronized (VehicleChangeStream.this) {
+                    sinceCheckpoint++;
+                }
+                maybeCheckpoint(false);
+                if (running) s.request(1);
+            });
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (!running) return;
+            if (t instanceof MongoCommandException) {
+                int code = ((MongoCommandException) t).getErrorCode();
+                if (code == HISTORY_LOST || code == FATAL_ERROR) {
+                    logger.error("Change stream {} cannot resume (code {}); restarting from now, events in between are lost", name, code);
+                    resumeToken = null;
+                }
+            }
+            logger.warn("Change stream {} failed, reconnecting in {} ms", name, RETRY_MILLIS, t);
+            retryScheduler.schedule(() -> {
+                if (running) watch();
+            }, RETRY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void onComplete() {
+            // the stream only completes when the collection is dropped or renamed
+            if (!running) return;
+            logger.warn("Change stream {} was invalidated, restarting from now", name);
+            resumeToken = null;
+            retryScheduler.schedule(() -> {
+                if (running) watch();
+            }, RETRY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void dispatch(ChangeStreamDocument<Document> change) {
+        BsonValue key = change.getDocumentKey() != null ? change.getDocumentKey().get("_id") : null;
+        if (key == null || !key.isObjectId()) return;
+        ObjectId vehicleId = key.asObjectId().getValue();
+        Date at = timestampOf(change);
+        Document before = change.getFullDocumentBeforeChange();
+        OperationType op = change.getOperationType();
+
+        if (op == OperationType.INSERT) {
+            Document vehicle = change.getFullDocument();
+            publish(new VehicleEvent(VehicleEvent.Type.REGISTERED, vehicleId, at, vehicle != null ? vehicle.getString("registration") : null));
+            if (vehicle != null) onBattery(vehicleId, at, batteryOf(vehicle), null);
+        } else if (op == OperationType.REPLACE) {
+            Document vehicle = change.getFullDocument();
+            if (vehicle == null) return;
+            onBattery(vehicleId, at, batteryOf(vehicle), before);
+            onStatus(vehicleId, at, vehicle.getString("status"), before);
+        } else if (op == OperationType.UPDATE && change.getUpdateDescription() != null) {
+            BsonDocument updated = change.getUpdateDescription().getUpdatedFields();
+            if (updated == null) return;
+            BsonValue incident = null;
+            for (Map.Entry<String, BsonValue> field : updated.entrySet()) {
+                String path = field.getKey();
+                BsonValue value = field.getValue();
+                if (path.equals("telemetry.batteryPercent") && value.isNumber()) {
+                    onBattery(vehicleId, at, value.asNumber().intValue(), before);
+                } else if (path.equals("telemetry") && value.isDocument() && value.asDocument().isNumber("batteryPercent")) {
+                    onBattery(vehicleId, at, value.asDocument().getNumber("batteryPercent").intValue(), before);
+                } else if (path.equals("status")) {
+                    onStatus(vehicleId, at, value.isString() ? value.asString().getValue() : null, before);
+                } else if (path.equals("incidents") && value.isArray()) {
+                    BsonArray incidents = value.asArray();
+                    if (!incidents.isEmpty()) incident = incidents.get(incidents.size() - 1);
+                } else if (path.startsWith("incidents.") && path.indexOf('.', "incidents.".length()) < 0) {
+                    incident = value;
+                }
+            }
+            if (incident != null && isNewIncident(incident, updated, before)) onIncident(vehicleId, at, incident);
+        }
+    }
+
+    /**
+     * Migrations and trims rewrite the whole incidents array without adding to it, so the last
+     * element alone says nothing: an incident is new only if incidentCount went up with the update,
+     * or, when the update left the count alone, if its seq is past the pre-image's latest.
+     */
+    private static boolean isNewIncident(BsonValue incident, BsonDocument updated, Document before) {
+        Object previousCount = before != null ? before.get("incidentCount") : null;
+        if (updated.isNumber("incidentCount")) {
+            int count = updated.getNumber("incidentCount").intValue();
+            return previousCount instanceof Number ? count > ((Number) previousCount).intValue() : before == null;
+        }
+        if (before == null || !incident.isDocument() || !incident.asDocument().isNumber("seq")) return false;
+        return incident.asDocument().getNumber("seq").intValue() > latestSeq(before);
+    }
+
+    private static int latestSeq(Document vehicle) {
+        int latest = -1;
+        List<?> incidents = vehicle.get("incidents", List.class);
+        if (incidents == null) return latest;
+        for (Object o : incidents) {
+            if (o instanceof Document && ((Document) o).get("seq") instanceof Number) {
+                latest = Math.max(latest, ((Number) ((Document) o).get("seq")).intValue());
+            }
+        }
+        return latest;
+    }
+
+    private void onBattery(ObjectId vehicleId, Date at, Integer battery, Document before) {
+        if (battery == null) return;
+        if (battery >= lowBatteryThreshold) {
+            lowBattery.remove(vehicleId);
+            return;
+        }
+        Integer previous = before != null ? batteryOf(before) : null;
+        boolean crossed = previous != null ? previous >= lowBatteryThreshold : !lowBattery.contains(vehicleId);
+        lowBattery.add(vehicleId);
+        if (crossed) publish(new VehicleEvent(VehicleEvent.Type.LOW_BATTERY, vehicleId, at, battery + "%"));
+    }
+
+    private void onStatus(ObjectId vehicleId, Date at, String status, Document before) {
+        String previous = before != null ? before.getString("status") : null;
+        if (before != null && Objects.equals(previous, status)) return;
+        String detail = previous != null ? previous + " -> " + status : status;
+        publish(new VehicleEvent(VehicleEvent.Type.STATUS_CHANGED, vehicleId, at, detail));
+    }
+
+    private void onIncident(ObjectId vehicleId, Date at, BsonValue incident) {
+        if (!incident.isDocument()) return;
+        BsonDocument doc = incident.asDocument();
+        String type = doc.isString("type") ? doc.getString("type").getValue() : null;
+        publish(new VehicleEvent(VehicleEvent.Type.INCIDENT_REPORTED, vehicleId, at, type));
+        if (ENGINE_INCIDENT_TYPE.equals(type)) {
+            String description = doc.isString("description") ? doc.getString("description").getValue() : null;
+            publish(new VehicleEvent(VehicleEvent.Type.ENGINE_INCIDENT, vehicleId, at, description));
+        }
+    }
+
+    private void publish(VehicleEvent event) {
+        events.incrementAndGet();
+        dispatched.add(bus.publish(event));
+    }
+
+    private static Integer batteryOf(Document vehicle) {
+        Document telemetry = vehicle.get("telemetry", Document.class);
+        Object battery = telemetry != null ? telemetry.get("batteryPercent") : null;
+        return battery instanceof Number ? ((Number) battery).intValue() : null;
+    }
+
+    private static Date timestampOf(ChangeStreamDocument<Document> change) {
+        if (change.getWallTime() != null) return new Date(change.getWallTime().getValue());
+        if (change.getClusterTime() != null) return new Date(change.getClusterTime().getTime() * 1000L);
+        return new Date();
+    }
+
+    private synchronized CompletableFuture<UpdateResult> maybeCheckpoint(boolean force) {
+        BsonDocument token = resumeToken;
+        if (token == null || token.equals(checkpointedToken)) return CompletableFuture.completedFuture(null);
+        long now = System.currentTimeMillis();
+        if (!force && sinceCheckpoint < CHECKPOINT_EVERY && now - lastCheckpoint < CHECKPOINT_MILLIS) return CompletableFuture.completedFuture(null);
+
+        checkpointedToken = token;
+        lastCheckpoint = now;
+        sinceCheckpoint = 0;
+        Document checkpoint = new Document("_id", name).append("resumeToken", token).append("updatedAt", new Date(now));
+        return first(checkpoints.replaceOne(Filters.eq("_id", name), checkpoint, new ReplaceOptions().upsert(true)))
+            .whenComplete((r, t) -> {
+                if (t != null) logger.warn("Could not checkpoint change stream {}", name, t);
+            });
+    }
+
+    public long getChangeCount() { return changes.get(); }
+    public long getEventCount() { return events.get(); }
+
+    @Override
+    public void close() {
+        running = false;
+        Subscription s = subscription;
+        if (s != null) s.cancel();
+        retryScheduler.shutdownNow();
+        try {
+            maybeCheckpoint(true).get(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("Final checkpoint of change stream {} failed", name, e);
+        }
+    }
+
+    private static <T> CompletableFuture<T> first(Publisher<T> publisher) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        publisher.subscribe(new Subscriber<T>() {
+            @Override public void onSubscribe(Subscription s) { s.request(1); }
+            @Override public void onNext(T t) { future.complete(t); }
+            @Override public void onError(Throwable t) { future.completeExceptionally(t); }
+            @Override public void onComplete() { future.complete(null); }
+        });
+        return future;
+    }
+}
@@ -0,0 +1,41 @@
+package fr.dawan.formation.reactive;
+
+import org.bson.types.ObjectId;
+
+import java.util.Date;
+
+/**
+ * Domain-level view of a change on {@code vehicles}, derived from a change-stream event.
+ */
+public class VehicleEvent {
+
+    public enum Type {
+        REGISTERED,
+        LOW_BATTERY,
+        ENGINE_INCIDENT,
+        INCIDENT_REPORTED,
+        STATUS_CHANGED
+    }
+
+    private final Type type;
+    private final ObjectId vehicleId;
+    private final Date at;
+    private final String detail;
+
+    public VehicleEvent(Type type, ObjectId vehicleId, Date at, String detail) {
+        this.type = type;
+        this.vehicleId = vehicleId;
+        this.at = at;
+        this.detail = detail;
+    }
+
+    public Type getType() { return type; }
+    public ObjectId getVehicleId() { return vehicleId; }
+    public Date getAt() { return at; }
+    public String getDetail() { return detail; }
+
+    @Override
+    public String toString() {
+        return type + "[" + vehicleId + (detail != null ? ", " + detail : "") + "]";
+    }
+}
@@ -0,0 +1,134 @@
+package fr.dawan.formation.reactive;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fans vehicle events out to in-process listeners. Each listener owns a queue and a worker
+ * thread, so a slow listener does not stall the others. Nothing is dropped: {@link #publish}
+ * returns a future that completes once every matching listener has handled the event, and the
+ * publisher bounds what is queued by waiting on it (the change stream holds back its demand).
+ */
+public class VehicleEventBus implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(VehicleEventBus.class);
+
+    @FunctionalInterface
+    public interface Listener {
+        void onEvent(VehicleEvent event);
+    }
+
+    private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+
+    public Registration subscribe(String name, Listener listener, VehicleEvent.Type... types) {
+        Set<VehicleEvent.Type> filter = types.length == 0 ? EnumSet.allOf(VehicleEvent.Type.class) : EnumSet.of(types[0], types);
+        Registration registration = new Registration(name, listener, filter);
+        registrations.add(registration);
+        registration.worker.start();
+        return registration;
+    }
+
+    // Completes when every matching listener has handled the event, successfully or not.
+    public CompletableFuture<Void> publish(VehicleEvent event) {
+        List<CompletableFuture<Void>> handled = new ArrayList<>(registrations.size());
+        for (Registration r : registrations) {
+            CompletableFuture<Void> f = r.offer(event);
+            if (f != null) handled.add(f);
+        }
+        return CompletableFuture.allOf(handled.toArray(new CompletableFuture<?>[0]));
+    }
+
+    public void unsubscribe(Registration registration) {
+        registrations.remove(registration);
+        registration.stop();
+    }
+
+    @Override
+    public void close() {
+        for (Registration r : registrations) r.stop();
+        registrations.clear();
+    }
+
+    public static final class Registration {
+        private final String name;
+        private final Listener listener;
+        private final Set<VehicleEvent.Type> types;
+        private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+        private final Thread worker;
+        private final AtomicLong delivered = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private volatile boolean running = true;
+
+        private Registration(String name, Listener listener, Set<VehicleEvent.Type> types) {
+            this.name = name;
+            this.listener = listener;
+            this.types = types;
+            this.worker = new Thread(this::drain, "vehicle-events-" + name);
+            this.worker.setDaemon(true);
+        }
+
+        // null when the listener does not take this type of event
+        private CompletableFuture<Void> offer(VehicleEvent event) {
+            if (!types.contains(event.getType())) return null;
+            Pending pending = new Pending(event);
+            queue.add(pending);
+            return pending.handled;
+        }
+
+        private void drain() {
+            while (running || !queue.isEmpty()) {
+                Pending pending;
+                try {
+                    pending = queue.poll(200, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (pending == null) continue;
+                try {
+                    listener.onEvent(pending.event);
+                    delivered.incrementAndGet();
+                } catch (RuntimeException e) {
+                    failed.incrementAndGet();
+                    logger.error("Listener {} failed on {}", name, pending.event, e);
+                } finally {
+                    pending.handled.complete(null);
+                }
+            }
+        }
+
+        private void stop() {
+            running = false;
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public String getName() { return name; }
+        public int getQueueDepth() { return queue.size(); }
+        public long getDeliveredCount() { return delivered.get(); }
+        public long getFailedCount() { return failed.get(); }
+    }
+
+    private static final class Pending {
+        final VehicleEvent event;
+        final CompletableFuture<Void> handled = new CompletableFuture<>();
+
+        Pending(VehicleEvent event) {
+            this.event = event;
+        }
+    }
+}
@@ -2,11 +2,25 @@ package fr.dawan.formation.repository;
 
 import fr.dawan.formation.model.Vehicle;
 import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.data.rest.core.annotation.RestResource;
 import java.util.List;
+import java.util.stream.Stream;
 
 @RepositoryRestResource(collectionResourceRel = "vehicles", path = "vehicles")
 public interface VehicleRepository extends MongoRepository<Vehicle, ObjectId> {
     List<Vehicle> findByStatus(String status);
+
+    // Keyset pages: seek past the last _id on the {status, _id} index instead of skipping. Pass PageRequest.of(0, size).
+    @RestResource(exported = false)
+    List<Vehicle> findByIdGreaterThanOrderByIdAsc(ObjectId after, Pageable page);
+
+    @RestResource(exported = false)
+    List<Vehicle> findByStatusAndIdGreaterThanOrderByIdAsc(String status, ObjectId after, Pageable page);
+
+    // Backed by an open cursor: close the stream.
+    @RestResource(exported = false)
+    Stream<Vehicle> streamByStatusOrderByIdAsc(String status);
 }
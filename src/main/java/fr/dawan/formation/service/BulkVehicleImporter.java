@@ -0,0 +1,360 @@
+package fr.dawan.formation.service;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.InsertManyOptions;
+import fr.dawan.formation.codec.FleetCodecs;
+import fr.dawan.formation.metrics.ServiceMetrics;
+import fr.dawan.formation.model.Telemetry;
+import fr.dawan.formation.model.Vehicle;
+import org.bson.BsonInvalidOperationException;
+import org.bson.Document;
+import org.bson.json.JsonParseException;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bulk vehicle onboarding from NDJSON or CSV. The caller's thread only splits the input into
+ * chunks of lines; parsing, mapping and the unordered insertMany of each chunk run on the
+ * executor, at most {@code parallelism} chunks at a time. Bad rows are reported with their
+ * line number and never stop the load.
+ */
+public class BulkVehicleImporter {
+  private static final Logger log = LoggerFactory.getLogger(BulkVehicleImporter.class);
+
+  public enum Format { NDJSON, CSV }
+
+  private static final int MAX_REPORTED_ERRORS = 1_000;
+
+  private MongoCollection<Vehicle> vehicles;
+  private final ExecutorService executor;
+  private final int batchSize;
+  private final int parallelism;
+  private FleetAggregates aggregates;
+  private ServiceMetrics metrics = ServiceMetrics.NOOP;
+
+  public BulkVehicleImporter(MongoDatabase db, ExecutorService executor, int batchSize, int parallelism) {
+    if (batchSize <= 0 || parallelism <= 0) {
+      throw new IllegalArgumentException("Invalid importer sizing: batch=" + batchSize + ", parallelism=" + parallelism);
+    }
+    this.vehicles = db.getCollection("vehicles", Vehicle.class).withCodecRegistry(FleetCodecs.REGISTRY);
+    this.executor = executor;
+    this.batchSize = batchSize;
+    this.parallelism = parallelism;
+  }
+
+  // registration is not a telemetry write: imports follow the incident durability
+  public void setProfiles(OperationProfiles profiles) {
+    this.vehicles = vehicles.withWriteConcern(profiles.incidents());
+  }
+
+  public void setAggregates(FleetAggregates aggregates) {
+    this.aggregates = aggregates;
+  }
+
+  public void setMetrics(ServiceMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public Report importStream(InputStream in, Format format) throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    boolean ok = false;
+    try {
+      Report report = read(in, format, start);
+      ok = true;
+      return report;
+    } finally {
+      metrics.record("importer", "importStream", start, ok);
+    }
+  }
+
+  private Report read(InputStream in, Format format, long start) throws IOException, InterruptedException {
+    Report report = new Report();
+    Semaphore slots = new Semaphore(parallelism);
+
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+      String[] header = null;
+      long lineNumber = 0;
+      if (format == Format.CSV) {
+        String first = reader.readLine();
+        lineNumber++;
+        if (first == null) return report.finish(start);
+        header = splitCsv(first).toArray(new String[0]);
+      }
+
+      List<String> lines = new ArrayList<>(batchSize);
+      long firstLine = lineNumber + 1;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        lines.add(line);
+        if (lines.size() == batchSize) {
+          submit(lines, firstLine, format, header, report, slots);
+          lines = new ArrayList<>(batchSize);
+          firstLine = lineNumber + 1;
+        }
+      }
+      if (!lines.isEmpty()) submit(lines, firstLine, format, header, report, slots);
+    } finally {
+      // wait for every chunk, even if reading failed half-way
+      slots.acquireUninterruptibly(parallelism);
+    }
+
+    report.finish(start);
+    log.info("Vehicle import: {}", report);
+    return report;
+  }
+
+  private void submit(List<String> lines, long firstLine, Format format, String[] header, Report report, Semaphore slots) throws InterruptedException {
+    slots.acquire();
+    try {
+      executor.execute(() -> {
+        try {
+          importChunk(lines, firstLine, format, header, report);
+        } catch (RuntimeException e) {
+          log.error("Import chunk starting at line {} failed", firstLine, e);
+          report.failChunk(firstLine, lines.size(), e);
+        } finally {
+          slots.release();
+        }
+      });
+    } catch (RuntimeException e) {
+      slots.release();
+      throw e;
+    }
+  }
+
+  private void importChunk(List<String> lines, long firstLine, Format format, String[] header, Report report) {
+    Date now = new Date();
+    List<Vehicle> batch = new ArrayList<>(lines.size());
+    List<Long> batchLines = new ArrayList<>(lines.size());
+
+    for (int i = 0; i < lines.size(); i++) {
+      String line = lines.get(i);
+      if (line.isBlank()) continue;
+      long lineNumber = firstLine + i;
+      report.read.incrementAndGet();
+      try {
+        Document row = format == Format.CSV ? csvRow(header, line) : Document.parse(line);
+        Vehicle vehicle = toVehicle(row);
+        if (vehicle.getId() == null) vehicle.setId(new ObjectId());
+        if (vehicle.getCreatedAt() == null) vehicle.setCreatedAt(now);
+        vehicle.setUpdatedAt(now);
+        batch.add(vehicle);
+        batchLines.add(lineNumber);
+      } catch (JsonParseException | BsonInvalidOperationException | IllegalArgumentException | ClassCastException | DateTimeParseException e) {
+        report.reject(lineNumber, e.getMessage());
+      }
+    }
+    if (batch.isEmpty()) return;
+
+    List<Vehicle> inserted = batch;
+    try {
+      vehicles.insertMany(batch, new InsertManyOptions().ordered(false));
+    } catch (MongoBulkWriteException e) {
+      boolean[] failed = new boolean[batch.size()];
+      for (BulkWriteError error : e.getWriteErrors()) {
+        failed[error.getIndex()] = true;
+        report.reject(batchLines.get(error.getIndex()), error.getMessage());
+      }
+      inserted = new ArrayList<>(batch.size());
+      for (int i = 0; i < batch.size(); i++) if (!failed[i]) inserted.add(batch.get(i));
+      if (e.getWriteConcernError() != null) log.warn("Import batch write concern error: {}", e.getWriteConcernError().getMessage());
+    } catch (MongoException e) {
+      log.error("Import batch of {} vehicles failed", batch.size(), e);
+      for (Long line : batchLines) report.reject(line, e.getMessage());
+      return;
+    }
+    report.inserted.addAndGet(inserted.size());
+
+    FleetAggregates stats = aggregates;
+    if (stats != null && !inserted.isEmpty()) {
+      try {
+        stats.onVehiclesRegistered(inserted);
+      } catch (MongoException e) {
+        log.error("Fleet aggregate update failed; drift will be fixed by reconciliation", e);
+      }
+    }
+  }
+
+  // Accepts the stored layout (nested telemetry) as well as flat lat/lon/batteryPercent columns.
+  static Vehicle toVehicle(Document row) {
+    String registration = row.getString("registration");
+    String brand = row.getString("brand");
+    if (registration == null || registration.isBlank()) throw new IllegalArgumentException("Missing registration");
+    if (brand == null || brand.isBlank()) throw new IllegalArgumentException("Missing brand");
+
+    Vehicle vehicle = new Vehicle();
+    vehicle.setId(objectId(row.get("_id")));
+    vehicle.setRegistration(registration);
+    vehicle.setBrand(brand);
+    vehicle.setModel(row.getString("model"));
+    vehicle.setStatus(row.getString("status"));
+    vehicle.setOwnerId(objectId(row.get("ownerId")));
+
+    Document telemetry = row.get("telemetry", Document.class);
+    if (telemetry == null && row.containsKey("lat")) telemetry = row;
+    if (telemetry != null) {
+      Document position = telemetry.get("lastPosition", Document.class);
+      Document source = position != null ? position : telemetry;
+      Number lat = number(source.get("lat"));
+      Number lon = number(source.get("lon"));
+      Number battery = number(telemetry.get("batteryPercent"));
+      if (lat == null || lon == null) throw new IllegalArgumentException("Telemetry without lat/lon");
+      if (battery != null && (battery.intValue() < 0 || battery.intValue() > 100)) {
+        throw new IllegalArgumentException("batteryPercent out of range: " + battery);
+      }
+      // an empty battery column stays absent rather than reading as an empty battery
+      vehicle.setTelemetry(new Telemetry(lat.doubleValue(), lon.doubleValue(), date(source.get("ts")), battery != null ? battery.intValue() : null));
+    }
+
+    Document specs = row.get("specs", Document.class);
+    if (specs != null) vehicle.setSpecs(specs);
+    return vehicle;
+  }
+
+  private static ObjectId objectId(Object value) {
+    if (value == null || value instanceof ObjectId) return (ObjectId) value;
+    String hex = value.toString();
+    if (hex.isEmpty()) return null;
+    if (!ObjectId.isValid(hex)) throw new IllegalArgumentException("Invalid ObjectId: " + hex);
+    return new ObjectId(hex);
+  }
+
+  private static Number number(Object value) {
+    if (value == null || value instanceof Number) return (Number) value;
+    String s = value.toString().trim();
+    if (s.isEmpty()) return null;
+    try {
+      return Double.valueOf(s);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Not a number: " + s);
+    }
+  }
+
+  private static Date date(Object value) {
+    if (value == null || value instanceof Date) return (Date) value;
+    if (value instanceof Number) return new Date(((Number) value).longValue());
+    String s = value.toString().trim();
+    return s.isEmpty() ? null : Date.from(Instant.parse(s));
+  }
+
+  // CSV cells stay strings; toVehicle converts what it needs.
+  static Document csvRow(String[] header, String line) {
+    List<String> cells = splitCsv(line);
+    if (cells.size() > header.length) throw new IllegalArgumentException("Expected " + header.length + " columns, got " + cells.size());
+    Document row = new Document();
+    for (int i = 0; i < cells.size(); i++) {
+      if (!cells.get(i).isEmpty()) row.put(header[i], cells.get(i));
+    }
+    return row;
+  }
+
+  // RFC 4180 quoting ("" escapes a quote); fields spanning lines are not supported.
+  static List<String> splitCsv(String line) {
+    List<String> cells = new ArrayList<>();
+    StringBuilder cell = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (quoted) {
+        if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+          cell.append('"');
+          i++;
+        } else if (c == '"') {
+          quoted = false;
+        } else {
+          cell.append(c);
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        cells.add(cell.toString().trim());
+        cell.setLength(0);
+      } else {
+        cell.append(c);
+      }
+    }
+    if (quoted) throw new IllegalArgumentException("Unterminated quoted field");
+    cells.add(cell.toString().trim());
+    return cells;
+  }
+
+  public static final class RowError {
+    private final long line;
+    private final String message;
+
+    RowError(long line, String message) {
+      this.line = line;
+      this.message = message;
+    }
+
+    public long getLine() { return line; }
+    public String getMessage() { return message; }
+  }
+
+  public static final class Report {
+    private final AtomicLong read = new AtomicLong();
+    private final AtomicLong inserted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final List<RowError> errors = Collections.synchronizedList(new ArrayList<>());
+    private volatile long elapsedNanos;
+
+    void reject(long line, String message) {
+      rejected.incrementAndGet();
+      if (errors.size() < MAX_REPORTED_ERRORS) errors.add(new RowError(line, message));
+    }
+
+    void failChunk(long firstLine, int lines, RuntimeException e) {
+      for (int i = 0; i < lines; i++) reject(firstLine + i, e.getMessage());
+    }
+
+    Report finish(long startNanos) {
+      elapsedNanos = System.nanoTime() - startNanos;
+      return this;
+    }
+
+    public long getRead() { return read.get(); }
+    public long getInserted() { return inserted.get(); }
+    public long getRejected() { return rejected.get(); }
+    public double getElapsedSeconds() { return elapsedNanos / 1e9; }
+
+    // the first MAX_REPORTED_ERRORS rejected rows, sorted by line
+    public List<RowError> getErrors() {
+      synchronized (errors) {
+        List<RowError> sorted = new ArrayList<>(errors);
+        sorted.sort((a, b) -> Long.compare(a.line, b.line));
+        return sorted;
+      }
+    }
+
+    public double getVehiclesPerSecond() {
+      return elapsedNanos == 0 ? 0.0 : inserted.get() / (elapsedNanos / 1e9);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d read, %d inserted, %d rejected in %.2fs (%.0f vehicles/s)",
+        read.get(), inserted.get(), rejected.get(), getElapsedSeconds(), getVehiclesPerSecond());
+    }
+  }
+}
@@ -0,0 +1,257 @@
+package fr.dawan.formation.service;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import fr.dawan.formation.model.Telemetry;
+import fr.dawan.formation.model.Vehicle;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.or;
+
+/**
+ * Materialized per-brand battery sum/count and per-owner vehicle counts, kept up to date by
+ * the write paths and periodically reconciled against a full aggregation. The incremental
+ * paths can drift (battery deltas are computed from a read taken before the write, and
+ * /api/vehicles writes skip them), which the scheduled reconciliation corrects.
+ */
+public class FleetAggregates {
+  private static final Logger log = LoggerFactory.getLogger(FleetAggregates.class);
+
+  static final String KIND_BRAND = "brand";
+  static final String KIND_OWNER = "owner";
+  private static final int REPLACE_BATCH_SIZE = 1_000;
+
+  private final MongoCollection<Document> stats;
+  private MongoCollection<Document> statsReads;
+  private final MongoCollection<Document> vehicles;
+  private final MongoCollection<Document> users;
+
+  public FleetAggregates(MongoDatabase db) {
+    this.stats = db.getCollection("fleet_stats");
+    this.statsReads = stats;
+    this.vehicles = db.getCollection("vehicles");
+    this.users = db.getCollection("users");
+  }
+
+  // Reports may read lagging counters; the reconciliation scans stay on the primary, since
+  // their totals overwrite the live counters and a stale secondary would roll them back.
+  public void setProfiles(OperationProfiles profiles) {
+    this.statsReads = stats.withReadPreference(profiles.analytics());
+  }
+
+  public void ensureIndexes() {
+    stats.createIndexes(indexes());
+  }
+
+  static List<IndexModel> indexes() {
+    return List.of(new IndexModel(Indexes.compoundIndex(Indexes.ascending("kind"), Indexes.descending("vehicleCount"))));
+  }
+
+  public void onVehicleRegistered(Vehicle vehicle) {
+    List<WriteModel<Document>> models = new ArrayList<>(2);
+
+    Document brandInc = new Document("vehicleCount", 1);
+    Integer battery = vehicle.getTelemetry() != null ? vehicle.getTelemetry().getBatteryPercent() : null;
+    if (battery != null) brandInc.append("batterySum", battery.longValue()).append("batteryCount", 1L);
+    models.add(upsertInc(KIND_BRAND, vehicle.getBrand(), brandInc));
+    models.add(upsertInc(KIND_OWNER, vehicle.getOwnerId(), new Document("vehicleCount", 1)));
+
+    stats.bulkWrite(models, new BulkWriteOptions().ordered(false));
+  }
+
+  // Bulk registrations: one upsert per brand and per owner for the whole batch.
+  public void onVehiclesRegistered(List<Vehicle> registered) {
+    Map<String, long[]> brands = new HashMap<>();
+    Map<ObjectId, long[]> owners = new HashMap<>();
+    for (Vehicle vehicle : registered) {
+      long[] brand = brands.computeIfAbsent(vehicle.getBrand(), k -> new long[3]);
+      brand[0]++;
+      Integer battery = vehicle.getTelemetry() != null ? vehicle.getTelemetry().getBatteryPercent() : null;
+      if (battery != null) {
+        brand[1] += battery;
+        brand[2]++;
+      }
+      owners.computeIfAbsent(vehicle.getOwnerId(), k -> new long[1])[0]++;
+    }
+
+    List<WriteModel<Document>> models = new ArrayList<>(brands.size() + owners.size());
+    for (Map.Entry<String, long[]> e : brands.entrySet()) {
+      long[] b = e.getValue();
+      Document inc = new Document("vehicleCount", b[0]);
+      if (b[2] > 0) inc.append("batterySum", b[1]).append("batteryCount", b[2]);
+      models.add(upsertInc(KIND_BRAND, e.getKey(), inc));
+    }
+    for (Map.Entry<ObjectId, long[]> e : owners.entrySet()) {
+      models.add(upsertInc(KIND_OWNER, e.getKey(), new Document("vehicleCount", e.getValue()[0])));
+    }
+    if (!models.isEmpty()) stats.bulkWrite(models, new BulkWriteOptions().ordered(false));
+  }
+
+  public void onBatteryChanged(Document before, Integer current) {
+    Map<String, long[]> deltas = new HashMap<>();
+    addBatteryDelta(deltas, before, current);
+    applyBrandDeltas(deltas);
+  }
+
+  public void onBatteryChanged(Map<ObjectId, Document> before, Map<ObjectId, Telemetry> current) {
+    Map<String, long[]> deltas = new HashMap<>();
+    for (Map.Entry<ObjectId, Telemetry> e : current.entrySet()) {
+      Document previous = before.get(e.getKey());
+      if (previous != null) addBatteryDelta(deltas, previous, e.getValue().getBatteryPercent());
+    }
+    applyBrandDeltas(deltas);
+  }
+
+  static Document batteryProjection() {
+    return new Document("brand", 1).append("telemetry.batteryPercent", 1);
+  }
+
+  // A null current level leaves the stored one untouched, so there is nothing to adjust.
+  private static void addBatteryDelta(Map<String, long[]> deltas, Document before, Integer current) {
+    if (current == null) return;
+    long[] delta = deltas.computeIfAbsent(before.getString("brand"), k -> new long[2]);
+    Document telemetry = before.get("telemetry", Document.class);
+    Number previous = telemetry != null ? (Number) telemetry.get("batteryPercent") : null;
+
+    if (previous == null) {
+      delta[0] += current;
+      delta[1] += 1;
+    } else {
+      delta[0] += current - previous.longValue();
+    }
+  }
+
+  private void applyBrandDeltas(Map<String, long[]> deltas) {
+    List<WriteModel<Document>> models = new ArrayList<>(deltas.size());
+    for (Map.Entry<String, long[]> e : deltas.entrySet()) {
+      long[] d = e.getValue();
+      if (d[0] == 0 && d[1] == 0) continue;
+      models.add(upsertInc(KIND_BRAND, e.getKey(), new Document("batterySum", d[0]).append("batteryCount", d[1])));
+    }
+    if (!models.isEmpty()) stats.bulkWrite(models, new BulkWriteOptions().ordered(false));
+  }
+
+  // touchedAt keeps a key created while a reconciliation runs from being swept by it
+  private static UpdateOneModel<Document> upsertInc(String kind, Object key, Document inc) {
+    return new UpdateOneModel<>(eq("_id", statId(kind, key)),
+      new Document("$inc", inc).append("$set", new Document("kind", kind).append("key", key).append("touchedAt", new Date())),
+      new UpdateOptions().upsert(true));
+  }
+
+  private static Document statId(String kind, Object key) {
+    return new Document("kind", kind).append("key", key);
+  }
+
+  public List<Document> batteryAverageByBrand() {
+    List<Document> out = new ArrayList<>();
+    for (Document d : statsReads.find(and(eq("kind", KIND_BRAND), gt("batteryCount", 0)))) {
+      double avg = ((Number) d.get("batterySum")).doubleValue() / ((Number) d.get("batteryCount")).doubleValue();
+      out.add(new Document("brand", d.get("key")).append("avgBattery", avg));
+    }
+    return out;
+  }
+
+  public List<Document> topOwners(int limit) {
+    List<Document> top = statsReads.find(eq("kind", KIND_OWNER))
+      .sort(new Document("kind", 1).append("vehicleCount", -1))
+      .limit(limit)
+      .into(new ArrayList<>());
+
+    List<Object> ownerIds = new ArrayList<>(top.size());
+    for (Document d : top) ownerIds.add(d.get("key"));
+
+    Map<Object, String> names = new HashMap<>();
+    for (Document u : users.find(in("_id", ownerIds)).projection(new Document("name", 1))) {
+      names.put(u.get("_id"), u.getString("name"));
+    }
+
+    List<Document> out = new ArrayList<>(top.size());
+    for (Document d : top) {
+      Object ownerId = d.get("key");
+      out.add(new Document("vehicleCount", d.get("vehicleCount")).append("ownerId", ownerId).append("ownerName", names.get(ownerId)));
+    }
+    return out;
+  }
+
+  public void reconcile() {
+    long start = System.nanoTime();
+
+    List<Document> brandPipeline = Arrays.asList(
+      new Document("$group", new Document("_id", "$brand")
+        .append("vehicleCount", new Document("$sum", 1))
+        .append("batterySum", new Document("$sum", new Document("$ifNull", Arrays.asList("$telemetry.batteryPercent", 0))))
+        .append("batteryCount", new Document("$sum", new Document("$cond", Arrays.asList(
+          new Document("$eq", Arrays.asList(new Document("$type", "$telemetry.batteryPercent"), "missing")), 0, 1)))))
+    );
+    int brands = replaceKind(KIND_BRAND, vehicles.aggregate(brandPipeline).allowDiskUse(true));
+
+    List<Document> ownerPipeline = List.of(
+      new Document("$group", new Document("_id", "$ownerId").append("vehicleCount", new Document("$sum", 1)))
+    );
+    int owners = replaceKind(KIND_OWNER, vehicles.aggregate(ownerPipeline).allowDiskUse(true));
+
+    log.info("Reconciled fleet aggregates: {} brands, {} owners in {} ms", brands, owners, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  // Keys the scan did not return are the ones neither replaced nor incremented since it started.
+  private int replaceKind(String kind, Iterable<Document> groups) {
+    Date started = new Date();
+    List<WriteModel<Document>> models = new ArrayList<>(REPLACE_BATCH_SIZE);
+    int seen = 0;
+
+    for (Document g : groups) {
+      Object key = g.get("_id");
+      Document id = statId(kind, key);
+      Document replacement = new Document(g).append("_id", id).append("kind", kind).append("key", key).append("touchedAt", new Date());
+      models.add(new ReplaceOneModel<>(eq("_id", id), replacement, new ReplaceOptions().upsert(true)));
+      seen++;
+      if (models.size() == REPLACE_BATCH_SIZE) {
+        stats.bulkWrite(models, new BulkWriteOptions().ordered(false));
+        models = new ArrayList<>(REPLACE_BATCH_SIZE);
+      }
+    }
+
+    if (!models.isEmpty()) stats.bulkWrite(models, new BulkWriteOptions().ordered(false));
+    stats.deleteMany(and(eq("kind", kind), or(lt("touchedAt", started), exists("touchedAt", false))));
+
+    return seen;
+  }
+
+  public ScheduledFuture<?> scheduleReconciliation(ScheduledExecutorService scheduler, Duration period) {
+    return scheduler.scheduleWithFixedDelay(() -> {
+      try {
+        reconcile();
+      } catch (RuntimeException e) {
+        log.error("Fleet aggregate reconciliation failed", e);
+      }
+    }, period.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+  }
+}
@@ -1,40 +1,128 @@
 package fr.dawan.formation.service;
 
-import com.mongodb.client.AggregateIterable;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import fr.dawan.formation.metrics.ServiceMetrics;
 import org.bson.Document;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class FleetAnalytics {
-  private final MongoCollection<Document> vehicles;
+  public static final int DEFAULT_BATCH_SIZE = 500;
+  static final int TOP_OWNERS = 3;
+
+  private MongoCollection<Document> vehicles;
+  private MongoCollection<Document> incidents;
+  private boolean tieredIncidents;
+  private FleetAggregates aggregates;
+  private ServiceMetrics metrics = ServiceMetrics.NOOP;
 
   public FleetAnalytics(MongoDatabase db) {
     this.vehicles = db.getCollection("vehicles");
+    this.incidents = db.getCollection("incidents");
+  }
+
+  public void setProfiles(OperationProfiles profiles) {
+    this.vehicles = vehicles.withReadPreference(profiles.analytics());
+    this.incidents = incidents.withReadPreference(profiles.analytics());
+  }
+
+  // Incident reports then read the incidents collection, which holds the history vehicles no longer embed.
+  public void setIncidentStore(IncidentStore store) {
+    this.tieredIncidents = store != null;
+  }
+
+  // Battery and owner reports then read the materialized fleet_stats instead of grouping every vehicle.
+  public void setAggregates(FleetAggregates aggregates) {
+    this.aggregates = aggregates;
+  }
+
+  public void setMetrics(ServiceMetrics metrics) {
+    this.metrics = metrics;
   }
 
   public List<Document> batteryAverageByBrand() {
-    List<Document> pipeline = Arrays.asList(
+    if (aggregates != null) return materialized("batteryAverageByBrand", aggregates::batteryAverageByBrand);
+    return collect("batteryAverageByBrand", vehicles, batteryAverageByBrandPipeline());
+  }
+
+  public Stream<Document> streamBatteryAverageByBrand(int batchSize, boolean allowDiskUse) {
+    return stream("batteryAverageByBrand", vehicles, batteryAverageByBrandPipeline(), batchSize, allowDiskUse);
+  }
+
+  public void batteryAverageByBrand(int batchSize, boolean allowDiskUse, Consumer<Document> sink) {
+    forEach("batteryAverageByBrand", vehicles, batteryAverageByBrandPipeline(), batchSize, allowDiskUse, sink);
+  }
+
+  public List<Document> maintenanceAlertsEngineIncidents() {
+    return collect("maintenanceAlertsEngineIncidents", incidentSource(), incidentPipeline());
+  }
+
+  // At most limit rows; the full list is only available as a stream or through a sink.
+  public List<Document> maintenanceAlertsEngineIncidents(int limit) {
+    if (limit <= 0) throw new IllegalArgumentException("limit must be positive: " + limit);
+    List<Document> pipeline = new ArrayList<>(incidentPipeline());
+    pipeline.add(new Document("$limit", limit));
+    return collect("maintenanceAlertsEngineIncidents", incidentSource(), pipeline);
+  }
+
+  public Stream<Document> streamMaintenanceAlertsEngineIncidents(int batchSize, boolean allowDiskUse) {
+    return stream("maintenanceAlertsEngineIncidents", incidentSource(), incidentPipeline(), batchSize, allowDiskUse);
+  }
+
+  public void maintenanceAlertsEngineIncidents(int batchSize, boolean allowDiskUse, Consumer<Document> sink) {
+    forEach("maintenanceAlertsEngineIncidents", incidentSource(), incidentPipeline(), batchSize, allowDiskUse, sink);
+  }
+
+  public List<Document> topOwners() {
+    if (aggregates != null) return materialized("topOwners", () -> aggregates.topOwners(TOP_OWNERS));
+    return collect("topOwners", vehicles, topOwnersPipeline());
+  }
+
+  public Stream<Document> streamTopOwners(int batchSize, boolean allowDiskUse) {
+    return stream("topOwners", vehicles, topOwnersPipeline(), batchSize, allowDiskUse);
+  }
+
+  public void topOwners(int batchSize, boolean allowDiskUse, Consumer<Document> sink) {
+    forEach("topOwners", vehicles, topOwnersPipeline(), batchSize, allowDiskUse, sink);
+  }
+
+  static List<Document> batteryAverageByBrandPipeline() {
+    return Arrays.asList(
       new Document("$match", new Document("telemetry.batteryPercent", new Document("$exists", true))),
       new Document("$group", new Document("_id", "$brand")
         .append("avgBattery", new Document("$avg", "$telemetry.batteryPercent"))) ,
       new Document("$project", new Document("brand", "$_id").append("avgBattery", 1).append("_id", 0))
     );
+  }
 
-    AggregateIterable<Document> it = vehicles.aggregate(pipeline);
-    List<Document> out = new ArrayList<>();
-    for (Document document : it) out.add(document);
+  private MongoCollection<Document> incidentSource() {
+    return tieredIncidents ? incidents : vehicles;
+  }
 
-    return out;
+  private List<Document> incidentPipeline() {
+    return tieredIncidents ? tieredMaintenanceAlertsEngineIncidentsPipeline() : maintenanceAlertsEngineIncidentsPipeline();
   }
 
-  public List<Document> maintenanceAlertsEngineIncidents() {
-    List<Document> pipeline = Arrays.asList(
+  static List<Document> maintenanceAlertsEngineIncidentsPipeline() {
+    return maintenanceAlertsEngineIncidentsPipeline(new Document("incidents.type", "Moteur"));
+  }
+
+  private static List<Document> maintenanceAlertsEngineIncidentsPipeline(Document match) {
+    return Arrays.asList(
       new Document("$unwind", "$incidents"),
-      new Document("$match", new Document("incidents.type", "Moteur")),
+      new Document("$match", match),
       new Document("$lookup", new Document("from", "users").append("localField", "ownerId").append("foreignField", "_id").append("as", "owner")),
       new Document("$unwind", new Document("path", "$owner").append("preserveNullAndEmptyArrays", true)),
       new Document("$project", new Document("registration", 1)
@@ -43,28 +131,107 @@ public class FleetAnalytics {
         .append("incident", "$incidents")
         .append("ownerName", "$owner.name"))
     );
+  }
 
-    AggregateIterable<Document> it = vehicles.aggregate(pipeline);
-    List<Document> out = new ArrayList<>();
-    for (Document d : it) out.add(d);
-
-    return out;
+  /**
+   * Same rows as {@link #maintenanceAlertsEngineIncidentsPipeline()}, run on the incidents
+   * collection so trimmed history is included; embedded incidents without a seq belong to
+   * vehicles not migrated yet and are read from there.
+   */
+  static List<Document> tieredMaintenanceAlertsEngineIncidentsPipeline() {
+    return Arrays.asList(
+      new Document("$match", new Document("type", "Moteur")),
+      new Document("$lookup", new Document("from", "vehicles").append("localField", "vehicleId").append("foreignField", "_id").append("as", "vehicle")),
+      new Document("$unwind", "$vehicle"),
+      new Document("$lookup", new Document("from", "users").append("localField", "vehicle.ownerId").append("foreignField", "_id").append("as", "owner")),
+      new Document("$unwind", new Document("path", "$owner").append("preserveNullAndEmptyArrays", true)),
+      new Document("$project", new Document("_id", "$vehicleId")
+        .append("registration", "$vehicle.registration")
+        .append("brand", "$vehicle.brand")
+        .append("model", "$vehicle.model")
+        .append("incident", new Document("seq", "$seq").append("date", "$date").append("type", "$type")
+          .append("description", "$description").append("evidenceId", "$evidenceId"))
+        .append("ownerName", "$owner.name")),
+      new Document("$unionWith", new Document("coll", "vehicles").append("pipeline",
+        maintenanceAlertsEngineIncidentsPipeline(new Document("incidents.type", "Moteur").append("incidents.seq", new Document("$exists", false)))))
+    );
   }
 
-  public List<Document> topOwners() {
-    List<Document> pipeline = Arrays.asList(
+  static List<Document> topOwnersPipeline() {
+    return Arrays.asList(
       new Document("$group", new Document("_id", "$ownerId").append("vehicleCount", new Document("$sum", 1))),
       new Document("$sort", new Document("vehicleCount", -1)),
-      new Document("$limit", 3),
+      new Document("$limit", TOP_OWNERS),
       new Document("$lookup", new Document("from", "users").append("localField", "_id").append("foreignField", "_id").append("as", "owner")),
       new Document("$unwind", new Document("path", "$owner").append("preserveNullAndEmptyArrays", true)),
       new Document("$project", new Document("ownerId", "$_id").append("ownerName", "$owner.name").append("vehicleCount", 1).append("_id", 0))
     );
+  }
+
+  private List<Document> collect(String name, MongoCollection<Document> source, List<Document> pipeline) {
+    return materialized(name, () -> source.aggregate(pipeline).into(new ArrayList<>()));
+  }
+
+  private List<Document> materialized(String name, Supplier<List<Document>> report) {
+    long start = metrics.start();
+    boolean ok = false;
+    try {
+      List<Document> out = report.get();
+      ok = true;
+      return out;
+    } finally {
+      metrics.record("analytics", name, start, ok);
+    }
+  }
+
+  // The cursor is only released when the stream is closed: use try-with-resources.
+  private Stream<Document> stream(String name, MongoCollection<Document> source, List<Document> pipeline, int batchSize, boolean allowDiskUse) {
+    long start = metrics.start();
+    MongoCursor<Document> cursor;
+    try {
+      cursor = source.aggregate(pipeline).batchSize(batchSize).allowDiskUse(allowDiskUse).cursor();
+    } catch (RuntimeException e) {
+      metrics.record("analytics", name, start, false);
+      throw e;
+    }
+    AtomicBoolean failed = new AtomicBoolean();
+    Iterator<Document> guarded = new Iterator<>() {
+      @Override
+      public boolean hasNext() {
+        try {
+          return cursor.hasNext();
+        } catch (RuntimeException e) {
+          failed.set(true);
+          throw e;
+        }
+      }
+
+      @Override
+      public Document next() {
+        try {
+          return cursor.next();
+        } catch (RuntimeException e) {
+          failed.set(true);
+          throw e;
+        }
+      }
+    };
+    Spliterator<Document> spliterator = Spliterators.spliteratorUnknownSize(guarded, Spliterator.ORDERED | Spliterator.NONNULL);
+
+    return StreamSupport.stream(spliterator, false).onClose(() -> {
+      cursor.close();
+      metrics.record("analytics", name, start, !failed.get());
+    });
+  }
 
-    AggregateIterable<Document> it = vehicles.aggregate(pipeline);
-    List<Document> out = new ArrayList<>();
-    for (Document d : it) out.add(d);
-    
-    return out;
+  private void forEach(String name, MongoCollection<Document> source, List<Document> pipeline, int batchSize, boolean allowDiskUse, Consumer<Document> sink) {
+    long start = metrics.start();
+    boolean ok = false;
+    try (MongoCursor<Document> cursor = source.aggregate(pipeline).batchSize(batchSize).allowDiskUse(allowDiskUse).cursor()) {
+      while (cursor.hasNext()) sink.accept(cursor.next());
+      ok = true;
+    } finally {
+      metrics.record("analytics", name, start, ok);
+    }
   }
 }
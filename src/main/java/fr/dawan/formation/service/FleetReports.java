@@ -0,0 +1,61 @@
+package fr.dawan.formation.service;
+
+import org.bson.Document;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Runs the independent {@link FleetAnalytics} reports concurrently, so a dashboard request
+ * waits for the slowest pipeline instead of the sum of all three.
+ */
+public class FleetReports {
+  public static final int MAX_ALERTS = 1_000;
+
+  private final FleetAnalytics analytics;
+  private final Executor executor;
+
+  public FleetReports(FleetAnalytics analytics, Executor executor) {
+    this.analytics = analytics;
+    this.executor = executor;
+  }
+
+  public CompletableFuture<List<Document>> batteryAverageByBrand() {
+    return CompletableFuture.supplyAsync(analytics::batteryAverageByBrand, executor);
+  }
+
+  public CompletableFuture<List<Document>> maintenanceAlerts() {
+    return maintenanceAlerts(MAX_ALERTS);
+  }
+
+  public CompletableFuture<List<Document>> maintenanceAlerts(int limit) {
+    return CompletableFuture.supplyAsync(() -> analytics.maintenanceAlertsEngineIncidents(Math.min(limit, MAX_ALERTS)), executor);
+  }
+
+  public CompletableFuture<List<Document>> topOwners() {
+    return CompletableFuture.supplyAsync(analytics::topOwners, executor);
+  }
+
+  public CompletableFuture<Map<String, List<Document>>> all() {
+    Map<String, Supplier<CompletableFuture<List<Document>>>> reports = new LinkedHashMap<>();
+    reports.put("batteryAverageByBrand", this::batteryAverageByBrand);
+    reports.put("maintenanceAlerts", this::maintenanceAlerts);
+    reports.put("topOwners", this::topOwners);
+    return fanOut(reports);
+  }
+
+  static <T> CompletableFuture<Map<String, T>> fanOut(Map<String, Supplier<CompletableFuture<T>>> tasks) {
+    Map<String, CompletableFuture<T>> started = new LinkedHashMap<>();
+    for (Map.Entry<String, Supplier<CompletableFuture<T>>> e : tasks.entrySet()) started.put(e.getKey(), e.getValue().get());
+
+    return CompletableFuture.allOf(started.values().toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+      Map<String, T> out = new LinkedHashMap<>();
+      for (Map.Entry<String, CompletableFuture<T>> e : started.entrySet()) out.put(e.getKey(), e.getValue().join());
+      return out;
+    });
+  }
+}
@@ -0,0 +1,117 @@
+package fr.dawan.formation.service;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.geojson.Polygon;
+import com.mongodb.client.model.geojson.Position;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.geoWithin;
+import static com.mongodb.client.model.Filters.geoWithinCenterSphere;
+
+/**
+ * Proximity lookups over the GeoJSON {@code telemetry.location} mirror of each vehicle's last position.
+ */
+public class GeoQueryService {
+  public static final String AVAILABLE = "available";
+  static final String LOCATION_FIELD = "telemetry.location";
+
+  // Mean radius, shared with TelemetryColumnStore's haversine so both agree on distances.
+  static final double EARTH_RADIUS_METERS = 6_371_008.8;
+  static final int MAX_RESULTS = 1_000;
+
+  private final MongoCollection<Document> vehicles;
+
+  public GeoQueryService(MongoDatabase db) {
+    this.vehicles = db.getCollection("vehicles");
+  }
+
+  public void ensureIndexes() {
+    vehicles.createIndexes(indexes());
+  }
+
+  static List<IndexModel> indexes() {
+    return List.of(
+      new IndexModel(Indexes.geo2dsphere(LOCATION_FIELD)),
+      // status-filtered lookups (nearestAvailable and friends) narrow on status before the geometry
+      new IndexModel(Indexes.compoundIndex(Indexes.ascending("status"), Indexes.geo2dsphere(LOCATION_FIELD)))
+    );
+  }
+
+  public long backfillLocations() {
+    Document location = new Document("type", "Point")
+      .append("coordinates", Arrays.asList("$telemetry.lastPosition.lon", "$telemetry.lastPosition.lat"));
+    List<Document> update = List.of(new Document("$set", new Document(LOCATION_FIELD, location)));
+
+    return vehicles.updateMany(and(exists("telemetry.lastPosition.lat"), exists(LOCATION_FIELD, false)), update).getModifiedCount();
+  }
+
+  public List<Document> nearestAvailable(double lat, double lon, int k, double maxDistanceMeters) {
+    return nearest(lat, lon, k, maxDistanceMeters, AVAILABLE);
+  }
+
+  public List<Document> nearest(double lat, double lon, int k, double maxDistanceMeters, String status) {
+    if (k <= 0) throw new IllegalArgumentException("k must be positive: " + k);
+    Document geoNear = new Document("near", new Document("type", "Point").append("coordinates", Arrays.asList(lon, lat)))
+      .append("key", LOCATION_FIELD)
+      .append("distanceField", "distanceMeters")
+      .append("maxDistance", maxDistanceMeters)
+      .append("spherical", true);
+    if (status != null) geoNear.append("query", new Document("status", status));
+
+    List<Document> pipeline = Arrays.asList(
+      new Document("$geoNear", geoNear),
+      new Document("$limit", Math.min(k, MAX_RESULTS)),
+      new Document("$project", summaryProjection().append("distanceMeters", 1))
+    );
+
+    return vehicles.aggregate(pipeline).into(new ArrayList<>());
+  }
+
+  static Bson withinRadiusFilter(double lat, double lon, double radiusMeters, String status) {
+    Bson filter = geoWithinCenterSphere(LOCATION_FIELD, lon, lat, radiusMeters / EARTH_RADIUS_METERS);
+    return status != null ? and(filter, eq("status", status)) : filter;
+  }
+
+  public List<Document> withinRadius(double lat, double lon, double radiusMeters, String status) {
+    return find(withinRadiusFilter(lat, lon, radiusMeters, status));
+  }
+
+  // {lat, lon} pairs; an open ring is closed here, and needs at least three distinct corners.
+  public List<Document> withinPolygon(List<double[]> ring, String status) {
+    List<Position> positions = new ArrayList<>(ring.size() + 1);
+    for (double[] latLon : ring) {
+      if (latLon == null || latLon.length != 2) throw new IllegalArgumentException("Polygon corners must be {lat, lon} pairs");
+      positions.add(new Position(latLon[1], latLon[0]));
+    }
+    if (!positions.isEmpty() && !positions.get(0).equals(positions.get(positions.size() - 1))) positions.add(positions.get(0));
+    if (positions.size() < 4) throw new IllegalArgumentException("A polygon ring needs at least 4 positions, first and last equal; got " + ring.size());
+
+    Bson filter = geoWithin(LOCATION_FIELD, new Polygon(positions));
+    return find(status != null ? and(filter, eq("status", status)) : filter);
+  }
+
+  // Capped: a wide radius or polygon would otherwise return the whole fleet.
+  private List<Document> find(Bson filter) {
+    return vehicles.find(filter).projection(summaryProjection()).limit(MAX_RESULTS).into(new ArrayList<>());
+  }
+
+  private static Document summaryProjection() {
+    return new Document("registration", 1)
+      .append("brand", 1)
+      .append("model", 1)
+      .append("status", 1)
+      .append("telemetry.lastPosition", 1)
+      .append("telemetry.batteryPercent", 1);
+  }
+}
@@ -1,64 +1,487 @@
 package fr.dawan.formation.service;
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.gridfs.GridFSBucket;
 import com.mongodb.client.gridfs.GridFSBuckets;
+import com.mongodb.client.gridfs.GridFSDownloadStream;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOptions;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import com.mongodb.client.gridfs.model.GridFSFile;
+import fr.dawan.formation.metrics.ServiceMetrics;
+import fr.dawan.formation.model.Incident;
+import fr.dawan.formation.model.Vehicle;
+import org.bson.BsonObjectId;
+import org.bson.types.Binary;
 import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.or;
 
 public class GridFsService {
+  private static final Logger log = LoggerFactory.getLogger(GridFsService.class);
+
+  static final String DIGEST_FIELD = "metadata.sha256";
+  static final String REF_COUNT_FIELD = "metadata.refCount";
+  static final String LAST_REFERENCED_FIELD = "metadata.lastReferencedAt";
+
   private final GridFSBucket bucket;
-  private final MongoCollection<Document> vehicles;
+  private MongoCollection<Document> vehicles;
+  private final MongoCollection<Document> files;
+  private final MongoCollection<Document> chunks;
+  private VehicleCache cache;
+  private IncidentStore incidents;
+  private ServiceMetrics metrics = ServiceMetrics.NOOP;
 
   public GridFsService(MongoDatabase db) {
     this.bucket = GridFSBuckets.create(db);
     this.vehicles = db.getCollection("vehicles");
+    this.files = db.getCollection("fs.files");
+    this.chunks = db.getCollection("fs.chunks");
+  }
+
+  public void setProfiles(OperationProfiles profiles) {
+    this.vehicles = vehicles.withWriteConcern(profiles.incidents());
+  }
+
+  public void setCache(VehicleCache cache) {
+    this.cache = cache;
+  }
+
+  // With a store, incidentIndex is the incident's seq in the full history rather than its slot in the embedded array.
+  public void setIncidentStore(IncidentStore incidents) {
+    this.incidents = incidents;
+  }
+
+  public void setMetrics(ServiceMetrics metrics) {
+    this.metrics = metrics;
   }
 
   public ObjectId uploadAndAttach(String vehicleId, int incidentIndex, InputStream content, String filename) {
-    ObjectId fileId = bucket.uploadFromStream(filename, content);
-    ObjectId vId = new ObjectId(vehicleId);
-    String path = "incidents." + incidentIndex + ".evidenceId";
-    vehicles.updateOne(eq("_id", vId), new Document("$set", new Document(path, fileId).append("updatedAt", new Date())));
-    return fileId;
+    long start = metrics.start();
+    boolean ok = false;
+    try {
+      ObjectId fileId = storeDeduplicated(content, filename);
+      ObjectId vId = new ObjectId(vehicleId);
+      ObjectId previous;
+
+      if (incidents != null) {
+        Document before = incidents.attachEvidence(vId, incidentIndex, fileId);
+        if (before == null) {
+          release(fileId);
+          throw new IllegalArgumentException("No incident " + incidentIndex + " for vehicle " + vehicleId);
+        }
+        // the embedded copy only exists while the incident is among the latest ones
+        vehicles.updateOne(eq("_id", vId),
+          new Document("$set", new Document("incidents.$[i].evidenceId", fileId).append("updatedAt", new Date())),
+          new UpdateOptions().arrayFilters(List.of(new Document("i.seq", incidentIndex))));
+        previous = before.get("evidenceId") instanceof ObjectId ? before.getObjectId("evidenceId") : null;
+      } else {
+        String path = "incidents." + incidentIndex + ".evidenceId";
+        Document before = vehicles.findOneAndUpdate(eq("_id", vId),
+          new Document("$set", new Document(path, fileId).append("updatedAt", new Date())),
+          new FindOneAndUpdateOptions().projection(new Document("incidents.evidenceId", 1)).returnDocument(ReturnDocument.BEFORE));
+        previous = evidenceAt(before, incidentIndex);
+      }
+      if (previous != null && !previous.equals(fileId)) release(previous);
+
+      if (cache != null) cache.invalidate(vId);
+      ok = true;
+      return fileId;
+    } finally {
+      metrics.record("evidence", "uploadAndAttach", start, ok);
+    }
+  }
+
+  // Hashes while uploading; if the digest already exists the new copy is dropped and the stored one gains a reference.
+  public ObjectId storeDeduplicated(InputStream content, String filename) {
+    MessageDigest sha256 = sha256();
+    ObjectId uploaded = bucket.uploadFromStream(filename, new DigestInputStream(content, sha256));
+    String digest = HexFormat.of().formatHex(sha256.digest());
+
+    try {
+      files.updateOne(eq("_id", uploaded), new Document("$set", new Document(DIGEST_FIELD, digest).append(REF_COUNT_FIELD, 1)
+        .append(LAST_REFERENCED_FIELD, new Date())));
+      return uploaded;
+    } catch (MongoWriteException e) {
+      if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) throw e;
+    }
+
+    bucket.delete(uploaded);
+    // lastReferencedAt keeps compaction off the file until the caller's reference has landed
+    Document existing = files.findOneAndUpdate(eq(DIGEST_FIELD, digest),
+      new Document("$inc", new Document(REF_COUNT_FIELD, 1)).append("$set", new Document(LAST_REFERENCED_FIELD, new Date())));
+    if (existing == null) throw new IllegalStateException("Duplicate evidence " + digest + " vanished during upload");
+    return existing.getObjectId("_id");
   }
 
-  public Path getIncidentEvidence(String vehicleId, int incidentIndex) throws Exception {
-    ObjectId vId = new ObjectId(vehicleId);
-    Document vehicle = vehicles.find(eq("_id", vId)).first();
+  public void release(ObjectId fileId) {
+    files.updateOne(eq("_id", fileId), new Document("$inc", new Document(REF_COUNT_FIELD, -1)));
+  }
+
+  /**
+   * Recomputes reference counts from incidents, then removes unreferenced files last referenced
+   * (or uploaded) before the grace period, and chunks without a file. Counts are only reset when
+   * unchanged since the scan, and a file is deleted by one filter on refCount 0 and its last
+   * reference, so a concurrent dedup hit on it wins over the deletion.
+   */
+  public long compact(Duration grace) {
+    Map<ObjectId, Integer> references = new HashMap<>();
+    List<Document> pipeline = Arrays.asList(
+      new Document("$match", new Document("incidents.evidenceId", new Document("$exists", true))),
+      new Document("$unwind", "$incidents"),
+      new Document("$match", embeddedOnly(new Document("incidents.evidenceId", new Document("$type", "objectId")))),
+      new Document("$group", new Document("_id", "$incidents.evidenceId").append("count", new Document("$sum", 1)))
+    );
+    for (Document d : vehicles.aggregate(pipeline).allowDiskUse(true)) references.put(d.getObjectId("_id"), d.getInteger("count"));
+    if (incidents != null) incidents.countEvidence(references);
+
+    Date cutoff = new Date(System.currentTimeMillis() - grace.toMillis());
+    long deleted = 0;
+    Bson unreferenced = and(
+      or(eq(REF_COUNT_FIELD, 0), exists(REF_COUNT_FIELD, false)),
+      or(lt(LAST_REFERENCED_FIELD, cutoff), and(exists(LAST_REFERENCED_FIELD, false), lt("uploadDate", cutoff))));
+    for (Document f : files.find().projection(new Document("uploadDate", 1).append(REF_COUNT_FIELD, 1))) {
+      ObjectId id = f.getObjectId("_id");
+      int refs = references.getOrDefault(id, 0);
+      Document metadata = f.get("metadata", Document.class);
+      Object stored = metadata != null ? metadata.get("refCount") : null;
+      if (stored != null && !Integer.valueOf(refs).equals(stored)) {
+        if (files.updateOne(and(eq("_id", id), eq(REF_COUNT_FIELD, stored)), new Document("$set", new Document(REF_COUNT_FIELD, refs))).getModifiedCount() == 0) continue;
+      }
+      if (refs == 0 && files.deleteOne(and(eq("_id", id), unreferenced)).getDeletedCount() == 1) {
+        chunks.deleteMany(eq("files_id", id));
+        deleted++;
+      }
+    }
+
+    List<Document> orphanPipeline = Arrays.asList(
+      new Document("$group", new Document("_id", "$files_id")),
+      new Document("$lookup", new Document("from", "fs.files").append("localField", "_id").append("foreignField", "_id").append("as", "file")),
+      new Document("$match", new Document("file", new Document("$size", 0)))
+    );
+    List<Object> orphanIds = new ArrayList<>();
+    for (Document d : chunks.aggregate(orphanPipeline).allowDiskUse(true)) orphanIds.add(d.get("_id"));
+    long orphanChunks = orphanIds.isEmpty() ? 0 : chunks.deleteMany(in("files_id", orphanIds)).getDeletedCount();
+
+    log.info("Evidence compaction removed {} files and {} orphaned chunks", deleted, orphanChunks);
+    return deleted;
+  }
+
+  public ScheduledFuture<?> scheduleCompaction(ScheduledExecutorService scheduler, Duration period, Duration grace) {
+    return scheduler.scheduleWithFixedDelay(() -> {
+      try {
+        compact(grace);
+      } catch (RuntimeException e) {
+        log.error("Evidence compaction failed", e);
+      }
+    }, period.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  static List<IndexModel> indexes() {
+    return List.of(new IndexModel(Indexes.ascending(DIGEST_FIELD),
+      new IndexOptions().unique(true).partialFilterExpression(exists(DIGEST_FIELD))));
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // Embedded incidents with a seq are copies of ones in the store and must not be counted twice.
+  private Document embeddedOnly(Document match) {
+    return incidents != null ? match.append("incidents.seq", new Document("$exists", false)) : match;
+  }
+
+  private static ObjectId evidenceAt(Document vehicle, int incidentIndex) {
+    if (vehicle == null) return null;
+    List<?> incs = vehicle.get("incidents", List.class);
+    if (incs == null || incidentIndex < 0 || incidentIndex >= incs.size()) return null;
+    Object inc = incs.get(incidentIndex);
+    if (!(inc instanceof Document)) return null;
+    Object evidence = ((Document) inc).get("evidenceId");
+    return evidence instanceof ObjectId ? (ObjectId) evidence : null;
+  }
+
+  // Downloads to a target the caller owns; to serve the bytes, stream them instead.
+  public GridFSFile getIncidentEvidence(String vehicleId, int incidentIndex, Path target) throws IOException, InterruptedException {
+    long start = metrics.start();
+    boolean ok = false;
+    try {
+      GridFSFile file = evidenceFile(vehicleId, incidentIndex);
+      downloadParallel(file, target, 1);
+      metrics.recordBytes("evidence", "getIncidentEvidence", file.getLength());
+      ok = true;
+      return file;
+    } finally {
+      metrics.record("evidence", "getIncidentEvidence", start, ok);
+    }
+  }
+
+  public GridFSFile evidenceFile(String vehicleId, int incidentIndex) {
+    ObjectId fileId = findEvidenceId(new ObjectId(vehicleId), incidentIndex);
+    Document file = files.find(eq("_id", fileId)).first();
+    if (file == null) throw new IllegalStateException("Evidence file missing from GridFS: " + fileId);
+    return toGridFSFile(file);
+  }
+
+  private static GridFSFile toGridFSFile(Document file) {
+    return new GridFSFile(new BsonObjectId(file.getObjectId("_id")), file.getString("filename"),
+      ((Number) file.get("length")).longValue(), ((Number) file.get("chunkSize")).intValue(), file.getDate("uploadDate"),
+      file.get("metadata", Document.class));
+  }
+
+  public GridFSFile streamIncidentEvidence(String vehicleId, int incidentIndex, OutputStream out) throws IOException {
+    long start = metrics.start();
+    boolean ok = false;
+    try (GridFSDownloadStream in = bucket.openDownloadStream(findEvidenceId(new ObjectId(vehicleId), incidentIndex))) {
+      byte[] buffer = new byte[in.getGridFSFile().getChunkSize()];
+      int n;
+      while ((n = in.read(buffer)) > 0) out.write(buffer, 0, n);
+      metrics.recordBytes("evidence", "streamIncidentEvidence", in.getGridFSFile().getLength());
+      ok = true;
+      return in.getGridFSFile();
+    } finally {
+      metrics.record("evidence", "streamIncidentEvidence", start, ok);
+    }
+  }
+
+  public GridFSFile streamIncidentEvidence(String vehicleId, int incidentIndex, WritableByteChannel out) throws IOException {
+    long start = metrics.start();
+    boolean ok = false;
+    try (GridFSDownloadStream in = bucket.openDownloadStream(findEvidenceId(new ObjectId(vehicleId), incidentIndex))) {
+      ByteBuffer buffer = ByteBuffer.allocate(in.getGridFSFile().getChunkSize());
+      int n;
+      while ((n = in.read(buffer.array())) > 0) {
+        buffer.clear().limit(n);
+        while (buffer.hasRemaining()) out.write(buffer);
+      }
+      metrics.recordBytes("evidence", "streamIncidentEvidence", in.getGridFSFile().getLength());
+      ok = true;
+      return in.getGridFSFile();
+    } finally {
+      metrics.record("evidence", "streamIncidentEvidence", start, ok);
+    }
+  }
+
+  // Serves bytes [offset, offset + length) for HTTP range requests; skip() jumps whole chunks without reading them.
+  public long streamRange(String vehicleId, int incidentIndex, long offset, long length, OutputStream out) throws IOException {
+    return streamRange(findEvidenceId(new ObjectId(vehicleId), incidentIndex), offset, length, out);
+  }
+
+  // By file, for callers that already resolved it (and sent its length in headers) and must stream that same file.
+  public long streamRange(ObjectId fileId, long offset, long length, OutputStream out) throws IOException {
+    if (length < 0) throw new IllegalArgumentException("Range length must not be negative: " + length);
+    long start = metrics.start();
+    boolean ok = false;
+    try (GridFSDownloadStream in = bucket.openDownloadStream(fileId)) {
+      long fileLength = in.getGridFSFile().getLength();
+      if (offset < 0 || offset > fileLength) throw new IndexOutOfBoundsException("Range start " + offset + " outside file of " + fileLength + " bytes");
+
+      long skipped = 0;
+      while (skipped < offset) skipped += in.skip(offset - skipped);
+
+      long remaining = Math.min(length, fileLength - offset);
+      long written = 0;
+      byte[] buffer = new byte[in.getGridFSFile().getChunkSize()];
+      while (remaining > 0) {
+        int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+        if (n <= 0) break;
+        out.write(buffer, 0, n);
+        remaining -= n;
+        written += n;
+      }
+      metrics.recordBytes("evidence", "streamRange", written);
+      ok = true;
+      return written;
+    } finally {
+      metrics.record("evidence", "streamRange", start, ok);
+    }
+  }
+
+  // Files are named <id>_<filename>; a stored filename that would land outside the directory is skipped.
+  public List<Path> exportEvidence(Collection<ObjectId> fileIds, Path directory, int parallelism) throws IOException, InterruptedException {
+    List<Path> out = new ArrayList<>(fileIds.size());
+    Path base = directory.toAbsolutePath().normalize();
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+    try {
+      for (Document d : files.find(in("_id", fileIds))) {
+        GridFSFile file = toGridFSFile(d);
+        String name = file.getObjectId().toHexString() + "_" + file.getFilename();
+        Path target = base.resolve(name).normalize();
+        if (!base.equals(target.getParent()) || !name.equals(target.getFileName().toString())) {
+          log.warn("Skipping evidence {}: filename {} escapes {}", file.getObjectId(), file.getFilename(), base);
+          continue;
+        }
+        downloadParallel(file, target, parallelism, executor);
+        out.add(target);
+      }
+    } catch (IOException | InterruptedException | RuntimeException e) {
+      executor.shutdownNow();
+      throw e;
+    } finally {
+      executor.shutdown();
+    }
+    return out;
+  }
+
+  public void downloadParallel(GridFSFile file, Path target, int parallelism) throws IOException, InterruptedException {
+    if (parallelism <= 1) {
+      downloadRange(file, target, 0, chunkCount(file));
+      return;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+    try {
+      downloadParallel(file, target, parallelism, executor);
+    } catch (IOException | InterruptedException | RuntimeException e) {
+      executor.shutdownNow();
+      throw e;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  // Each worker reads a contiguous run of fs.chunks and writes it at its own offset in the target file.
+  private void downloadParallel(GridFSFile file, Path target, int parallelism, ExecutorService executor) throws IOException, InterruptedException {
+    int total = chunkCount(file);
+    List<Future<Integer>> parts = new ArrayList<>();
+    try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      int per = Math.max(1, (total + parallelism - 1) / parallelism);
+      for (int from = 0; from < total; from += per) {
+        int start = from;
+        int end = Math.min(total, from + per);
+        parts.add(executor.submit(() -> writeChunks(file, channel, start, end)));
+      }
+
+      int written = 0;
+      try {
+        for (Future<Integer> part : parts) written += part.get();
+      } catch (ExecutionException | InterruptedException e) {
+        // the channel closes on the way out, so the other parts must stop writing to it
+        for (Future<Integer> part : parts) part.cancel(true);
+        throw e;
+      }
+      if (written != total) throw new IOException("Expected " + total + " chunks for " + file.getObjectId() + ", got " + written);
+    } catch (ExecutionException e) {
+      throw new IOException("Parallel download failed for " + file.getObjectId(), e.getCause());
+    }
+  }
+
+  private void downloadRange(GridFSFile file, Path target, int from, int to) throws IOException {
+    try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      int written = writeChunks(file, channel, from, to);
+      if (written != to - from) throw new IOException("Expected " + (to - from) + " chunks for " + file.getObjectId() + ", got " + written);
+    }
+  }
+
+  private int writeChunks(GridFSFile file, FileChannel channel, int from, int to) throws IOException {
+    int written = 0;
+    long chunkSize = file.getChunkSize();
+    for (Document chunk : chunks.find(and(eq("files_id", file.getId()), gte("n", from), lt("n", to))).sort(new Document("n", 1))) {
+      int n = chunk.getInteger("n");
+      ByteBuffer data = ByteBuffer.wrap(chunk.get("data", Binary.class).getData());
+      long position = n * chunkSize;
+      while (data.hasRemaining()) position += channel.write(data, position);
+      written++;
+    }
+    return written;
+  }
+
+  private static int chunkCount(GridFSFile file) {
+    return (int) ((file.getLength() + file.getChunkSize() - 1) / file.getChunkSize());
+  }
+
+  public ObjectId findEvidenceId(ObjectId vId, int incidentIndex) {
+    ObjectId cached = cachedEvidenceId(vId, incidentIndex);
+    return cached != null ? cached : storedEvidenceId(vId, incidentIndex);
+  }
+
+  private ObjectId cachedEvidenceId(ObjectId vId, int incidentIndex) {
+    if (cache == null) return null;
+    Vehicle vehicle = cache.get(vId);
+    if (vehicle == null || vehicle.getIncidents() == null) return null;
+
+    List<Incident> incs = vehicle.getIncidents();
+    if (incidents != null) {
+      for (Incident inc : incs) if (inc.getSeq() != null && inc.getSeq() == incidentIndex) return inc.getEvidenceId();
+      return null;
+    }
+    if (incidentIndex < 0 || incidentIndex >= incs.size()) return null;
+    return incs.get(incidentIndex).getEvidenceId();
+  }
+
+  private ObjectId storedEvidenceId(ObjectId vId, int incidentIndex) {
+    if (incidents != null) {
+      Incident stored = incidents.find(vId, incidentIndex);
+      if (stored != null) {
+        if (stored.getEvidenceId() == null) throw new IllegalArgumentException("No evidence attached to incident");
+        return stored.getEvidenceId();
+      }
+      // not migrated yet: the embedded array still holds the whole history
+    }
+
+    String vehicleId = vId.toHexString();
+    Document vehicle = vehicles.find(eq("_id", vId)).projection(new Document("incidents.evidenceId", 1).append("incidents.seq", 1).append("_id", 0)).first();
     if (vehicle == null) throw new IllegalArgumentException("Vehicle not found: " + vehicleId);
 
     Object incidentsObj = vehicle.get("incidents");
-    if (!(incidentsObj instanceof java.util.List)) throw new IllegalArgumentException("No incidents for vehicle");
-    java.util.List<?> incs = (java.util.List<?>) incidentsObj;
+    if (!(incidentsObj instanceof List)) throw new IllegalArgumentException("No incidents for vehicle");
+    List<?> incs = (List<?>) incidentsObj;
     if (incidentIndex < 0 || incidentIndex >= incs.size()) throw new IndexOutOfBoundsException("Invalid incident index");
 
     Object incObj = incs.get(incidentIndex);
     if (!(incObj instanceof Document)) throw new IllegalStateException("Incident structure unexpected");
     Document inc = (Document) incObj;
+    if (incidents != null && inc.containsKey("seq")) throw new IndexOutOfBoundsException("Invalid incident index");
 
     Object evidence = inc.get("evidenceId");
     if (!(evidence instanceof ObjectId)) throw new IllegalArgumentException("No evidence attached to incident");
-    ObjectId fileId = (ObjectId) evidence;
-
-    GridFSFile fileDoc = bucket.find(eq("_id", fileId)).first();
-    String filename = (fileDoc != null) ? fileDoc.getFilename() : ("evidence_" + vehicleId + "_" + incidentIndex);
-
-    Path out = Paths.get(filename + "_" + System.currentTimeMillis());
-    try (OutputStream os = new FileOutputStream(out.toFile())) {
-      bucket.downloadToStream(fileId, os);
-    }
-    return out;
+    return (ObjectId) evidence;
   }
 }
@@ -0,0 +1,188 @@
+package fr.dawan.formation.service;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import fr.dawan.formation.model.Incident;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.not;
+
+/**
+ * Full incident history in the {@code incidents} collection, one document per incident keyed
+ * by (vehicleId, seq). Vehicles only embed their latest {@code maxEmbedded} incidents; every
+ * incident is written here too, so this collection alone answers history, alert and evidence
+ * queries while the hot vehicle documents stay bounded.
+ */
+public class IncidentStore {
+  private static final Logger log = LoggerFactory.getLogger(IncidentStore.class);
+
+  public static final int DEFAULT_MAX_EMBEDDED = 20;
+  private static final Bson UNMIGRATED = eq("incidents", new Document("$elemMatch", new Document("seq", new Document("$exists", false))));
+
+  private MongoCollection<Document> incidents;
+  private final int maxEmbedded;
+
+  public IncidentStore(MongoDatabase db, int maxEmbedded) {
+    if (maxEmbedded <= 0) throw new IllegalArgumentException("maxEmbedded must be positive: " + maxEmbedded);
+    this.incidents = db.getCollection("incidents");
+    this.maxEmbedded = maxEmbedded;
+  }
+
+  public void setProfiles(OperationProfiles profiles) {
+    this.incidents = incidents.withWriteConcern(profiles.incidents());
+  }
+
+  public int getMaxEmbedded() {
+    return maxEmbedded;
+  }
+
+  static List<IndexModel> indexes() {
+    return List.of(
+      new IndexModel(Indexes.ascending("vehicleId", "seq"), new IndexOptions().unique(true)),
+      new IndexModel(Indexes.compoundIndex(Indexes.ascending("type"), Indexes.descending("date"))),
+      new IndexModel(Indexes.ascending("evidenceId"), new IndexOptions().partialFilterExpression(exists("evidenceId")))
+    );
+  }
+
+  // Idempotent: replaying the same (vehicleId, seq) leaves the stored incident untouched.
+  public void record(ObjectId vehicleId, Incident incident) {
+    incidents.updateOne(key(vehicleId, incident.getSeq()), new Document("$setOnInsert", fields(incident)), new UpdateOptions().upsert(true));
+  }
+
+  public void recordAll(ObjectId vehicleId, List<Incident> history) {
+    List<WriteModel<Document>> models = new ArrayList<>(history.size());
+    for (Incident incident : history) {
+      models.add(new UpdateOneModel<>(key(vehicleId, incident.getSeq()), new Document("$setOnInsert", fields(incident)), new UpdateOptions().upsert(true)));
+    }
+    if (!models.isEmpty()) incidents.bulkWrite(models, new BulkWriteOptions().ordered(false));
+  }
+
+  /**
+   * Bounds a vehicle's embedded array after an append, given the vehicle as the append left it
+   * (incidents and incidentCount). Whatever the trim drops, plus the new incident, is recorded
+   * here first; a legacy array without seqs is migrated instead of trimmed, and a trim loses to
+   * any concurrent append, whose own call trims later. Returns the seq the incident ended up with.
+   */
+  public int recordAndTrim(MongoCollection<Document> vehicles, ObjectId vehicleId, Document vehicle) {
+    List<Document> embedded = vehicle.getList("incidents", Document.class);
+    for (Document d : embedded) {
+      if (!(d.get("seq") instanceof Number)) {
+        // numbered by position, the appended incident being the last
+        migrate(vehicles, eq("_id", vehicleId));
+        return embedded.size() - 1;
+      }
+    }
+
+    int overflow = Math.max(0, embedded.size() - maxEmbedded);
+    List<Incident> pending = new ArrayList<>(overflow + 1);
+    for (Document d : embedded.subList(0, overflow)) pending.add(VehicleService.incidentFromDocument(d));
+    pending.add(VehicleService.incidentFromDocument(embedded.get(embedded.size() - 1)));
+    recordAll(vehicleId, pending);
+
+    if (overflow > 0) {
+      vehicles.updateOne(and(eq("_id", vehicleId), eq("incidentCount", vehicle.get("incidentCount")), not(UNMIGRATED)),
+        new Document("$push", new Document("incidents", new Document("$each", List.of()).append("$slice", -maxEmbedded))));
+    }
+    return pending.get(pending.size() - 1).getSeq();
+  }
+
+  public Incident find(ObjectId vehicleId, int seq) {
+    Document d = incidents.find(key(vehicleId, seq)).first();
+    return d != null ? VehicleService.incidentFromDocument(d) : null;
+  }
+
+  // seq is dense, so paging is an index range rather than a skip
+  public List<Incident> find(ObjectId vehicleId, int fromSeq, int limit) {
+    List<Incident> out = new ArrayList<>(Math.min(limit, 256));
+    for (Document d : incidents.find(and(eq("vehicleId", vehicleId), gte("seq", fromSeq))).sort(new Document("seq", 1)).limit(limit)) {
+      out.add(VehicleService.incidentFromDocument(d));
+    }
+    return out;
+  }
+
+  // Returns the incident as it was, so the caller can release the evidence it replaced; null if there is no such incident.
+  public Document attachEvidence(ObjectId vehicleId, int seq, ObjectId fileId) {
+    return incidents.findOneAndUpdate(key(vehicleId, seq),
+      new Document("$set", new Document("evidenceId", fileId)),
+      new FindOneAndUpdateOptions().projection(new Document("evidenceId", 1)).returnDocument(ReturnDocument.BEFORE));
+  }
+
+  // Adds, per evidence file, the number of incidents pointing at it.
+  public void countEvidence(Map<ObjectId, Integer> references) {
+    List<Document> pipeline = List.of(
+      new Document("$match", new Document("evidenceId", new Document("$type", "objectId"))),
+      new Document("$group", new Document("_id", "$evidenceId").append("count", new Document("$sum", 1)))
+    );
+    for (Document d : incidents.aggregate(pipeline).allowDiskUse(true)) references.merge(d.getObjectId("_id"), d.getInteger("count"), Integer::sum);
+  }
+
+  /**
+   * Moves vehicles written before incidents had a seq to the tiered layout: numbers the embedded
+   * array (it was never trimmed, so positions are the history), copies it here and keeps the
+   * latest {@code maxEmbedded}. A vehicle that gets a new incident meanwhile is left for the next run.
+   */
+  public long migrate(MongoCollection<Document> vehicles) {
+    return migrate(vehicles, new Document());
+  }
+
+  private long migrate(MongoCollection<Document> vehicles, Bson scope) {
+    long migrated = 0;
+    for (Document v : vehicles.find(and(scope, UNMIGRATED)).projection(new Document("incidents", 1).append("incidentCount", 1))) {
+      ObjectId vehicleId = v.getObjectId("_id");
+      List<Document> embedded = v.getList("incidents", Document.class);
+
+      List<Incident> history = new ArrayList<>(embedded.size());
+      for (int i = 0; i < embedded.size(); i++) {
+        Incident incident = VehicleService.incidentFromDocument(embedded.get(i));
+        incident.setSeq(i);
+        history.add(incident);
+      }
+      recordAll(vehicleId, history);
+
+      List<Document> kept = new ArrayList<>(Math.min(embedded.size(), maxEmbedded));
+      for (Incident incident : history.subList(Math.max(0, history.size() - maxEmbedded), history.size())) {
+        Document d = new Document("seq", incident.getSeq());
+        d.putAll(fields(incident));
+        kept.add(d);
+      }
+
+      long updated = vehicles.updateOne(and(eq("_id", vehicleId), eq("incidentCount", v.get("incidentCount"))),
+        new Document("$set", new Document("incidents", kept).append("incidentCount", history.size()))).getModifiedCount();
+      migrated += updated;
+    }
+    if (migrated > 0) log.info("Moved {} vehicles to tiered incidents (latest {} embedded)", migrated, maxEmbedded);
+    return migrated;
+  }
+
+  private static Document key(ObjectId vehicleId, Integer seq) {
+    if (seq == null) throw new IllegalArgumentException("Incident without seq for vehicle " + vehicleId);
+    return new Document("vehicleId", vehicleId).append("seq", seq);
+  }
+
+  private static Document fields(Incident incident) {
+    Document d = new Document("date", incident.getDate()).append("type", incident.getType()).append("description", incident.getDescription());
+    if (incident.getEvidenceId() != null) d.append("evidenceId", incident.getEvidenceId());
+    return d;
+  }
+}
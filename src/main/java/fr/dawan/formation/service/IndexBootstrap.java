@@ -0,0 +1,164 @@
+package fr.dawan.formation.service;
+
+import com.mongodb.ExplainVerbosity;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lte;
+
+/**
+ * Creates every index the services rely on, checks they exist, and fails fast when a hot
+ * query's winning plan is a collection scan.
+ */
+public class IndexBootstrap {
+  private static final Logger log = LoggerFactory.getLogger(IndexBootstrap.class);
+
+  private final MongoDatabase db;
+  private final Map<String, List<IndexModel>> indexes = new LinkedHashMap<>();
+  private final List<HotQuery> hotQueries = new ArrayList<>();
+
+  public IndexBootstrap(MongoDatabase db) {
+    this.db = db;
+
+    indexes.put("vehicles", concat(VehicleService.indexes(), GeoQueryService.indexes()));
+    indexes.put("telemetry_buckets", TelemetryHistoryService.indexes());
+    indexes.put("fleet_stats", FleetAggregates.indexes());
+    indexes.put("fs.files", GridFsService.indexes());
+    indexes.put("incidents", IncidentStore.indexes());
+
+    hotQueries.add(new HotQuery("findLowBatteryAndManyIncidents", "vehicles", VehicleService.lowBatteryAndManyIncidentsFilter(), null));
+    hotQueries.add(new HotQuery("telemetryHistoryRange", "telemetry_buckets",
+      and(eq("vehicleId", new ObjectId()), gte("bucketStart", new Date(0)), lte("bucketStart", new Date())), new Document("bucketStart", 1)));
+    hotQueries.add(new HotQuery("telemetryWindowLoad", "telemetry_buckets",
+      and(gte("bucketStart", new Date(0)), lte("bucketStart", new Date())), new Document("bucketStart", 1)));
+    hotQueries.add(new HotQuery("vehicleKeysetPage", "vehicles",
+      and(eq("status", "ACTIVE"), gt("_id", new ObjectId(new byte[12]))), new Document("_id", 1)));
+    hotQueries.add(new HotQuery("availableWithinRadius", "vehicles",
+      GeoQueryService.withinRadiusFilter(48.8566, 2.3522, 5_000, GeoQueryService.AVAILABLE), null));
+    hotQueries.add(new HotQuery("topOwners", "fleet_stats", eq("kind", FleetAggregates.KIND_OWNER), new Document("kind", 1).append("vehicleCount", -1)));
+  }
+
+  private static final class HotQuery {
+    final String name;
+    final String collection;
+    final Bson filter;
+    final Bson sort;
+
+    HotQuery(String name, String collection, Bson filter, Bson sort) {
+      this.name = name;
+      this.collection = collection;
+      this.filter = filter;
+      this.sort = sort;
+    }
+  }
+
+  public void run() {
+    backfillIncidentCounts();
+    backfillLocations();
+    createIndexes();
+    validateIndexes();
+    verifyPlans();
+  }
+
+  public long backfillIncidentCounts() {
+    List<Document> update = List.of(new Document("$set", new Document("incidentCount",
+      new Document("$size", new Document("$ifNull", Arrays.asList("$incidents", new ArrayList<>()))))));
+    long modified = db.getCollection("vehicles").updateMany(exists("incidentCount", false), update).getModifiedCount();
+    if (modified > 0) log.info("Backfilled incidentCount on {} vehicles", modified);
+    return modified;
+  }
+
+  // Vehicles written before the GeoJSON mirror have no telemetry.location, and no 2dsphere index entry.
+  public long backfillLocations() {
+    long modified = new GeoQueryService(db).backfillLocations();
+    if (modified > 0) log.info("Backfilled telemetry.location on {} vehicles", modified);
+    return modified;
+  }
+
+  public void createIndexes() {
+    for (Map.Entry<String, List<IndexModel>> e : indexes.entrySet()) {
+      List<String> names = db.getCollection(e.getKey()).createIndexes(e.getValue());
+      log.info("Indexes on {}: {}", e.getKey(), names);
+    }
+  }
+
+  public void validateIndexes() {
+    for (Map.Entry<String, List<IndexModel>> e : indexes.entrySet()) {
+      List<BsonDocument> existing = new ArrayList<>();
+      for (Document index : db.getCollection(e.getKey()).listIndexes()) {
+        existing.add(index.get("key", Document.class).toBsonDocument());
+      }
+      for (IndexModel model : e.getValue()) {
+        BsonDocument keys = model.getKeys().toBsonDocument();
+        if (!existing.contains(keys)) throw new IllegalStateException("Missing index " + keys.toJson() + " on " + e.getKey());
+      }
+    }
+  }
+
+  public void verifyPlans() {
+    for (HotQuery q : hotQueries) {
+      MongoCollection<Document> collection = db.getCollection(q.collection);
+      Document explain = collection.find(q.filter).sort(q.sort).explain(ExplainVerbosity.QUERY_PLANNER);
+      Document planner = explain.get("queryPlanner", Document.class);
+      Object winningPlan = planner != null ? planner.get("winningPlan") : null;
+
+      String summary = planSummary(winningPlan);
+      if (summary.contains("COLLSCAN")) {
+        throw new IllegalStateException("Hot query " + q.name + " on " + q.collection + " falls back to a collection scan: " + summary);
+      }
+      log.info("Plan for {}: {}", q.name, summary);
+    }
+  }
+
+  // Flattens the plan tree into "STAGE <- STAGE(index)" form; handles classic, SBE (queryPlan) and mongos layouts.
+  public static String planSummary(Object plan) {
+    if (!(plan instanceof Document)) return "";
+    Document stage = (Document) plan;
+    if (stage.containsKey("queryPlan")) return planSummary(stage.get("queryPlan"));
+
+    StringBuilder out = new StringBuilder(stage.getString("stage") != null ? stage.getString("stage") : "?");
+    if (stage.getString("indexName") != null) out.append('(').append(stage.getString("indexName")).append(')');
+
+    Object input = stage.get("inputStage");
+    if (input != null) out.append(" <- ").append(planSummary(input));
+
+    List<?> inputs = stage.get("inputStages", List.class);
+    if (inputs != null) {
+      for (Object child : inputs) out.append(" <- ").append(planSummary(child));
+    }
+
+    // mongos: SINGLE_SHARD / SHARD_MERGE wrapping one winning plan per targeted shard
+    List<?> shards = stage.get("shards", List.class);
+    if (shards != null) {
+      for (Object shard : shards) {
+        if (shard instanceof Document) out.append(" <- ").append(planSummary(((Document) shard).get("winningPlan")));
+      }
+    }
+    return out.toString();
+  }
+
+  private static List<IndexModel> concat(List<IndexModel> a, List<IndexModel> b) {
+    List<IndexModel> out = new ArrayList<>(a);
+    out.addAll(b);
+    return out;
+  }
+}
@@ -0,0 +1,64 @@
+package fr.dawan.formation.service;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.TagSet;
+import com.mongodb.WriteConcern;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durability and routing per kind of operation: high-volume telemetry writes, incident
+ * writes that must survive a failover, and analytics reads that can run on a secondary.
+ */
+public final class OperationProfiles {
+  // the server rejects anything lower (90 s, or heartbeat frequency + 10 s)
+  static final Duration MIN_MAX_STALENESS = Duration.ofSeconds(90);
+
+  public static final OperationProfiles DEFAULT = new OperationProfiles(
+    WriteConcern.W1,
+    WriteConcern.MAJORITY.withWTimeout(5, TimeUnit.SECONDS),
+    ReadPreference.secondaryPreferred(120, TimeUnit.SECONDS));
+
+  private final WriteConcern telemetry;
+  private final WriteConcern incidents;
+  private final ReadPreference analytics;
+
+  public OperationProfiles(WriteConcern telemetry, WriteConcern incidents, ReadPreference analytics) {
+    this.telemetry = telemetry;
+    this.incidents = incidents;
+    this.analytics = analytics;
+  }
+
+  public static OperationProfiles of(String telemetry, String incidents, String analyticsMode, Duration maxStaleness) {
+    return new OperationProfiles(writeConcern(telemetry), writeConcern(incidents), readPreference(analyticsMode, maxStaleness));
+  }
+
+  public WriteConcern telemetry() { return telemetry; }
+  public WriteConcern incidents() { return incidents; }
+  public ReadPreference analytics() { return analytics; }
+
+  // "unacknowledged"/"w0", "w1", "w2"..., "majority"
+  static WriteConcern writeConcern(String name) {
+    String n = name.trim().toLowerCase();
+    if (n.equals("unacknowledged")) return WriteConcern.UNACKNOWLEDGED;
+    if (n.equals("majority")) return WriteConcern.MAJORITY.withWTimeout(5, TimeUnit.SECONDS);
+    if (n.matches("w\\d+")) return new WriteConcern(Integer.parseInt(n.substring(1)));
+    throw new IllegalArgumentException("Unknown write concern: " + name);
+  }
+
+  static ReadPreference readPreference(String mode, Duration maxStaleness) {
+    if (mode.equals("primary")) return ReadPreference.primary();
+    if (maxStaleness == null) return ReadPreference.valueOf(mode);
+    if (maxStaleness.compareTo(MIN_MAX_STALENESS) < 0) {
+      throw new IllegalArgumentException("maxStaleness must be at least " + MIN_MAX_STALENESS.getSeconds() + "s: " + maxStaleness);
+    }
+    return ReadPreference.valueOf(mode, List.<TagSet>of(), maxStaleness.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public String toString() {
+    return "telemetry=" + telemetry.asDocument().toJson() + ", incidents=" + incidents.asDocument().toJson() + ", analytics=" + analytics;
+  }
+}
@@ -0,0 +1,115 @@
+package fr.dawan.formation.service;
+
+import com.mongodb.ExplainVerbosity;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.Indexes;
+import fr.dawan.formation.reactive.TelemetryStreamService;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lte;
+
+/**
+ * Shards the high-volume collections when connected to a mongos, and checks that the
+ * per-vehicle queries are routed to a single shard. A no-op against a plain replica set.
+ */
+public class ShardingSetup {
+  private static final Logger log = LoggerFactory.getLogger(ShardingSetup.class);
+
+  private final MongoClient client;
+  private final MongoDatabase db;
+  private final Map<String, ShardedCollection> collections = new LinkedHashMap<>();
+
+  public ShardingSetup(MongoClient client, String database) {
+    this.client = client;
+    this.db = client.getDatabase(database);
+
+    collections.put("vehicles", new ShardedCollection(VehicleService.shardKey(),
+      List.of(new IndexModel(Indexes.hashed("_id"))),
+      eq("_id", new ObjectId())));
+    collections.put("telemetry_history", new ShardedCollection(TelemetryStreamService.shardKey(),
+      List.of(new IndexModel(Indexes.hashed("vehicleId"))),
+      and(eq("vehicleId", "VEH-0001"), gte("timestamp", new Date(0)), lte("timestamp", new Date()))));
+    List<IndexModel> bucketIndexes = new ArrayList<>(TelemetryHistoryService.indexes());
+    bucketIndexes.add(new IndexModel(Indexes.compoundIndex(Indexes.hashed("vehicleId"), Indexes.ascending("bucketStart"))));
+    collections.put("telemetry_buckets", new ShardedCollection(TelemetryHistoryService.shardKey(),
+      bucketIndexes,
+      and(eq("vehicleId", new ObjectId()), gte("bucketStart", new Date(0)), lte("bucketStart", new Date()))));
+  }
+
+  private static final class ShardedCollection {
+    final Document key;
+    final List<IndexModel> supportingIndexes;
+    final Bson targetedQuery;
+
+    ShardedCollection(Document key, List<IndexModel> supportingIndexes, Bson targetedQuery) {
+      this.key = key;
+      this.supportingIndexes = supportingIndexes;
+      this.targetedQuery = targetedQuery;
+    }
+  }
+
+  public boolean isMongos() {
+    Document hello = client.getDatabase("admin").runCommand(new Document("hello", 1));
+    return "isdbgrid".equals(hello.getString("msg"));
+  }
+
+  public void run() {
+    if (!isMongos()) {
+      log.info("Not connected to a mongos, leaving {} unsharded", db.getName());
+      return;
+    }
+
+    MongoDatabase admin = client.getDatabase("admin");
+    admin.runCommand(new Document("enableSharding", db.getName()));
+
+    for (Map.Entry<String, ShardedCollection> e : collections.entrySet()) {
+      String ns = db.getName() + "." + e.getKey();
+      ShardedCollection c = e.getValue();
+
+      Document existing = client.getDatabase("config").getCollection("collections").find(eq("_id", ns)).first();
+      if (existing != null && existing.get("key") != null) {
+        log.info("{} already sharded on {}", ns, existing.get("key", Document.class).toJson());
+        continue;
+      }
+
+      db.getCollection(e.getKey()).createIndexes(c.supportingIndexes);
+      admin.runCommand(new Document("shardCollection", ns).append("key", c.key));
+      log.info("Sharded {} on {}", ns, c.key.toJson());
+    }
+  }
+
+  public int shardCount() {
+    Document shards = client.getDatabase("admin").runCommand(new Document("listShards", 1));
+    return shards.getList("shards", Document.class, new ArrayList<>()).size();
+  }
+
+  // Queries carrying the shard key must not fan out; a SHARD_MERGE here means a key or query regressed.
+  public Map<String, String> verifyTargeting() {
+    Map<String, String> plans = new LinkedHashMap<>();
+    for (Map.Entry<String, ShardedCollection> e : collections.entrySet()) {
+      Document explain = db.getCollection(e.getKey()).find(e.getValue().targetedQuery).explain(ExplainVerbosity.QUERY_PLANNER);
+      Document planner = explain.get("queryPlanner", Document.class);
+      String summary = IndexBootstrap.planSummary(planner != null ? planner.get("winningPlan") : null);
+      plans.put(e.getKey(), summary);
+
+      if (summary.startsWith("SHARD_MERGE")) log.warn("Shard-key query on {} is broadcast: {}", e.getKey(), summary);
+      else log.info("Shard-key query on {}: {}", e.getKey(), summary);
+    }
+    return plans;
+  }
+}
@@ -0,0 +1,218 @@
+package fr.dawan.formation.service;
+
+import fr.dawan.formation.model.Telemetry;
+import org.bson.types.ObjectId;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process telemetry history held as per-vehicle primitive columns (25 bytes per point),
+ * sorted by timestamp. Scans and downsampling go through a visitor, so no object is
+ * allocated per point.
+ */
+public class TelemetryColumnStore {
+  private static final int INITIAL_CAPACITY = 64;
+  // batteryPercent of a point that did not report one
+  public static final int NO_BATTERY = -1;
+
+  @FunctionalInterface
+  public interface PointVisitor {
+    void visit(double lat, double lon, long ts, int batteryPercent);
+  }
+
+  private final ConcurrentHashMap<ObjectId, Series> series = new ConcurrentHashMap<>();
+
+  public void append(ObjectId vehicleId, double lat, double lon, long ts, int batteryPercent) {
+    // inside the map's compute, so an eviction of the same vehicle cannot drop the series mid-append
+    series.compute(vehicleId, (k, s) -> {
+      Series target = s != null ? s : new Series();
+      target.append(lat, lon, ts, batteryPercent);
+      return target;
+    });
+  }
+
+  public void append(ObjectId vehicleId, Telemetry telemetry) {
+    Date ts = telemetry.getTs() != null ? telemetry.getTs() : new Date();
+    Integer battery = telemetry.getBatteryPercent();
+    append(vehicleId, telemetry.getLat(), telemetry.getLon(), ts.getTime(), battery != null ? battery : NO_BATTERY);
+  }
+
+  public int scan(ObjectId vehicleId, long from, long to, PointVisitor visitor) {
+    Series s = series.get(vehicleId);
+    return s == null ? 0 : s.scan(from, to, visitor);
+  }
+
+  public int downsample(ObjectId vehicleId, long from, long to, long bucketMillis, PointVisitor visitor) {
+    if (bucketMillis <= 0) throw new IllegalArgumentException("bucketMillis must be positive: " + bucketMillis);
+    Series s = series.get(vehicleId);
+    return s == null ? 0 : s.downsample(from, to, bucketMillis, visitor);
+  }
+
+  public double tripDistanceMeters(ObjectId vehicleId, long from, long to) {
+    Series s = series.get(vehicleId);
+    return s == null ? 0.0 : s.distance(from, to);
+  }
+
+  public int batteryDrain(ObjectId vehicleId, long from, long to) {
+    Series s = series.get(vehicleId);
+    return s == null ? 0 : s.drain(from, to);
+  }
+
+  public void evictBefore(long ts) {
+    // trimmed and removed per key, atomically with appends to that vehicle
+    for (ObjectId id : series.keySet()) {
+      series.computeIfPresent(id, (k, s) -> {
+        s.trimBefore(ts);
+        return s.isEmpty() ? null : s;
+      });
+    }
+  }
+
+  public Set<ObjectId> vehicles() {
+    return series.keySet();
+  }
+
+  public int size(ObjectId vehicleId) {
+    Series s = series.get(vehicleId);
+    return s == null ? 0 : s.size();
+  }
+
+  public long totalPoints() {
+    long total = 0;
+    for (Series s : series.values()) total += s.size();
+    return total;
+  }
+
+  public long estimatedBytes() {
+    long total = 0;
+    for (Series s : series.values()) total += s.capacityBytes();
+    return total;
+  }
+
+  static double haversineMeters(double lat1, double lon1, double lat2, double lon2) {
+    double dLat = Math.toRadians(lat2 - lat1);
+    double dLon = Math.toRadians(lon2 - lon1);
+    double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+      + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+    return 2 * GeoQueryService.EARTH_RADIUS_METERS * Math.asin(Math.min(1.0, Math.sqrt(a)));
+  }
+
+  private static final class Series {
+    private double[] lat = new double[INITIAL_CAPACITY];
+    private double[] lon = new double[INITIAL_CAPACITY];
+    private long[] ts = new long[INITIAL_CAPACITY];
+    private byte[] battery = new byte[INITIAL_CAPACITY];
+    private int size;
+
+    synchronized void append(double la, double lo, long t, int b) {
+      if (size == ts.length) grow();
+
+      int pos = size;
+      if (size > 0 && t < ts[size - 1]) {
+        // late fix: keep the columns sorted so range scans stay binary searches
+        pos = lowerBound(t);
+        int tail = size - pos;
+        System.arraycopy(lat, pos, lat, pos + 1, tail);
+        System.arraycopy(lon, pos, lon, pos + 1, tail);
+        System.arraycopy(ts, pos, ts, pos + 1, tail);
+        System.arraycopy(battery, pos, battery, pos + 1, tail);
+      }
+
+      lat[pos] = la;
+      lon[pos] = lo;
+      ts[pos] = t;
+      battery[pos] = b < 0 ? NO_BATTERY : (byte) Math.min(100, b);
+      size++;
+    }
+
+    private void grow() {
+      int capacity = ts.length + (ts.length >> 1);
+      lat = Arrays.copyOf(lat, capacity);
+      lon = Arrays.copyOf(lon, capacity);
+      ts = Arrays.copyOf(ts, capacity);
+      battery = Arrays.copyOf(battery, capacity);
+    }
+
+    private int lowerBound(long t) {
+      int lo = 0;
+      int hi = size;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (ts[mid] < t) lo = mid + 1;
+        else hi = mid;
+      }
+      return lo;
+    }
+
+    synchronized int scan(long from, long to, PointVisitor visitor) {
+      int start = lowerBound(from);
+      int i = start;
+      for (; i < size && ts[i] <= to; i++) visitor.visit(lat[i], lon[i], ts[i], battery[i]);
+      return i - start;
+    }
+
+    synchronized int downsample(long from, long to, long bucketMillis, PointVisitor visitor) {
+      int buckets = 0;
+      int i = lowerBound(from);
+      while (i < size && ts[i] <= to) {
+        long bucket = ts[i] - Math.floorMod(ts[i] - from, bucketMillis);
+        long end = bucket + bucketMillis;
+        double sumLat = 0;
+        double sumLon = 0;
+        long sumBattery = 0;
+        int n = 0;
+        int withBattery = 0;
+        for (; i < size && ts[i] < end && ts[i] <= to; i++, n++) {
+          sumLat += lat[i];
+          sumLon += lon[i];
+          if (battery[i] != NO_BATTERY) {
+            sumBattery += battery[i];
+            withBattery++;
+          }
+        }
+        int avgBattery = withBattery == 0 ? NO_BATTERY : (int) Math.round((double) sumBattery / withBattery);
+        visitor.visit(sumLat / n, sumLon / n, bucket, avgBattery);
+        buckets++;
+      }
+      return buckets;
+    }
+
+    synchronized double distance(long from, long to) {
+      double meters = 0;
+      int i = lowerBound(from);
+      for (int prev = -1; i < size && ts[i] <= to; prev = i, i++) {
+        if (prev >= 0) meters += haversineMeters(lat[prev], lon[prev], lat[i], lon[i]);
+      }
+      return meters;
+    }
+
+    synchronized int drain(long from, long to) {
+      int drained = 0;
+      int i = lowerBound(from);
+      for (int prev = -1; i < size && ts[i] <= to; i++) {
+        if (battery[i] == NO_BATTERY) continue;
+        if (prev >= 0 && battery[i] < battery[prev]) drained += battery[prev] - battery[i];
+        prev = i;
+      }
+      return drained;
+    }
+
+    synchronized void trimBefore(long t) {
+      int cut = lowerBound(t);
+      if (cut == 0) return;
+      int remaining = size - cut;
+      System.arraycopy(lat, cut, lat, 0, remaining);
+      System.arraycopy(lon, cut, lon, 0, remaining);
+      System.arraycopy(ts, cut, ts, 0, remaining);
+      System.arraycopy(battery, cut, battery, 0, remaining);
+      size = remaining;
+    }
+
+    synchronized boolean isEmpty() { return size == 0; }
+    synchronized int size() { return size; }
+    synchronized long capacityBytes() { return (long) ts.length * (8 + 8 + 8 + 1); }
+  }
+}
@@ -0,0 +1,178 @@
+package fr.dawan.formation.service;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import fr.dawan.formation.model.Telemetry;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lte;
+
+/**
+ * Keeps telemetry history as one document per vehicle and hour, holding parallel
+ * lat/lon/ts/battery arrays instead of one document per point.
+ */
+public class TelemetryHistoryService {
+  static final long BUCKET_MILLIS = 3_600_000L;
+
+  private MongoCollection<Document> buckets;
+
+  public TelemetryHistoryService(MongoDatabase db) {
+    this.buckets = db.getCollection("telemetry_buckets");
+  }
+
+  public void setProfiles(OperationProfiles profiles) {
+    this.buckets = buckets.withWriteConcern(profiles.telemetry());
+  }
+
+  public void ensureIndexes() {
+    buckets.createIndexes(indexes());
+  }
+
+  static List<IndexModel> indexes() {
+    return List.of(
+      new IndexModel(Indexes.ascending("vehicleId", "bucketStart"), new IndexOptions().unique(true)),
+      // fleet-wide window loads: range and sort on bucketStart alone
+      new IndexModel(Indexes.ascending("bucketStart"))
+    );
+  }
+
+  // Hashed on vehicleId so new vehicles (monotonic ObjectIds) spread across shards instead of piling into the last
+  // chunk; bucketStart still splits a busy vehicle's range. Same fields as the unique index, which keeps it enforceable.
+  public static Document shardKey() {
+    return new Document("vehicleId", "hashed").append("bucketStart", 1);
+  }
+
+  public void append(ObjectId vehicleId, Telemetry telemetry) {
+    Date ts = timestampOf(telemetry);
+    buckets.updateOne(bucketFilter(vehicleId, bucketStart(ts)), bucketUpdate(List.of(telemetry)), new UpdateOptions().upsert(true));
+  }
+
+  public void appendAll(Map<ObjectId, List<Telemetry>> points) {
+    List<WriteModel<Document>> models = new ArrayList<>();
+
+    for (Map.Entry<ObjectId, List<Telemetry>> e : points.entrySet()) {
+      Map<Date, List<Telemetry>> byBucket = new LinkedHashMap<>();
+      for (Telemetry t : e.getValue()) {
+        byBucket.computeIfAbsent(bucketStart(timestampOf(t)), k -> new ArrayList<>()).add(t);
+      }
+      for (Map.Entry<Date, List<Telemetry>> b : byBucket.entrySet()) {
+        models.add(new UpdateOneModel<>(bucketFilter(e.getKey(), b.getKey()), bucketUpdate(b.getValue()), new UpdateOptions().upsert(true)));
+      }
+    }
+
+    if (!models.isEmpty()) buckets.bulkWrite(models, new BulkWriteOptions().ordered(false));
+  }
+
+  public List<Telemetry> findRange(ObjectId vehicleId, Date from, Date to) {
+    List<Telemetry> out = new ArrayList<>();
+    forEachPoint(vehicleId, from, to, (lat, lon, ts, battery) ->
+      out.add(new Telemetry(lat, lon, new Date(ts), battery != TelemetryColumnStore.NO_BATTERY ? battery : null)));
+    out.sort(Comparator.comparing(Telemetry::getTs));
+
+    return out;
+  }
+
+  public int forEachPoint(ObjectId vehicleId, Date from, Date to, TelemetryColumnStore.PointVisitor visitor) {
+    Bson filter = and(
+      eq("vehicleId", vehicleId),
+      gte("bucketStart", bucketStart(from)),
+      lte("bucketStart", to)
+    );
+    return visitBuckets(filter, from, to, (id, lat, lon, ts, battery) -> visitor.visit(lat, lon, ts, battery));
+  }
+
+  public int loadInto(TelemetryColumnStore store, ObjectId vehicleId, Date from, Date to) {
+    return forEachPoint(vehicleId, from, to, (lat, lon, ts, battery) -> store.append(vehicleId, lat, lon, ts, battery));
+  }
+
+  public int loadInto(TelemetryColumnStore store, Date from, Date to) {
+    Bson filter = and(gte("bucketStart", bucketStart(from)), lte("bucketStart", to));
+    return visitBuckets(filter, from, to, store::append);
+  }
+
+  private interface BucketPointVisitor {
+    void visit(ObjectId vehicleId, double lat, double lon, long ts, int battery);
+  }
+
+  private int visitBuckets(Bson filter, Date from, Date to, BucketPointVisitor visitor) {
+    long fromMillis = from.getTime();
+    long toMillis = to.getTime();
+    int visited = 0;
+
+    for (Document bucket : buckets.find(filter).sort(new Document("bucketStart", 1))) {
+      ObjectId vehicleId = bucket.getObjectId("vehicleId");
+      List<Number> lat = bucket.getList("lat", Number.class);
+      List<Number> lon = bucket.getList("lon", Number.class);
+      List<Date> ts = bucket.getList("ts", Date.class);
+      List<Number> battery = bucket.getList("battery", Number.class);
+
+      for (int i = 0; i < ts.size(); i++) {
+        long t = ts.get(i).getTime();
+        if (t < fromMillis || t > toMillis) continue;
+        Number b = battery.get(i);
+        visitor.visit(vehicleId, lat.get(i).doubleValue(), lon.get(i).doubleValue(), t, b != null ? b.intValue() : TelemetryColumnStore.NO_BATTERY);
+        visited++;
+      }
+    }
+    return visited;
+  }
+
+  private static Bson bucketFilter(ObjectId vehicleId, Date bucketStart) {
+    return and(eq("vehicleId", vehicleId), eq("bucketStart", bucketStart));
+  }
+
+  private static Document bucketUpdate(List<Telemetry> points) {
+    List<Double> lat = new ArrayList<>(points.size());
+    List<Double> lon = new ArrayList<>(points.size());
+    List<Date> ts = new ArrayList<>(points.size());
+    List<Integer> battery = new ArrayList<>(points.size());
+    Date min = null;
+    Date max = null;
+
+    for (Telemetry t : points) {
+      Date d = timestampOf(t);
+      lat.add(t.getLat());
+      lon.add(t.getLon());
+      ts.add(d);
+      battery.add(t.getBatteryPercent());
+      if (min == null || d.before(min)) min = d;
+      if (max == null || d.after(max)) max = d;
+    }
+
+    return new Document("$push", new Document("lat", new Document("$each", lat))
+        .append("lon", new Document("$each", lon))
+        .append("ts", new Document("$each", ts))
+        .append("battery", new Document("$each", battery)))
+      .append("$inc", new Document("count", points.size()))
+      .append("$min", new Document("minTs", min))
+      .append("$max", new Document("maxTs", max));
+  }
+
+  static Date bucketStart(Date ts) {
+    long millis = ts.getTime();
+    return new Date(millis - Math.floorMod(millis, BUCKET_MILLIS));
+  }
+
+  private static Date timestampOf(Telemetry telemetry) {
+    return telemetry.getTs() != null ? telemetry.getTs() : new Date();
+  }
+}
@@ -0,0 +1,341 @@
+package fr.dawan.formation.service;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import fr.dawan.formation.metrics.ServiceMetrics;
+import fr.dawan.formation.model.Telemetry;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
+
+/**
+ * Buffers telemetry fixes per vehicle and writes only the newest one of each window
+ * with unordered bulk writes; every fix is still appended to the history buckets.
+ * Producers block once {@code maxPending} fixes are buffered.
+ */
+public class TelemetryIngestor implements AutoCloseable {
+  private static final Logger log = LoggerFactory.getLogger(TelemetryIngestor.class);
+
+  private final MongoCollection<Document> collection;
+  private volatile MongoCollection<Document> writes;
+  private final TelemetryHistoryService history;
+  private volatile FleetAggregates aggregates;
+  private volatile VehicleCache cache;
+  private volatile ServiceMetrics metrics = ServiceMetrics.NOOP;
+  private final int maxBatchSize;
+  private final long flushIntervalNanos;
+  private final int maxPending;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notFull = lock.newCondition();
+  private final Condition batchReady = lock.newCondition();
+  private Map<ObjectId, Telemetry> pending = new HashMap<>();
+  private Map<ObjectId, List<Telemetry>> pendingHistory = new HashMap<>();
+  private int bufferedPoints;
+  private boolean closed;
+
+  private final Thread flusher;
+
+  private final AtomicLong received = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong flushes = new AtomicLong();
+  private final AtomicLong totalFlushNanos = new AtomicLong();
+  private volatile long lastFlushNanos;
+
+  public TelemetryIngestor(MongoDatabase db) {
+    this(db, 500, 200, 10_000);
+  }
+
+  public TelemetryIngestor(MongoDatabase db, int maxBatchSize, long flushIntervalMillis, int maxPending) {
+    if (maxBatchSize <= 0 || flushIntervalMillis <= 0 || maxPending < maxBatchSize) {
+      throw new IllegalArgumentException("Invalid ingestor sizing: batch=" + maxBatchSize + ", interval=" + flushIntervalMillis + ", pending=" + maxPending);
+    }
+    this.collection = db.getCollection("vehicles");
+    this.writes = collection;
+    this.history = new TelemetryHistoryService(db);
+    this.maxBatchSize = maxBatchSize;
+    this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+    this.maxPending = maxPending;
+
+    this.flusher = new Thread(this::runFlusher, "telemetry-ingestor");
+    this.flusher.setDaemon(true);
+    this.flusher.start();
+  }
+
+  public void setAggregates(FleetAggregates aggregates) {
+    this.aggregates = aggregates;
+  }
+
+  public void setProfiles(OperationProfiles profiles) {
+    this.writes = collection.withWriteConcern(profiles.telemetry());
+    history.setProfiles(profiles);
+  }
+
+  public void setCache(VehicleCache cache) {
+    this.cache = cache;
+  }
+
+  // Flushes are timed as fleet.service.calls{service=telemetryIngestor, method=flush}.
+  public void setMetrics(ServiceMetrics metrics) {
+    this.metrics = metrics;
+    metrics.gauge("fleet.telemetry.ingest.queue", "Fixes buffered and not yet flushed", this, TelemetryIngestor::getQueueDepth);
+    metrics.gauge("fleet.telemetry.ingest.coalesce.ratio", "Share of received fixes superseded before their flush", this, TelemetryIngestor::getCoalesceRatio);
+  }
+
+  public void submit(ObjectId vehicleId, Telemetry telemetry) throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (!closed && bufferedPoints >= maxPending) notFull.await();
+      enqueue(vehicleId, telemetry);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public boolean offer(ObjectId vehicleId, Telemetry telemetry, long timeout, TimeUnit unit) throws InterruptedException {
+    long remaining = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      while (!closed && bufferedPoints >= maxPending) {
+        if (remaining <= 0) return false;
+        remaining = notFull.awaitNanos(remaining);
+      }
+      enqueue(vehicleId, telemetry);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void enqueue(ObjectId vehicleId, Telemetry telemetry) {
+    if (closed) throw new IllegalStateException("Ingestor is closed");
+    received.incrementAndGet();
+    pendingHistory.computeIfAbsent(vehicleId, k -> new ArrayList<>(4)).add(telemetry);
+    bufferedPoints++;
+
+    Telemetry current = pending.get(vehicleId);
+    if (current != null) {
+      coalesced.incrementAndGet();
+      if (isNewer(current, telemetry)) return;
+    }
+    pending.put(vehicleId, telemetry);
+
+    if (pending.size() >= maxBatchSize || bufferedPoints >= maxPending) batchReady.signal();
+  }
+
+  private static boolean isNewer(Telemetry current, Telemetry candidate) {
+    if (current.getTs() == null || candidate.getTs() == null) return false;
+    return current.getTs().after(candidate.getTs());
+  }
+
+  // Anything escaping here would strand producers in notFull.await(), so failures are logged per batch
+  // and, should the thread still die, the ingestor closes and releases them.
+  private void runFlusher() {
+    try {
+      flushLoop();
+    } finally {
+      lock.lock();
+      try {
+        if (!closed) log.error("Telemetry flusher stopped; ingestor closed with {} fixes unwritten", bufferedPoints);
+        closed = true;
+        notFull.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  private void flushLoop() {
+    while (true) {
+      Map<ObjectId, Telemetry> batch;
+      Map<ObjectId, List<Telemetry>> historyBatch;
+      lock.lock();
+      try {
+        long remaining = flushIntervalNanos;
+        while (!closed && pending.size() < maxBatchSize && bufferedPoints < maxPending && remaining > 0) {
+          remaining = batchReady.awaitNanos(remaining);
+        }
+        if (pending.isEmpty()) {
+          if (closed) return;
+          continue;
+        }
+        batch = pending;
+        historyBatch = pendingHistory;
+        pending = new HashMap<>();
+        pendingHistory = new HashMap<>();
+        bufferedPoints = 0;
+        notFull.signalAll();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } finally {
+        lock.unlock();
+      }
+      ServiceMetrics m = metrics;
+      long start = m.start();
+      boolean ok = false;
+      try {
+        write(batch, historyBatch);
+        ok = true;
+      } catch (RuntimeException e) {
+        failed.addAndGet(batch.size());
+        log.error("Telemetry flush failed for {} vehicles", batch.size(), e);
+      } finally {
+        m.record("telemetryIngestor", "flush", start, ok);
+      }
+    }
+  }
+
+  private void write(Map<ObjectId, Telemetry> batch, Map<ObjectId, List<Telemetry>> historyBatch) {
+    long start = System.nanoTime();
+    Date now = new Date();
+
+    FleetAggregates stats = aggregates;
+    Map<ObjectId, Document> before = stats != null ? previousBattery(batch.keySet()) : null;
+
+    Set<ObjectId> failedIds = new HashSet<>();
+    List<ObjectId> ids = new ArrayList<>(Math.min(batch.size(), maxBatchSize));
+    List<WriteModel<Document>> models = new ArrayList<>(Math.min(batch.size(), maxBatchSize));
+    for (Map.Entry<ObjectId, Telemetry> e : batch.entrySet()) {
+      ids.add(e.getKey());
+      models.add(new UpdateOneModel<>(eq("_id", e.getKey()), VehicleService.telemetryUpdate(e.getValue(), now)));
+      if (models.size() == maxBatchSize) {
+        bulkWrite(ids, models, failedIds);
+        ids = new ArrayList<>(maxBatchSize);
+        models = new ArrayList<>(maxBatchSize);
+      }
+    }
+    if (!models.isEmpty()) bulkWrite(ids, models, failedIds);
+
+    // Only fixes that reached the database are applied to the cache and the aggregates.
+    Map<ObjectId, Telemetry> applied = batch;
+    if (!failedIds.isEmpty()) {
+      applied = new HashMap<>(batch);
+      applied.keySet().removeAll(failedIds);
+    }
+
+    VehicleCache vehicleCache = cache;
+    if (vehicleCache != null) {
+      for (Map.Entry<ObjectId, Telemetry> e : applied.entrySet()) vehicleCache.updateTelemetry(e.getKey(), e.getValue(), now);
+      for (ObjectId id : failedIds) vehicleCache.invalidate(id);
+    }
+
+    if (stats != null && !applied.isEmpty()) {
+      try {
+        stats.onBatteryChanged(before, applied);
+      } catch (RuntimeException e) {
+        log.error("Fleet aggregate update failed; drift will be fixed by reconciliation", e);
+      }
+    }
+
+    try {
+      history.appendAll(historyBatch);
+    } catch (RuntimeException e) {
+      log.error("Telemetry history append failed for {} vehicles", historyBatch.size(), e);
+    }
+
+    long elapsed = System.nanoTime() - start;
+    lastFlushNanos = elapsed;
+    totalFlushNanos.addAndGet(elapsed);
+    flushes.incrementAndGet();
+  }
+
+  private Map<ObjectId, Document> previousBattery(Set<ObjectId> ids) {
+    Map<ObjectId, Document> out = new HashMap<>(ids.size() * 2);
+    try {
+      for (Document d : collection.find(in("_id", ids)).projection(FleetAggregates.batteryProjection())) {
+        out.put(d.getObjectId("_id"), d);
+      }
+    } catch (MongoException e) {
+      log.warn("Could not read previous battery levels for {} vehicles", ids.size(), e);
+    }
+    return out;
+  }
+
+  // ids.get(i) is the vehicle of models.get(i); vehicles whose update did not land are added to failedIds.
+  private void bulkWrite(List<ObjectId> ids, List<WriteModel<Document>> models, Set<ObjectId> failedIds) {
+    try {
+      writes.bulkWrite(models, new BulkWriteOptions().ordered(false));
+      written.addAndGet(models.size());
+    } catch (MongoBulkWriteException e) {
+      int errors = e.getWriteErrors().size();
+      for (BulkWriteError error : e.getWriteErrors()) failedIds.add(ids.get(error.getIndex()));
+      written.addAndGet(models.size() - errors);
+      failed.addAndGet(errors);
+      log.warn("Telemetry bulk write had {} errors out of {}", errors, models.size(), e);
+    } catch (RuntimeException e) {
+      failedIds.addAll(ids);
+      failed.addAndGet(models.size());
+      log.error("Telemetry bulk write failed for {} vehicles", models.size(), e);
+    }
+  }
+
+  // Flushes what is buffered and waits for the flusher; an interrupt stops the wait but keeps the flag set.
+  @Override
+  public void close() {
+    lock.lock();
+    try {
+      closed = true;
+      batchReady.signal();
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    try {
+      flusher.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public int getQueueDepth() {
+    lock.lock();
+    try {
+      return bufferedPoints;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long getReceivedCount() { return received.get(); }
+  public long getCoalescedCount() { return coalesced.get(); }
+  public long getWrittenCount() { return written.get(); }
+  public long getFailedCount() { return failed.get(); }
+  public long getFlushCount() { return flushes.get(); }
+
+  public double getLastFlushMillis() { return lastFlushNanos / 1_000_000.0; }
+
+  public double getAverageFlushMillis() {
+    long n = flushes.get();
+    return n == 0 ? 0.0 : totalFlushNanos.get() / 1_000_000.0 / n;
+  }
+
+  public double getCoalesceRatio() {
+    long n = received.get();
+    return n == 0 ? 0.0 : (double) coalesced.get() / n;
+  }
+}
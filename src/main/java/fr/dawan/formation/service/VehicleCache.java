@@ -0,0 +1,147 @@
+package fr.dawan.formation.service;
+
+import fr.dawan.formation.model.Telemetry;
+import fr.dawan.formation.model.Vehicle;
+import org.bson.types.ObjectId;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Bounded LRU cache of hot vehicle state with a time-to-live per entry. Cached vehicles are
+ * never mutated once handed out: telemetry updates replace the entry with a copy.
+ */
+public class VehicleCache {
+  private final int maxSize;
+  private final long ttlNanos;
+  private final LinkedHashMap<ObjectId, Entry> entries;
+  // loads in flight, by the token of the latest one; any write to the id cancels them
+  private final Map<ObjectId, Long> loading = new HashMap<>();
+  private long loadTokens;
+
+  private long hits;
+  private long misses;
+  private long evictions;
+  private long expirations;
+
+  public VehicleCache(int maxSize, Duration ttl) {
+    if (maxSize <= 0 || ttl.isNegative() || ttl.isZero()) throw new IllegalArgumentException("Invalid cache sizing: size=" + maxSize + ", ttl=" + ttl);
+    this.maxSize = maxSize;
+    this.ttlNanos = ttl.toNanos();
+    this.entries = new LinkedHashMap<>(Math.min(maxSize, 1 << 16), 0.75f, true);
+  }
+
+  private static final class Entry {
+    final Vehicle vehicle;
+    final long loadedAt;
+
+    Entry(Vehicle vehicle, long loadedAt) {
+      this.vehicle = vehicle;
+      this.loadedAt = loadedAt;
+    }
+  }
+
+  public synchronized Vehicle get(ObjectId id) {
+    Entry e = entries.get(id);
+    if (e == null) {
+      misses++;
+      return null;
+    }
+    if (System.nanoTime() - e.loadedAt > ttlNanos) {
+      entries.remove(id);
+      expirations++;
+      misses++;
+      return null;
+    }
+    hits++;
+    return e.vehicle;
+  }
+
+  // The loader runs outside the lock; its result is only cached if no write to the id happened meanwhile.
+  public Vehicle get(ObjectId id, Function<ObjectId, Vehicle> loader) {
+    long token;
+    synchronized (this) {
+      Vehicle cached = get(id);
+      if (cached != null) return cached;
+      token = ++loadTokens;
+      loading.put(id, token);
+    }
+
+    Vehicle loaded = loader.apply(id);
+    synchronized (this) {
+      boolean current = loading.remove(id, token);
+      if (loaded != null && current) store(loaded);
+    }
+    return loaded;
+  }
+
+  public synchronized void put(Vehicle vehicle) {
+    if (vehicle.getId() == null) return;
+    loading.remove(vehicle.getId());
+    store(vehicle);
+  }
+
+  private void store(Vehicle vehicle) {
+    entries.put(vehicle.getId(), new Entry(vehicle, System.nanoTime()));
+
+    if (entries.size() > maxSize) {
+      Iterator<Map.Entry<ObjectId, Entry>> eldest = entries.entrySet().iterator();
+      eldest.next();
+      eldest.remove();
+      evictions++;
+    }
+  }
+
+  public synchronized void updateTelemetry(ObjectId id, Telemetry telemetry, Date updatedAt) {
+    loading.remove(id);
+    Entry e = entries.get(id);
+    if (e == null) return;
+    entries.put(id, new Entry(copyOf(e.vehicle, telemetry, updatedAt), e.loadedAt));
+  }
+
+  public synchronized void invalidate(ObjectId id) {
+    loading.remove(id);
+    entries.remove(id);
+  }
+
+  // Shallow: incidents and specs are shared with the previous copy, and neither is modified here.
+  private static Vehicle copyOf(Vehicle v, Telemetry telemetry, Date updatedAt) {
+    Vehicle copy = new Vehicle();
+    copy.setId(v.getId());
+    copy.setBrand(v.getBrand());
+    copy.setModel(v.getModel());
+    copy.setRegistration(v.getRegistration());
+    copy.setOwnerId(v.getOwnerId());
+    copy.setStatus(v.getStatus());
+    // a fix without a battery keeps the last known level, as the Mongo update does; the caller's object is not kept
+    Integer battery = telemetry.getBatteryPercent();
+    if (battery == null && v.getTelemetry() != null) battery = v.getTelemetry().getBatteryPercent();
+    copy.setTelemetry(new Telemetry(telemetry.getLat(), telemetry.getLon(), telemetry.getTs(), battery));
+    copy.setIncidents(v.getIncidents());
+    copy.setSpecs(v.getSpecs());
+    copy.setCreatedAt(v.getCreatedAt());
+    copy.setUpdatedAt(updatedAt);
+    return copy;
+  }
+
+  public synchronized void clear() {
+    loading.clear();
+    entries.clear();
+  }
+
+  public synchronized int size() { return entries.size(); }
+  public synchronized long getHitCount() { return hits; }
+  public synchronized long getMissCount() { return misses; }
+  public synchronized long getEvictionCount() { return evictions; }
+  public synchronized long getExpirationCount() { return expirations; }
+
+  public synchronized double getHitRatio() {
+    long total = hits + misses;
+    return total == 0 ? 0.0 : (double) hits / total;
+  }
+}
@@ -2,10 +2,19 @@ package fr.dawan.formation.service;
 
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReturnDocument;
+import fr.dawan.formation.codec.FleetCodecs;
+import fr.dawan.formation.codec.VehicleCodec;
+import fr.dawan.formation.metrics.ServiceMetrics;
 import fr.dawan.formation.model.Incident;
+import fr.dawan.formation.model.IncidentSummary;
 import fr.dawan.formation.model.Telemetry;
 import fr.dawan.formation.model.Vehicle;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 
 import java.util.ArrayList;
@@ -13,68 +22,268 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.lt;
 
 public class VehicleService {
     private final MongoCollection<Document> collection;
+    private final MongoCollection<Vehicle> vehicles;
+    private MongoCollection<Document> telemetryWrites;
+    private MongoCollection<Document> incidentWrites;
+    private final TelemetryHistoryService history;
+    private FleetAggregates aggregates;
+    private VehicleCache cache;
+    private IncidentStore incidents;
+    private TelemetryIngestor ingestor;
+    private ServiceMetrics metrics = ServiceMetrics.NOOP;
 
     public VehicleService(MongoDatabase db) {
       this.collection = db.getCollection("vehicles");
+      this.vehicles = collection.withDocumentClass(Vehicle.class).withCodecRegistry(FleetCodecs.REGISTRY);
+      this.history = new TelemetryHistoryService(db);
+      this.telemetryWrites = collection;
+      this.incidentWrites = collection;
     }
 
-    public void registerVehicle(Vehicle vehicle) {
-      if (vehicle.getId() == null) vehicle.setId(new ObjectId());
+    public void setProfiles(OperationProfiles profiles) {
+      this.telemetryWrites = collection.withWriteConcern(profiles.telemetry());
+      this.incidentWrites = collection.withWriteConcern(profiles.incidents());
+      history.setProfiles(profiles);
+    }
+
+    public void setAggregates(FleetAggregates aggregates) {
+      this.aggregates = aggregates;
+    }
+
+    public void setCache(VehicleCache cache) {
+      this.cache = cache;
+    }
+
+    // Without a store every incident stays embedded.
+    public void setIncidentStore(IncidentStore incidents) {
+      this.incidents = incidents;
+    }
+
+    public void setMetrics(ServiceMetrics metrics) {
+      this.metrics = metrics;
+    }
 
-      Date now = new Date();
-      if (vehicle.getCreatedAt() == null) vehicle.setCreatedAt(now);
-      vehicle.setUpdatedAt(now);
+    // With an ingestor, telemetry updates are buffered and coalesced instead of written one by one.
+    public void setIngestor(TelemetryIngestor ingestor) {
+      this.ingestor = ingestor;
+    }
 
-      Document document = toDocument(vehicle);
+    public Vehicle findById(ObjectId vehicleId) {
+      long start = metrics.start();
+      boolean ok = false;
+      try {
+        Vehicle vehicle = cache != null ? cache.get(vehicleId, this::loadById) : loadById(vehicleId);
+        ok = true;
+        return vehicle;
+      } finally {
+        metrics.record("vehicles", "findById", start, ok);
+      }
+    }
 
-      collection.insertOne(document);
+    private Vehicle loadById(ObjectId vehicleId) {
+      return vehicles.find(eq("_id", vehicleId)).first();
+    }
+
+    public void registerVehicle(Vehicle vehicle) {
+      long start = metrics.start();
+      boolean ok = false;
+      try {
+        if (vehicle.getId() == null) vehicle.setId(new ObjectId());
+
+        Date now = new Date();
+        if (vehicle.getCreatedAt() == null) vehicle.setCreatedAt(now);
+        vehicle.setUpdatedAt(now);
+
+        List<Incident> history = vehicle.getIncidents();
+        if (history != null) {
+          for (int i = 0; i < history.size(); i++) if (history.get(i).getSeq() == null) history.get(i).setSeq(i);
+          if (incidents != null && history.size() > incidents.getMaxEmbedded()) {
+            vehicle.setIncidents(new ArrayList<>(history.subList(history.size() - incidents.getMaxEmbedded(), history.size())));
+          }
+        }
+
+        // the full history lands before the vehicle only embeds its tail
+        if (incidents != null && history != null) incidents.recordAll(vehicle.getId(), history);
+        vehicles.insertOne(vehicle);
+
+        if (cache != null) cache.invalidate(vehicle.getId());
+        if (aggregates != null) aggregates.onVehicleRegistered(vehicle);
+        ok = true;
+      } finally {
+        metrics.record("vehicles", "registerVehicle", start, ok);
+      }
     }
 
     public void updateTelemetry(ObjectId vehicleId, Telemetry telemetry) {
+      long start = metrics.start();
+      boolean ok = false;
+      try {
+        if (ingestor != null) {
+          submit(vehicleId, telemetry);
+          ok = true;
+          return;
+        }
+
+        Date now = new Date();
+        Document update = telemetryUpdate(telemetry, now);
+
+        if (aggregates == null) {
+          telemetryWrites.updateOne(eq("_id", vehicleId), update);
+        } else {
+          FindOneAndUpdateOptions options = new FindOneAndUpdateOptions()
+            .projection(FleetAggregates.batteryProjection())
+            .returnDocument(ReturnDocument.BEFORE);
+          // findAndModify has to return the previous battery, so it stays acknowledged even under w:0
+          MongoCollection<Document> target = telemetryWrites.getWriteConcern().isAcknowledged() ? telemetryWrites : collection;
+          Document before = target.findOneAndUpdate(eq("_id", vehicleId), update, options);
+          if (before != null) aggregates.onBatteryChanged(before, telemetry.getBatteryPercent());
+        }
+
+        if (cache != null) cache.updateTelemetry(vehicleId, telemetry, now);
+        history.append(vehicleId, telemetry);
+        ok = true;
+      } finally {
+        metrics.record("vehicles", "updateTelemetry", start, ok);
+      }
+    }
+
+    // Blocks while the ingestor's buffer is full. A copy is buffered, so the caller may reuse its object.
+    private void submit(ObjectId vehicleId, Telemetry telemetry) {
+      try {
+        ingestor.submit(vehicleId, new Telemetry(telemetry.getLat(), telemetry.getLon(), telemetry.getTs(), telemetry.getBatteryPercent()));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while buffering telemetry for " + vehicleId, e);
+      }
+    }
+
+    public <T> T findById(ObjectId vehicleId, VehicleView<T> view) {
+      Document d = collection.find(eq("_id", vehicleId)).projection(view.projection()).first();
+      return d != null ? view.map(d) : null;
+    }
+
+    public <T> List<T> find(Bson filter, VehicleView<T> view, int limit) {
+      if (limit <= 0) throw new IllegalArgumentException("limit must be positive: " + limit);
+      List<T> out = new ArrayList<>();
+      for (Document d : collection.find(filter).projection(view.projection()).limit(limit)) out.add(view.map(d));
+      return out;
+    }
+
+    // skip/limit address the whole history; pages older than the embedded tail come from the incidents collection.
+    public IncidentSummary findIncidents(ObjectId vehicleId, int skip, int limit) {
+      if (incidents == null || (skip < 0 && -skip <= incidents.getMaxEmbedded())) return findById(vehicleId, VehicleView.incidents(skip, limit));
+
+      IncidentSummary summary = findById(vehicleId, VehicleView.incidents(0, 1));
+      if (summary == null) return null;
+      // a vehicle not migrated yet still embeds its whole history, unnumbered, so the slice is the page
+      if (!summary.getIncidents().isEmpty() && summary.getIncidents().get(0).getSeq() == null) {
+        return findById(vehicleId, VehicleView.incidents(skip, limit));
+      }
+      int from = skip >= 0 ? skip : Math.max(0, summary.getIncidentCount() + skip);
+      int to = skip >= 0 ? from + limit : Math.min(summary.getIncidentCount() + skip + limit, summary.getIncidentCount());
+      summary.setIncidents(to > from ? incidents.find(vehicleId, from, to - from) : new ArrayList<>());
+      return summary;
+    }
+
+    public List<Telemetry> findTelemetryHistory(ObjectId vehicleId, Date from, Date to) {
+      return history.findRange(vehicleId, from, to);
+    }
+
+    static Bson lowBatteryAndManyIncidentsFilter() {
+      return and(lt("telemetry.batteryPercent", 20), gt("incidentCount", 2));
+    }
+
+    static List<IndexModel> indexes() {
+      return List.of(
+        new IndexModel(Indexes.ascending("telemetry.batteryPercent", "incidentCount")),
+        // status equality plus the _id seek and sort of keyset pages
+        new IndexModel(Indexes.ascending("status", "_id"))
+      );
+    }
+
+    // Hashed _id: ObjectIds are monotonic, a range key would send every new vehicle to the last chunk.
+    public static Document shardKey() {
+      return new Document("_id", "hashed");
+    }
+
+    static Document telemetryUpdate(Telemetry telemetry, Date updatedAt) {
       Document lastPos = new Document("lat", telemetry.getLat()).append("lon", telemetry.getLon()).append("ts", telemetry.getTs());
 
       Document set = new Document()
         .append("telemetry.lastPosition", lastPos)
-        .append("telemetry.batteryPercent", telemetry.getBatteryPercent())
-        .append("updatedAt", new Date());
+        .append("telemetry.location", geoPoint(telemetry));
+      // a fix without a battery reading keeps the last known level
+      if (telemetry.getBatteryPercent() != null) set.append("telemetry.batteryPercent", telemetry.getBatteryPercent());
+      set.append("updatedAt", updatedAt);
 
-      collection.updateOne(eq("_id", vehicleId), new Document("$set", set));
+      return new Document("$set", set);
     }
 
     public void reportIncident(ObjectId vehicleId, Incident incident) {
-      Document inc = new Document("date", incident.getDate())
-        .append("type", incident.getType())
-        .append("description", incident.getDescription());
-
-      Document update = new Document("$push", new Document("incidents", inc))
-        .append("$set", new Document("updatedAt", new Date()));
+      long start = metrics.start();
+      boolean ok = false;
+      try {
+        Document projection = new Document("incidentCount", 1);
+        if (incidents != null) projection.append("incidents", 1);
+        Document after = incidentWrites.findOneAndUpdate(eq("_id", vehicleId), incidentPush(incident, new Date()),
+          new FindOneAndUpdateOptions().projection(projection).returnDocument(ReturnDocument.AFTER));
+
+        if (after != null) {
+          incident.setSeq(((Number) after.get("incidentCount")).intValue() - 1);
+          if (incidents != null) incident.setSeq(incidents.recordAndTrim(incidentWrites, vehicleId, after));
+        }
 
-      collection.updateOne(eq("_id", vehicleId), update);
+        if (cache != null) cache.invalidate(vehicleId);
+        ok = true;
+      } finally {
+        metrics.record("vehicles", "reportIncident", start, ok);
+      }
     }
 
     public List<Vehicle> findLowBatteryAndManyIncidents() {
-      Document batteryCond = new Document("telemetry.batteryPercent", new Document("$lt", 20));
-      Document sizeExpr = new Document("$gt", Arrays.asList(
-        new Document("$size", new Document("$ifNull", Arrays.asList("$incidents", new ArrayList<>()))),
-        2
-      ));
-      Document expr = new Document("$expr", sizeExpr);
-      Document filter = new Document("$and", Arrays.asList(batteryCond, expr));
-
       List<Vehicle> result = new ArrayList<>();
 
-      for (Document document : collection.find(filter)) {
-          result.add(fromDocument(document));
+      for (Vehicle vehicle : vehicles.find(lowBatteryAndManyIncidentsFilter())) {
+          if (cache != null) cache.put(vehicle);
+          result.add(vehicle);
       }
 
       return result;
     }
 
-    private Document toDocument(Vehicle vehicle) {
+    /**
+     * Appends the incident with the next seq. A pipeline update rather than $push, because the
+     * pushed element needs the counter it increments; values are wrapped in $literal so user
+     * text starting with '$' is not read as a field path. Trimming is left to
+     * {@link IncidentStore#recordAndTrim}, once the incidents it drops are recorded.
+     */
+    static List<Document> incidentPush(Incident incident, Date updatedAt) {
+      Document seq = new Document("$ifNull", Arrays.asList("$incidentCount", 0));
+      Document inc = new Document("seq", seq)
+        .append("date", new Document("$literal", incident.getDate()))
+        .append("type", new Document("$literal", incident.getType()))
+        .append("description", new Document("$literal", incident.getDescription()));
+      if (incident.getEvidenceId() != null) inc.append("evidenceId", new Document("$literal", incident.getEvidenceId()));
+
+      Object appended = new Document("$concatArrays", Arrays.asList(new Document("$ifNull", Arrays.asList("$incidents", List.of())), List.of(inc)));
+
+      return List.of(new Document("$set", new Document("incidents", appended)
+        .append("incidentCount", new Document("$add", Arrays.asList(seq, 1)))
+        .append("updatedAt", new Document("$literal", updatedAt))));
+    }
+
+    static Document geoPoint(Telemetry telemetry) {
+      return new Document("type", "Point").append("coordinates", Arrays.asList(telemetry.getLon(), telemetry.getLat()));
+    }
+
+    static Document toDocument(Vehicle vehicle) {
       Document document = new Document();
       if (vehicle.getId() != null) document.append("_id", vehicle.getId());
 
@@ -82,25 +291,24 @@ public class VehicleService {
         .append("model", vehicle.getModel())
         .append("registration", vehicle.getRegistration())
         .append("ownerId", vehicle.getOwnerId());
+      if (vehicle.getStatus() != null) document.append("status", vehicle.getStatus());
 
-      if (vehicle.getTelemetry() != null) {
-        Document tel = new Document("lastPosition",
-          new Document("lat", vehicle.getTelemetry().getLat()).append("lon", vehicle.getTelemetry().getLon()).append("ts", vehicle.getTelemetry().getTs()))
-          .append("batteryPercent", vehicle.getTelemetry().getBatteryPercent());
-        document.append("telemetry", tel);
-      }
+      if (vehicle.getTelemetry() != null) document.append("telemetry", telemetryDocument(vehicle.getTelemetry()));
 
       if (vehicle.getIncidents() != null) {
         List<Document> list = new ArrayList<>();
 
         for (Incident inc : vehicle.getIncidents()) {
-          Document idoc = new Document("date", inc.getDate()).append("type", inc.getType()).append("description", inc.getDescription());
+          Document idoc = new Document();
+          if (inc.getSeq() != null) idoc.append("seq", inc.getSeq());
+          idoc.append("date", inc.getDate()).append("type", inc.getType()).append("description", inc.getDescription());
           if (inc.getEvidenceId() != null) idoc.append("evidenceId", inc.getEvidenceId());
           list.add(idoc);
         }
 
         document.append("incidents", list);
       }
+      document.append("incidentCount", VehicleCodec.incidentCount(vehicle.getIncidents()));
 
       if (vehicle.getSpecs() != null) document.append("specs", new Document(vehicle.getSpecs()));
 
@@ -109,44 +317,23 @@ public class VehicleService {
       return document;
     }
 
-    private Vehicle fromDocument(Document document) {
+    static Vehicle fromDocument(Document document) {
       Vehicle vehicle = new Vehicle();
       vehicle.setId(document.getObjectId("_id"));
       vehicle.setBrand(document.getString("brand"));
       vehicle.setModel(document.getString("model"));
       vehicle.setRegistration(document.getString("registration"));
       vehicle.setOwnerId(document.getObjectId("ownerId"));
+      vehicle.setStatus(document.getString("status"));
 
       Document telemetry = document.get("telemetry", Document.class);
-      if (telemetry != null) {
-        Document lp = telemetry.get("lastPosition", Document.class);
-        Telemetry t = new Telemetry();
-
-        if (lp != null) {
-          Number lat = (Number) lp.get("lat");
-          Number lon = (Number) lp.get("lon");
-          t.setLat(lat != null ? lat.doubleValue() : 0.0);
-          t.setLon(lon != null ? lon.doubleValue() : 0.0);
-          t.setTs(lp.getDate("ts"));
-        }
-
-        Number bp = (Number) telemetry.get("batteryPercent");
-
-        if (bp != null) t.setBatteryPercent(bp.intValue());
-        
-        vehicle.setTelemetry(t);
-      }
+      if (telemetry != null) vehicle.setTelemetry(telemetryFromDocument(telemetry));
 
       List<Document> incs = document.getList("incidents", Document.class);
       if (incs != null) {
           List<Incident> list = new ArrayList<>();
           
-            for (Document idoc : incs) {
-              Object idEvidence = idoc.get("evidenceId");
-              ObjectId evidenceId = null;
-              if (idEvidence instanceof ObjectId) evidenceId = (ObjectId) idEvidence;
-              list.add(new Incident(idoc.getDate("date"), idoc.getString("type"), idoc.getString("description"), evidenceId));
-            }
+            for (Document idoc : incs) list.add(incidentFromDocument(idoc));
 
           vehicle.setIncidents(list);
       }
@@ -160,4 +347,42 @@ public class VehicleService {
       
       return vehicle;
     }
+
+    // The telemetry sub-document as TelemetryCodec lays it out; Spring Data's converters use it too.
+    public static Document telemetryDocument(Telemetry telemetry) {
+      Document d = new Document("lastPosition",
+        new Document("lat", telemetry.getLat()).append("lon", telemetry.getLon()).append("ts", telemetry.getTs()))
+        .append("location", geoPoint(telemetry));
+      if (telemetry.getBatteryPercent() != null) d.append("batteryPercent", telemetry.getBatteryPercent());
+      return d;
+    }
+
+    public static Telemetry telemetryFromDocument(Document telemetry) {
+      Document lp = telemetry.get("lastPosition", Document.class);
+      Telemetry t = new Telemetry();
+
+      if (lp != null) {
+        Number lat = (Number) lp.get("lat");
+        Number lon = (Number) lp.get("lon");
+        t.setLat(lat != null ? lat.doubleValue() : 0.0);
+        t.setLon(lon != null ? lon.doubleValue() : 0.0);
+        t.setTs(lp.getDate("ts"));
+      }
+
+      Number bp = (Number) telemetry.get("batteryPercent");
+
+      if (bp != null) t.setBatteryPercent(bp.intValue());
+
+      return t;
+    }
+
+    static Incident incidentFromDocument(Document idoc) {
+      Object idEvidence = idoc.get("evidenceId");
+      ObjectId evidenceId = null;
+      if (idEvidence instanceof ObjectId) evidenceId = (ObjectId) idEvidence;
+      Incident incident = new Incident(idoc.getDate("date"), idoc.getString("type"), idoc.getString("description"), evidenceId);
+      Object seq = idoc.get("seq");
+      if (seq instanceof Number) incident.setSeq(((Number) seq).intValue());
+      return incident;
+    }
 }
@@ -0,0 +1,108 @@
+package fr.dawan.formation.service;
+
+import fr.dawan.formation.model.Incident;
+import fr.dawan.formation.model.IncidentSummary;
+import fr.dawan.formation.model.VehiclePosition;
+import fr.dawan.formation.model.VehicleStatus;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static com.mongodb.client.model.Projections.fields;
+import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Projections.slice;
+
+/**
+ * A slim read model over {@code vehicles}: the projection sent to the server and the mapping
+ * of the projected document. Only the projected fields cross the wire, and incidents are
+ * always bounded with {@code $slice}.
+ */
+public final class VehicleView<T> {
+  public static final VehicleView<VehiclePosition> POSITION = new VehicleView<>(
+    include("registration", "telemetry.lastPosition", "telemetry.batteryPercent"), VehicleView::toPosition);
+
+  public static final VehicleView<VehicleStatus> STATUS = new VehicleView<>(
+    include("registration", "brand", "model", "status", "telemetry.batteryPercent", "incidentCount", "updatedAt"), VehicleView::toStatus);
+
+  private final Bson projection;
+  private final Function<Document, T> mapper;
+
+  public VehicleView(Bson projection, Function<Document, T> mapper) {
+    this.projection = projection;
+    this.mapper = mapper;
+  }
+
+  public Bson projection() {
+    return projection;
+  }
+
+  public T map(Document document) {
+    return mapper.apply(document);
+  }
+
+  // Negative skip counts from the end, so incidents(-5, 5) are the five latest. Only covers what the vehicle still embeds.
+  public static VehicleView<IncidentSummary> incidents(int skip, int limit) {
+    if (limit <= 0) throw new IllegalArgumentException("limit must be positive: " + limit);
+    return new VehicleView<>(fields(include("registration", "incidentCount"), slice("incidents", skip, limit)), VehicleView::toIncidentSummary);
+  }
+
+  public static VehicleView<IncidentSummary> latestIncidents(int n) {
+    return incidents(-n, n);
+  }
+
+  static VehiclePosition toPosition(Document d) {
+    Document telemetry = d.get("telemetry", Document.class);
+    Document lp = telemetry != null ? telemetry.get("lastPosition", Document.class) : null;
+
+    VehiclePosition position = new VehiclePosition();
+    position.setId(d.getObjectId("_id"));
+    position.setRegistration(d.getString("registration"));
+    if (lp != null) {
+      Number lat = (Number) lp.get("lat");
+      Number lon = (Number) lp.get("lon");
+      position.setLat(lat != null ? lat.doubleValue() : 0.0);
+      position.setLon(lon != null ? lon.doubleValue() : 0.0);
+      position.setTs(lp.getDate("ts"));
+    }
+    position.setBatteryPercent(battery(telemetry));
+    return position;
+  }
+
+  static VehicleStatus toStatus(Document d) {
+    VehicleStatus status = new VehicleStatus();
+    status.setId(d.getObjectId("_id"));
+    status.setRegistration(d.getString("registration"));
+    status.setBrand(d.getString("brand"));
+    status.setModel(d.getString("model"));
+    status.setStatus(d.getString("status"));
+    status.setBatteryPercent(battery(d.get("telemetry", Document.class)));
+    Number count = (Number) d.get("incidentCount");
+    status.setIncidentCount(count != null ? count.intValue() : 0);
+    status.setUpdatedAt(d.getDate("updatedAt"));
+    return status;
+  }
+
+  static IncidentSummary toIncidentSummary(Document d) {
+    IncidentSummary summary = new IncidentSummary();
+    summary.setVehicleId(d.getObjectId("_id"));
+    summary.setRegistration(d.getString("registration"));
+    Number count = (Number) d.get("incidentCount");
+    summary.setIncidentCount(count != null ? count.intValue() : 0);
+
+    List<Document> incs = d.getList("incidents", Document.class);
+    List<Incident> incidents = new ArrayList<>(incs != null ? incs.size() : 0);
+    if (incs != null) {
+      for (Document idoc : incs) incidents.add(VehicleService.incidentFromDocument(idoc));
+    }
+    summary.setIncidents(incidents);
+    return summary;
+  }
+
+  private static Integer battery(Document telemetry) {
+    Number bp = telemetry != null ? (Number) telemetry.get("batteryPercent") : null;
+    return bp != null ? bp.intValue() : null;
+  }
+}
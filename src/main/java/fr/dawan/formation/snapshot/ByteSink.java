@@ -0,0 +1,82 @@
+package fr.dawan.formation.snapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Growable big-endian buffer a row group is encoded into before it goes to the channel in one write.
+final class ByteSink {
+  private byte[] bytes;
+  private int size;
+
+  ByteSink(int capacity) {
+    this.bytes = new byte[capacity];
+  }
+
+  int size() {
+    return size;
+  }
+
+  void clear() {
+    size = 0;
+  }
+
+  void put(byte b) {
+    ensure(1);
+    bytes[size++] = b;
+  }
+
+  void putBytes(byte[] b, int offset, int length) {
+    ensure(length);
+    System.arraycopy(b, offset, bytes, size, length);
+    size += length;
+  }
+
+  void putInt(int v) {
+    ensure(4);
+    putIntAt(size, v);
+    size += 4;
+  }
+
+  void putIntAt(int position, int v) {
+    bytes[position] = (byte) (v >>> 24);
+    bytes[position + 1] = (byte) (v >>> 16);
+    bytes[position + 2] = (byte) (v >>> 8);
+    bytes[position + 3] = (byte) v;
+  }
+
+  void putLong(long v) {
+    putInt((int) (v >>> 32));
+    putInt((int) v);
+  }
+
+  void putVarLong(long v) {
+    ensure(10);
+    while ((v & ~0x7FL) != 0) {
+      bytes[size++] = (byte) ((v & 0x7F) | 0x80);
+      v >>>= 7;
+    }
+    bytes[size++] = (byte) v;
+  }
+
+  void putZigZag(long v) {
+    putVarLong((v << 1) ^ (v >> 63));
+  }
+
+  void putString(String s) {
+    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+    putVarLong(b.length);
+    putBytes(b, 0, b.length);
+  }
+
+  void writeTo(FileChannel channel) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, size);
+    while (buffer.hasRemaining()) channel.write(buffer);
+  }
+
+  private void ensure(int n) {
+    if (size + n > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(size + n, bytes.length * 2));
+  }
+}
@@ -0,0 +1,76 @@
+package fr.dawan.formation.snapshot;
+
+import java.util.Date;
+
+public final class Column {
+  private final String name;
+  private final ColumnType type;
+  private final int scale;
+  private final double factor;
+
+  private Column(String name, ColumnType type, int scale) {
+    if (name == null || name.isEmpty()) throw new IllegalArgumentException("Column name is required");
+    if (scale < 0 || scale > 15) throw new IllegalArgumentException("scale must be between 0 and 15: " + scale);
+    this.name = name;
+    this.type = type;
+    this.scale = scale;
+    this.factor = Math.pow(10, scale);
+  }
+
+  public static Column objectId(String name) {
+    return new Column(name, ColumnType.OBJECT_ID, 0);
+  }
+
+  public static Column dictionary(String name) {
+    return new Column(name, ColumnType.DICTIONARY, 0);
+  }
+
+  public static Column text(String name) {
+    return new Column(name, ColumnType.TEXT, 0);
+  }
+
+  public static Column timestamp(String name) {
+    return new Column(name, ColumnType.TIMESTAMP, 0);
+  }
+
+  public static Column integer(String name) {
+    return new Column(name, ColumnType.INTEGER, 0);
+  }
+
+  // scale 6 keeps coordinates to about 0.1 m
+  public static Column decimal(String name, int scale) {
+    return new Column(name, ColumnType.DECIMAL, scale);
+  }
+
+  static Column of(String name, ColumnType type, int scale) {
+    return new Column(name, type, scale);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public ColumnType getType() {
+    return type;
+  }
+
+  public int getScale() {
+    return scale;
+  }
+
+  long toLong(Object value) {
+    if (type == ColumnType.TIMESTAMP && value instanceof Date) return ((Date) value).getTime();
+    if (!(value instanceof Number)) throw new IllegalArgumentException("Column " + name + " expects a number, got " + value.getClass().getSimpleName());
+    Number n = (Number) value;
+    return type == ColumnType.DECIMAL ? Math.round(n.doubleValue() * factor) : n.longValue();
+  }
+
+  double toDouble(long stored) {
+    return type == ColumnType.DECIMAL ? stored / factor : stored;
+  }
+
+  @Override
+  public String toString() {
+    return type == ColumnType.DECIMAL ? name + ":" + type + "(" + scale + ")" : name + ":" + type;
+  }
+}
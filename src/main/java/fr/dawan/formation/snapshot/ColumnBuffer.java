@@ -0,0 +1,121 @@
+package fr.dawan.formation.snapshot;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One column of the row group being written. Chunk layout: int byte length, flags (bit 0 =
+ * has nulls), the null bitmap when flagged, then the non-null values in the column's encoding.
+ */
+final class ColumnBuffer {
+  static final int OBJECT_ID_BYTES = 12;
+
+  private final Column column;
+  private final long[] longs;
+  private final String[] strings;
+  private final byte[] ids;
+  private final BitSet nulls = new BitSet();
+  private int rows;
+  private long min = Long.MAX_VALUE;
+  private long max = Long.MIN_VALUE;
+
+  ColumnBuffer(Column column, int capacity) {
+    this.column = column;
+    ColumnType type = column.getType();
+    this.longs = type.isNumeric() ? new long[capacity] : null;
+    this.strings = type == ColumnType.DICTIONARY || type == ColumnType.TEXT ? new String[capacity] : null;
+    this.ids = type == ColumnType.OBJECT_ID ? new byte[capacity * OBJECT_ID_BYTES] : null;
+  }
+
+  void add(Object value) {
+    if (value == null) {
+      nulls.set(rows++);
+      return;
+    }
+    switch (column.getType()) {
+      case OBJECT_ID:
+        System.arraycopy(idBytes(value), 0, ids, rows * OBJECT_ID_BYTES, OBJECT_ID_BYTES);
+        break;
+      case DICTIONARY:
+      case TEXT:
+        strings[rows] = value.toString();
+        break;
+      default:
+        long v = column.toLong(value);
+        longs[rows] = v;
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+    }
+    rows++;
+  }
+
+  // Drops a partially appended row; min/max may stay wider than the data, which is still a valid bound.
+  void truncate(int rows) {
+    if (rows >= this.rows) return;
+    nulls.clear(rows, this.rows);
+    if (strings != null) Arrays.fill(strings, rows, this.rows, null);
+    this.rows = rows;
+  }
+
+  boolean hasStats() {
+    return min <= max;
+  }
+
+  long min() {
+    return min;
+  }
+
+  long max() {
+    return max;
+  }
+
+  void encode(ByteSink out) {
+    int lengthAt = out.size();
+    out.putInt(0);
+    boolean hasNulls = !nulls.isEmpty();
+    out.put((byte) (hasNulls ? 1 : 0));
+    if (hasNulls) {
+      byte[] bitmap = Arrays.copyOf(nulls.toByteArray(), (rows + 7) / 8);
+      out.putBytes(bitmap, 0, bitmap.length);
+    }
+
+    switch (column.getType()) {
+      case OBJECT_ID:
+        for (int i = 0; i < rows; i++) if (!nulls.get(i)) out.putBytes(ids, i * OBJECT_ID_BYTES, OBJECT_ID_BYTES);
+        break;
+      case TEXT:
+        for (int i = 0; i < rows; i++) if (!nulls.get(i)) out.putString(strings[i]);
+        break;
+      case DICTIONARY:
+        Map<String, Integer> codes = new LinkedHashMap<>();
+        for (int i = 0; i < rows; i++) if (!nulls.get(i)) codes.putIfAbsent(strings[i], codes.size());
+        out.putVarLong(codes.size());
+        for (String s : codes.keySet()) out.putString(s);
+        for (int i = 0; i < rows; i++) if (!nulls.get(i)) out.putVarLong(codes.get(strings[i]));
+        break;
+      default:
+        long previous = 0;
+        for (int i = 0; i < rows; i++) {
+          if (nulls.get(i)) continue;
+          out.putZigZag(longs[i] - previous);
+          previous = longs[i];
+        }
+    }
+    out.putIntAt(lengthAt, out.size() - lengthAt - 4);
+  }
+
+  void reset() {
+    truncate(0);
+    min = Long.MAX_VALUE;
+    max = Long.MIN_VALUE;
+  }
+
+  private byte[] idBytes(Object value) {
+    if (value instanceof byte[] && ((byte[]) value).length == OBJECT_ID_BYTES) return (byte[]) value;
+    if (value instanceof String && ((String) value).length() == OBJECT_ID_BYTES * 2) return HexFormat.of().parseHex((String) value);
+    throw new IllegalArgumentException("Column " + column.getName() + " expects 12 bytes or 24 hex digits, got " + value);
+  }
+}
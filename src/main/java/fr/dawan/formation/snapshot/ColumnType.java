@@ -0,0 +1,25 @@
+package fr.dawan.formation.snapshot;
+
+/**
+ * How a snapshot column is encoded. Numeric types are stored as zigzag varint deltas from
+ * the previous value in the row group, so sorted timestamps and nearby coordinates take one
+ * or two bytes each.
+ */
+public enum ColumnType {
+  /** 12 raw bytes per value. */
+  OBJECT_ID,
+  /** Low-cardinality text: a dictionary per row group, then one varint code per value. */
+  DICTIONARY,
+  /** Free text: length-prefixed UTF-8. */
+  TEXT,
+  /** Epoch milliseconds. */
+  TIMESTAMP,
+  /** Whole numbers. */
+  INTEGER,
+  /** Decimals scaled by 10^scale and rounded; digits past the scale are lost. */
+  DECIMAL;
+
+  boolean isNumeric() {
+    return this == TIMESTAMP || this == INTEGER || this == DECIMAL;
+  }
+}
@@ -0,0 +1,259 @@
+package fr.dawan.formation.snapshot;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.InsertManyOptions;
+import fr.dawan.formation.service.OperationProfiles;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lt;
+
+/**
+ * Exports {@code vehicles} and {@code telemetry_history} to columnar snapshots and loads them
+ * back. Column names are document paths; a numeric segment addresses an array element, so
+ * {@code location.coords.0} is the longitude of the GeoJSON-style pair. Only the columns of
+ * the schema survive a round trip.
+ *
+ * <p>Vehicle snapshots are lossy: incidents and specs are not exported, so a vehicle import
+ * goes to a separate collection (for analysis or comparison) and never into {@code vehicles}.
+ */
+public class FleetSnapshots {
+  private static final Logger log = LoggerFactory.getLogger(FleetSnapshots.class);
+
+  static final int EXPORT_BATCH_SIZE = 2_000;
+
+  public static final List<Column> VEHICLES = List.of(
+    Column.objectId("_id"),
+    Column.dictionary("brand"),
+    Column.dictionary("model"),
+    Column.text("registration"),
+    Column.objectId("ownerId"),
+    Column.dictionary("status"),
+    Column.decimal("telemetry.lastPosition.lat", 6),
+    Column.decimal("telemetry.lastPosition.lon", 6),
+    Column.timestamp("telemetry.lastPosition.ts"),
+    Column.integer("telemetry.batteryPercent"),
+    Column.integer("incidentCount"),
+    Column.timestamp("createdAt"),
+    Column.timestamp("updatedAt")
+  );
+
+  public static final List<Column> TELEMETRY = List.of(
+    Column.dictionary("vehicleId"),
+    Column.timestamp("timestamp"),
+    Column.dictionary("location.city"),
+    Column.decimal("location.coords.0", 6),
+    Column.decimal("location.coords.1", 6),
+    Column.decimal("energyConsumed", 3),
+    Column.decimal("speed", 2)
+  );
+
+  private final MongoDatabase db;
+  private MongoCollection<Document> vehicles;
+  private MongoCollection<Document> telemetry;
+  private final int rowGroupSize;
+
+  public FleetSnapshots(MongoDatabase db) {
+    this(db, SnapshotWriter.DEFAULT_ROW_GROUP_SIZE);
+  }
+
+  public FleetSnapshots(MongoDatabase db, int rowGroupSize) {
+    this.db = db;
+    this.vehicles = db.getCollection("vehicles");
+    this.telemetry = db.getCollection("telemetry_history");
+    this.rowGroupSize = rowGroupSize;
+  }
+
+  // Exports are analytics reads and follow the analytics read preference.
+  public void setProfiles(OperationProfiles profiles) {
+    this.vehicles = vehicles.withReadPreference(profiles.analytics());
+    this.telemetry = telemetry.withReadPreference(profiles.analytics());
+  }
+
+  public long exportVehicles(Path file) throws IOException {
+    return export(vehicles, new Document(), new Document("_id", 1), VEHICLES, file);
+  }
+
+  // Sorted along the {vehicleId, timestamp} index so timestamps delta-encode within each vehicle's run.
+  public long exportTelemetry(Path file, Date from, Date to) throws IOException {
+    return export(telemetry, and(gte("timestamp", from), lt("timestamp", to)),
+      new Document("vehicleId", 1).append("timestamp", -1), TELEMETRY, file);
+  }
+
+  // Into a collection other than the live one; telemetry.location is rebuilt from lastPosition.
+  public long importVehicles(Path file, String collection) throws IOException {
+    if (collection.equals(vehicles.getNamespace().getCollectionName())) {
+      throw new IllegalArgumentException("Vehicle snapshots drop incidents and specs, refusing to import into " + collection);
+    }
+    return importInto(db.getCollection(collection), file, FleetSnapshots::restoreLocation);
+  }
+
+  public long importTelemetry(Path file) throws IOException {
+    return importInto(telemetry, file);
+  }
+
+  public long export(MongoCollection<Document> source, Bson filter, Bson sort, List<Column> columns, Path file) throws IOException {
+    long start = System.nanoTime();
+    String[][] paths = paths(columns);
+    Document projection = new Document();
+    for (String[] path : paths) projection.append(projectionOf(path), 1);
+    if (!projection.containsKey("_id")) projection.append("_id", 0);
+
+    try (SnapshotWriter writer = new SnapshotWriter(file, columns, rowGroupSize);
+         MongoCursor<Document> cursor = source.find(filter).projection(projection).sort(sort).batchSize(EXPORT_BATCH_SIZE).cursor()) {
+      Object[] row = new Object[columns.size()];
+      while (cursor.hasNext()) {
+        Document d = cursor.next();
+        for (int i = 0; i < row.length; i++) {
+          Object v = valueAt(d, paths[i]);
+          row[i] = v instanceof ObjectId ? ((ObjectId) v).toByteArray() : v;
+        }
+        writer.append(row);
+      }
+      log.info("Exported {} rows from {} to {} in {} ms", writer.getRowCount(), source.getNamespace().getCollectionName(), file,
+        (System.nanoTime() - start) / 1_000_000);
+      return writer.getRowCount();
+    }
+  }
+
+  public long importInto(MongoCollection<Document> target, Path file) throws IOException {
+    return importInto(target, file, d -> { });
+  }
+
+  // One unordered insertMany per row group; each rebuilt document goes through fixup first.
+  public long importInto(MongoCollection<Document> target, Path file, Consumer<Document> fixup) throws IOException {
+    long inserted = 0;
+    try (SnapshotReader reader = new SnapshotReader(file)) {
+      List<Column> columns = reader.getColumns();
+      String[][] paths = paths(columns);
+
+      for (int g = 0; g < reader.getRowGroupCount(); g++) {
+        SnapshotReader.RowGroup group = reader.rowGroup(g);
+        Object[][] values = new Object[columns.size()][];
+        for (int i = 0; i < values.length; i++) values[i] = valuesOf(group, columns.get(i));
+
+        List<Document> docs = new ArrayList<>(group.rows());
+        for (int r = 0; r < group.rows(); r++) {
+          Document d = new Document();
+          for (int i = 0; i < values.length; i++) if (values[i][r] != null) put(d, paths[i], values[i][r]);
+          fixup.accept(d);
+          docs.add(d);
+        }
+        if (!docs.isEmpty()) target.insertMany(docs, new InsertManyOptions().ordered(false));
+        inserted += docs.size();
+      }
+    }
+    log.info("Imported {} rows from {} into {}", inserted, file, target.getNamespace().getCollectionName());
+    return inserted;
+  }
+
+  // The GeoJSON mirror the 2dsphere index reads is derived data, so it is not a snapshot column.
+  static void restoreLocation(Document vehicle) {
+    Document telemetry = vehicle.get("telemetry", Document.class);
+    Document position = telemetry != null ? telemetry.get("lastPosition", Document.class) : null;
+    if (position == null || !(position.get("lat") instanceof Number) || !(position.get("lon") instanceof Number)) return;
+    telemetry.put("location", new Document("type", "Point")
+      .append("coordinates", List.of(((Number) position.get("lon")).doubleValue(), ((Number) position.get("lat")).doubleValue())));
+  }
+
+  private static Object[] valuesOf(SnapshotReader.RowGroup group, Column column) {
+    String name = column.getName();
+    Object[] out = new Object[group.rows()];
+    switch (column.getType()) {
+      case OBJECT_ID: {
+        String[] hex = group.strings(name);
+        for (int r = 0; r < out.length; r++) if (hex[r] != null) out[r] = new ObjectId(hex[r]);
+        break;
+      }
+      case DICTIONARY:
+      case TEXT:
+        return group.strings(name);
+      case TIMESTAMP: {
+        long[] ts = group.longs(name);
+        for (int r = 0; r < out.length; r++) if (!group.isNull(name, r)) out[r] = new Date(ts[r]);
+        break;
+      }
+      case INTEGER: {
+        long[] v = group.longs(name);
+        for (int r = 0; r < out.length; r++) {
+          if (!group.isNull(name, r)) out[r] = v[r] == (int) v[r] ? Integer.valueOf((int) v[r]) : Long.valueOf(v[r]);
+        }
+        break;
+      }
+      default: {
+        double[] v = group.doubles(name);
+        for (int r = 0; r < out.length; r++) if (!Double.isNaN(v[r])) out[r] = v[r];
+      }
+    }
+    return out;
+  }
+
+  private static String[][] paths(List<Column> columns) {
+    String[][] paths = new String[columns.size()][];
+    for (int i = 0; i < paths.length; i++) paths[i] = columns.get(i).getName().split("\\.");
+    return paths;
+  }
+
+  // A projection cannot address array positions, so it stops at the array.
+  private static String projectionOf(String[] path) {
+    StringBuilder out = new StringBuilder(path[0]);
+    for (int i = 1; i < path.length && !isIndex(path[i]); i++) out.append('.').append(path[i]);
+    return out.toString();
+  }
+
+  private static Object valueAt(Document d, String[] path) {
+    Object current = d;
+    for (String segment : path) {
+      if (current instanceof Document) {
+        current = ((Document) current).get(segment);
+      } else if (current instanceof List && isIndex(segment)) {
+        List<?> list = (List<?>) current;
+        int index = Integer.parseInt(segment);
+        current = index < list.size() ? list.get(index) : null;
+      } else {
+        return null;
+      }
+    }
+    return current;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void put(Document d, String[] path, Object value) {
+    Object container = d;
+    for (int i = 0; i < path.length; i++) {
+      boolean last = i == path.length - 1;
+      Object child = last ? value : (isIndex(path[i + 1]) ? new ArrayList<>() : new Document());
+      if (container instanceof Document) {
+        Object existing = ((Document) container).get(path[i]);
+        if (existing == null || last) ((Document) container).put(path[i], child);
+        else child = existing;
+      } else {
+        List<Object> list = (List<Object>) container;
+        int index = Integer.parseInt(path[i]);
+        while (list.size() <= index) list.add(null);
+        if (list.get(index) == null || last) list.set(index, child);
+        else child = list.get(index);
+      }
+      container = child;
+    }
+  }
+
+  private static boolean isIndex(String segment) {
+    for (int i = 0; i < segment.length(); i++) if (!Character.isDigit(segment.charAt(i))) return false;
+    return !segment.isEmpty();
+  }
+}
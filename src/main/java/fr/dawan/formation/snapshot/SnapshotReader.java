@@ -0,0 +1,369 @@
+package fr.dawan.formation.snapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads snapshots written by {@link SnapshotWriter}, with no MongoDB dependency. Each row group
+ * is memory-mapped on demand and a column is only decoded when asked for, so a scan pays for
+ * the columns it uses rather than the whole file.
+ */
+public class SnapshotReader implements AutoCloseable {
+  private final FileChannel channel;
+  private final List<Column> columns;
+  private final Map<String, Integer> positions = new HashMap<>();
+  private final long[] groupOffsets;
+  private final int[] groupLengths;
+  private final long[][] groupStats;
+  private final long rowCount;
+
+  public SnapshotReader(Path file) throws IOException {
+    this.channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      long size = channel.size();
+      if (size < 16) throw new IOException("Not a fleet snapshot: " + file);
+      ByteBuffer ends = ByteBuffer.allocate(8);
+      readFully(ends, 0);
+      if (ends.getInt(0) != SnapshotWriter.MAGIC) throw new IOException("Not a fleet snapshot: " + file);
+      if (ends.getInt(4) != SnapshotWriter.VERSION) throw new IOException("Unsupported snapshot version " + ends.getInt(4) + ": " + file);
+      ends.clear();
+      readFully(ends, size - 8);
+      if (ends.getInt(4) != SnapshotWriter.MAGIC) throw new IOException("Snapshot has no footer, was it closed? " + file);
+
+      int footerLength = ends.getInt(0);
+      ByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, size - 8 - footerLength, footerLength);
+      int columnCount = (int) readVarLong(footer);
+      List<Column> schema = new ArrayList<>(columnCount);
+      for (int i = 0; i < columnCount; i++) {
+        String name = readString(footer);
+        ColumnType type = ColumnType.values()[footer.get()];
+        schema.add(Column.of(name, type, footer.get()));
+        positions.put(name, i);
+      }
+      this.columns = List.copyOf(schema);
+
+      int groupCount = (int) readVarLong(footer);
+      this.groupOffsets = new long[groupCount];
+      this.groupLengths = new int[groupCount];
+      this.groupStats = new long[groupCount][];
+      for (int g = 0; g < groupCount; g++) {
+        groupOffsets[g] = footer.getLong();
+        groupLengths[g] = footer.getInt();
+        footer.getInt(); // rows, also stored in the group itself
+        groupStats[g] = new long[2 * columnCount];
+        for (int i = 0; i < groupStats[g].length; i++) groupStats[g][i] = footer.getLong();
+      }
+      this.rowCount = footer.getLong();
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  public List<Column> getColumns() {
+    return columns;
+  }
+
+  public long getRowCount() {
+    return rowCount;
+  }
+
+  public int getRowGroupCount() {
+    return groupOffsets.length;
+  }
+
+  public RowGroup rowGroup(int index) throws IOException {
+    ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, groupOffsets[index], groupLengths[index]);
+    return new RowGroup(data);
+  }
+
+  public void forEach(RowGroupVisitor visitor) throws IOException {
+    for (int g = 0; g < groupOffsets.length; g++) visitor.visit(rowGroup(g));
+  }
+
+  // False when the footer stats prove no value of the numeric column falls in [from, to).
+  public boolean mayContain(int group, String column, long from, long to) {
+    int c = position(column);
+    long min = groupStats[group][2 * c];
+    long max = groupStats[group][2 * c + 1];
+    return min <= max && max >= from && min < to;
+  }
+
+  public Map<String, Stats> groupBy(String key, String value) throws IOException {
+    return groupBy(key, value, null, Long.MIN_VALUE, Long.MAX_VALUE);
+  }
+
+  /**
+   * Count, sum, min and max of {@code value} per distinct {@code key} (a dictionary column),
+   * over rows whose {@code timestamp} is in [from, to). Row groups outside the range are
+   * skipped from the footer, and the per-row work indexes an array by dictionary code.
+   */
+  public Map<String, Stats> groupBy(String key, String value, String timestamp, long from, long to) throws IOException {
+    if (column(key).getType() != ColumnType.DICTIONARY) throw new IllegalArgumentException("Group key must be a dictionary column: " + key);
+    Map<String, Stats> out = new LinkedHashMap<>();
+
+    for (int g = 0; g < groupOffsets.length; g++) {
+      if (timestamp != null && !mayContain(g, timestamp, from, to)) continue;
+      RowGroup group = rowGroup(g);
+      int[] codes = group.codes(key);
+      String[] dictionary = group.dictionary(key);
+      double[] values = group.doubles(value);
+      long[] ts = timestamp != null ? group.longs(timestamp) : null;
+
+      Stats[] byCode = new Stats[dictionary.length];
+      for (int r = 0; r < group.rows(); r++) {
+        if (codes[r] < 0 || Double.isNaN(values[r])) continue;
+        if (ts != null && (group.isNull(timestamp, r) || ts[r] < from || ts[r] >= to)) continue;
+        Stats s = byCode[codes[r]];
+        if (s == null) s = byCode[codes[r]] = new Stats();
+        s.add(values[r]);
+      }
+      for (int c = 0; c < byCode.length; c++) {
+        if (byCode[c] != null) out.computeIfAbsent(dictionary[c], k -> new Stats()).merge(byCode[c]);
+      }
+    }
+    return out;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private Column column(String name) {
+    return columns.get(position(name));
+  }
+
+  private int position(String name) {
+    Integer i = positions.get(name);
+    if (i == null) throw new IllegalArgumentException("No column " + name + " in snapshot " + columns);
+    return i;
+  }
+
+  private void readFully(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int n = channel.read(buffer, position + buffer.position());
+      if (n < 0) throw new IOException("Unexpected end of snapshot");
+    }
+  }
+
+  static long readVarLong(ByteBuffer in) {
+    long v = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = in.get();
+      v |= (long) (b & 0x7F) << shift;
+      if (b >= 0) return v;
+    }
+  }
+
+  static String readString(ByteBuffer in) {
+    byte[] b = new byte[(int) readVarLong(in)];
+    in.get(b);
+    return new String(b, StandardCharsets.UTF_8);
+  }
+
+  @FunctionalInterface
+  public interface RowGroupVisitor {
+    void visit(RowGroup group) throws IOException;
+  }
+
+  /**
+   * One mapped row group. Numeric columns decode to primitive arrays, dictionary columns to
+   * codes plus their dictionary; nulls read as 0, NaN, code -1 or null depending on the accessor.
+   */
+  public final class RowGroup {
+    private final ByteBuffer data;
+    private final int rows;
+    private final int[] starts;
+    private final Object[] decoded;
+    private final byte[][] nullBitmaps;
+
+    private RowGroup(ByteBuffer data) {
+      this.data = data;
+      this.rows = data.getInt(0);
+      this.starts = new int[columns.size()];
+      this.decoded = new Object[columns.size()];
+      this.nullBitmaps = new byte[columns.size()][];
+      int position = 4;
+      for (int i = 0; i < starts.length; i++) {
+        starts[i] = position + 4;
+        position = starts[i] + data.getInt(position);
+      }
+    }
+
+    public int rows() {
+      return rows;
+    }
+
+    public boolean isNull(String column, int row) {
+      int c = position(column);
+      decode(c);
+      return isNull(c, row);
+    }
+
+    // TIMESTAMP and INTEGER columns as stored; DECIMAL columns in units of 10^-scale.
+    public long[] longs(String column) {
+      int c = position(column);
+      if (!columns.get(c).getType().isNumeric()) throw new IllegalArgumentException("Not a numeric column: " + column);
+      return (long[]) decode(c);
+    }
+
+    public double[] doubles(String column) {
+      int c = position(column);
+      long[] raw = longs(column);
+      Column col = columns.get(c);
+      double[] out = new double[rows];
+      for (int r = 0; r < rows; r++) out[r] = isNull(c, r) ? Double.NaN : col.toDouble(raw[r]);
+      return out;
+    }
+
+    public int[] codes(String column) {
+      return dictionaryColumn(column).codes;
+    }
+
+    public String[] dictionary(String column) {
+      return dictionaryColumn(column).values;
+    }
+
+    // Any text-like column; object ids come back as 24 hex digits.
+    public String[] strings(String column) {
+      int c = position(column);
+      Object d = decode(c);
+      if (d instanceof String[]) return (String[]) d;
+      if (!(d instanceof Dictionary)) throw new IllegalArgumentException("Not a text column: " + column);
+      Dictionary dict = (Dictionary) d;
+      String[] out = new String[rows];
+      for (int r = 0; r < rows; r++) out[r] = dict.codes[r] < 0 ? null : dict.values[dict.codes[r]];
+      return out;
+    }
+
+    private Dictionary dictionaryColumn(String column) {
+      Object d = decode(position(column));
+      if (!(d instanceof Dictionary)) throw new IllegalArgumentException("Not a dictionary column: " + column);
+      return (Dictionary) d;
+    }
+
+    private boolean isNull(int c, int row) {
+      byte[] bitmap = nullBitmaps[c];
+      return bitmap != null && (bitmap[row >> 3] >> (row & 7) & 1) != 0;
+    }
+
+    private Object decode(int c) {
+      if (decoded[c] != null) return decoded[c];
+      ByteBuffer in = data.duplicate().position(starts[c]);
+      if (in.get() != 0) {
+        nullBitmaps[c] = new byte[(rows + 7) / 8];
+        in.get(nullBitmaps[c]);
+      }
+
+      Object out;
+      switch (columns.get(c).getType()) {
+        case OBJECT_ID: {
+          String[] ids = new String[rows];
+          byte[] id = new byte[ColumnBuffer.OBJECT_ID_BYTES];
+          HexFormat hex = HexFormat.of();
+          for (int r = 0; r < rows; r++) {
+            if (isNull(c, r)) continue;
+            in.get(id);
+            ids[r] = hex.formatHex(id);
+          }
+          out = ids;
+          break;
+        }
+        case TEXT: {
+          String[] values = new String[rows];
+          for (int r = 0; r < rows; r++) if (!isNull(c, r)) values[r] = readString(in);
+          out = values;
+          break;
+        }
+        case DICTIONARY: {
+          String[] values = new String[(int) readVarLong(in)];
+          for (int i = 0; i < values.length; i++) values[i] = readString(in);
+          int[] codes = new int[rows];
+          for (int r = 0; r < rows; r++) codes[r] = isNull(c, r) ? -1 : (int) readVarLong(in);
+          out = new Dictionary(values, codes);
+          break;
+        }
+        default: {
+          long[] values = new long[rows];
+          long previous = 0;
+          for (int r = 0; r < rows; r++) {
+            if (isNull(c, r)) continue;
+            long zigzag = readVarLong(in);
+            previous += (zigzag >>> 1) ^ -(zigzag & 1);
+            values[r] = previous;
+          }
+          out = values;
+        }
+      }
+      decoded[c] = out;
+      return out;
+    }
+  }
+
+  private static final class Dictionary {
+    final String[] values;
+    final int[] codes;
+
+    Dictionary(String[] values, int[] codes) {
+      this.values = values;
+      this.codes = codes;
+    }
+  }
+
+  public static final class Stats {
+    private long count;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    void add(double v) {
+      count++;
+      sum += v;
+      if (v < min) min = v;
+      if (v > max) max = v;
+    }
+
+    void merge(Stats other) {
+      count += other.count;
+      sum += other.sum;
+      min = Math.min(min, other.min);
+      max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public double getSum() {
+      return sum;
+    }
+
+    public double getMin() {
+      return min;
+    }
+
+    public double getMax() {
+      return max;
+    }
+
+    public double getAverage() {
+      return count == 0 ? Double.NaN : sum / count;
+    }
+
+    @Override
+    public String toString() {
+      return "count=" + count + ", sum=" + sum + ", min=" + min + ", max=" + max;
+    }
+  }
+}
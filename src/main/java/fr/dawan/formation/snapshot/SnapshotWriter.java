@@ -0,0 +1,139 @@
+package fr.dawan.formation.snapshot;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Streams rows into a columnar snapshot file. Rows are buffered per column and flushed every
+ * {@code rowGroupSize} rows as one row group, written through the channel in a single call.
+ * The footer, written on close, holds the schema, row group offsets and per-group min/max of
+ * numeric columns, so readers can skip groups outside a time range without touching them.
+ *
+ * <pre>
+ * header   int magic, int version
+ * group*   int rows, column chunk per column (see ColumnBuffer)
+ * footer   schema, group offsets/lengths/rows/stats, long total rows
+ * trailer  int footer length, int magic
+ * </pre>
+ */
+public class SnapshotWriter implements AutoCloseable {
+  static final int MAGIC = 0x464C5331; // "FLS1"
+  static final int VERSION = 1;
+  public static final int DEFAULT_ROW_GROUP_SIZE = 65_536;
+
+  private final FileChannel channel;
+  private final List<Column> columns;
+  private final ColumnBuffer[] buffers;
+  private final int rowGroupSize;
+  private final ByteSink sink = new ByteSink(1 << 16);
+  private final List<long[]> groups = new ArrayList<>();
+  private int rows;
+  private long totalRows;
+  private boolean closed;
+
+  public SnapshotWriter(Path file, List<Column> columns) throws IOException {
+    this(file, columns, DEFAULT_ROW_GROUP_SIZE);
+  }
+
+  public SnapshotWriter(Path file, List<Column> columns, int rowGroupSize) throws IOException {
+    if (columns.isEmpty()) throw new IllegalArgumentException("A snapshot needs at least one column");
+    if (rowGroupSize <= 0) throw new IllegalArgumentException("rowGroupSize must be positive: " + rowGroupSize);
+    Set<String> names = new HashSet<>();
+    for (Column c : columns) if (!names.add(c.getName())) throw new IllegalArgumentException("Duplicate column " + c.getName());
+
+    this.columns = List.copyOf(columns);
+    this.rowGroupSize = rowGroupSize;
+    this.buffers = new ColumnBuffer[columns.size()];
+    for (int i = 0; i < buffers.length; i++) buffers[i] = new ColumnBuffer(columns.get(i), rowGroupSize);
+
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    sink.putInt(MAGIC);
+    sink.putInt(VERSION);
+    sink.writeTo(channel);
+  }
+
+  // One value per column, in schema order; null is allowed in any column.
+  public void append(Object... values) throws IOException {
+    if (closed) throw new IllegalStateException("Snapshot writer is closed");
+    if (values.length != buffers.length) throw new IllegalArgumentException("Expected " + buffers.length + " values, got " + values.length);
+    try {
+      for (int i = 0; i < buffers.length; i++) buffers[i].add(values[i]);
+    } catch (RuntimeException e) {
+      for (ColumnBuffer b : buffers) b.truncate(rows);
+      throw e;
+    }
+    if (++rows == rowGroupSize) flushRowGroup();
+  }
+
+  public long getRowCount() {
+    return totalRows + rows;
+  }
+
+  public List<Column> getColumns() {
+    return columns;
+  }
+
+  private void flushRowGroup() throws IOException {
+    if (rows == 0) return;
+    long offset = channel.position();
+    long[] group = new long[3 + 2 * buffers.length];
+
+    sink.clear();
+    sink.putInt(rows);
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i].encode(sink);
+      group[3 + 2 * i] = buffers[i].hasStats() ? buffers[i].min() : Long.MAX_VALUE;
+      group[4 + 2 * i] = buffers[i].hasStats() ? buffers[i].max() : Long.MIN_VALUE;
+      buffers[i].reset();
+    }
+    sink.writeTo(channel);
+
+    group[0] = offset;
+    group[1] = sink.size();
+    group[2] = rows;
+    groups.add(group);
+    totalRows += rows;
+    rows = 0;
+  }
+
+  private void writeFooter() throws IOException {
+    sink.clear();
+    sink.putVarLong(columns.size());
+    for (Column c : columns) {
+      sink.putString(c.getName());
+      sink.put((byte) c.getType().ordinal());
+      sink.put((byte) c.getScale());
+    }
+    sink.putVarLong(groups.size());
+    for (long[] group : groups) {
+      sink.putLong(group[0]);
+      sink.putInt((int) group[1]);
+      sink.putInt((int) group[2]);
+      for (int i = 3; i < group.length; i++) sink.putLong(group[i]);
+    }
+    sink.putLong(totalRows);
+
+    int footerLength = sink.size();
+    sink.putInt(footerLength);
+    sink.putInt(MAGIC);
+    sink.writeTo(channel);
+  }
+
+  // Without a clean close the file has no footer and readers reject it.
+  @Override
+  public void close() throws IOException {
+    if (closed) return;
+    closed = true;
+    try (FileChannel c = channel) {
+      flushRowGroup();
+      writeFooter();
+      c.force(false);
+    }
+  }
+}
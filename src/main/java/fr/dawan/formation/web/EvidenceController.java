@@ -0,0 +1,87 @@
+package fr.dawan.formation.web;
+
+import com.mongodb.client.gridfs.model.GridFSFile;
+import fr.dawan.formation.service.GridFsService;
+import org.bson.types.ObjectId;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.List;
+
+/**
+ * Incident evidence served straight from GridFS. A single-range request gets only those bytes
+ * (206), so players and resumed downloads never pull the whole file; several ranges in one
+ * request are answered with the whole file.
+ */
+@RestController
+@RequestMapping("/fleet/vehicles")
+public class EvidenceController {
+    private final GridFsService gridFs;
+
+    public EvidenceController(GridFsService gridFs) {
+        this.gridFs = gridFs;
+    }
+
+    @GetMapping("/{id}/incidents/{seq}/evidence")
+    public ResponseEntity<StreamingResponseBody> evidence(@PathVariable String id, @PathVariable int seq,
+                                                          @RequestHeader(name = HttpHeaders.RANGE, required = false) String range) {
+        if (!ObjectId.isValid(id) || seq < 0) return ResponseEntity.badRequest().build();
+        GridFSFile file;
+        try {
+            file = gridFs.evidenceFile(id, seq);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            // unknown vehicle or incident, or no evidence attached
+            return ResponseEntity.notFound().build();
+        }
+        ObjectId fileId = file.getObjectId();
+        long length = file.getLength();
+
+        long start = 0;
+        long end = length - 1;
+        HttpStatus status = HttpStatus.OK;
+        if (range != null) {
+            List<HttpRange> ranges;
+            try {
+                ranges = HttpRange.parseRanges(range);
+            } catch (IllegalArgumentException e) {
+                return unsatisfiable(length);
+            }
+            if (ranges.size() == 1) {
+                start = ranges.get(0).getRangeStart(length);
+                end = Math.min(ranges.get(0).getRangeEnd(length), length - 1);
+                if (start >= length || start > end) return unsatisfiable(length);
+                status = HttpStatus.PARTIAL_CONTENT;
+            }
+        }
+
+        long offset = start;
+        long count = end - start + 1;
+        StreamingResponseBody body = out -> gridFs.streamRange(fileId, offset, count, out);
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(status)
+            .contentType(MediaType.APPLICATION_OCTET_STREAM)
+            .contentLength(count)
+            .header(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (file.getFilename() != null && !file.getFilename().isEmpty()) {
+            response.header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(file.getFilename()).build().toString());
+        }
+        if (status == HttpStatus.PARTIAL_CONTENT) response.header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+        return response.body(body);
+    }
+
+    private static ResponseEntity<StreamingResponseBody> unsatisfiable(long length) {
+        return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+            .header(HttpHeaders.CONTENT_RANGE, "bytes */" + length)
+            .build();
+    }
+}
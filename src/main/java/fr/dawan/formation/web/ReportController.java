@@ -0,0 +1,69 @@
+package fr.dawan.formation.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.dawan.formation.service.FleetAnalytics;
+import fr.dawan.formation.service.FleetReports;
+import org.bson.Document;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+@RestController
+@RequestMapping("/reports")
+public class ReportController {
+    private final FleetReports reports;
+    private final FleetAnalytics analytics;
+    private final ObjectMapper mapper;
+
+    public ReportController(FleetReports reports, FleetAnalytics analytics, ObjectMapper mapper) {
+        this.reports = reports;
+        this.analytics = analytics;
+        this.mapper = mapper;
+    }
+
+    @GetMapping
+    public CompletableFuture<Map<String, List<Document>>> all() {
+        return reports.all();
+    }
+
+    @GetMapping("/battery-by-brand")
+    public CompletableFuture<List<Document>> batteryAverageByBrand() {
+        return reports.batteryAverageByBrand();
+    }
+
+    // Capped at FleetReports.MAX_ALERTS; /stream returns every alert.
+    @GetMapping("/maintenance-alerts")
+    public CompletableFuture<ResponseEntity<List<Document>>> maintenanceAlerts(@RequestParam(defaultValue = "1000") int limit) {
+        if (limit <= 0) return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
+        return reports.maintenanceAlerts(limit).thenApply(ResponseEntity::ok);
+    }
+
+    // Every alert as NDJSON from one cursor, written as it is read.
+    @GetMapping(path = "/maintenance-alerts/stream", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> streamMaintenanceAlerts() {
+        StreamingResponseBody body = out -> analytics.maintenanceAlertsEngineIncidents(FleetAnalytics.DEFAULT_BATCH_SIZE, true, d -> {
+            try {
+                out.write(mapper.writeValueAsBytes(d));
+                out.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson")).body(body);
+    }
+
+    @GetMapping("/top-owners")
+    public CompletableFuture<List<Document>> topOwners() {
+        return reports.topOwners();
+    }
+}
@@ -0,0 +1,101 @@
+package fr.dawan.formation.web;
+
+import fr.dawan.formation.reactive.ReactiveBatchWriter;
+import fr.dawan.formation.reactive.TelemetryRollups;
+import fr.dawan.formation.reactive.TelemetryStreamService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.bson.Document;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Streaming telemetry endpoints. Spring MVC subscribes to the returned publishers and only
+ * requests the next element once the previous one is written, so the Mongo cursors advance
+ * at the client's pace.
+ */
+@RestController
+@RequestMapping("/telemetry")
+public class TelemetryStreamController {
+    private final TelemetryStreamService telemetry;
+    private final TelemetryRollups rollups;
+
+    public TelemetryStreamController(TelemetryStreamService telemetry, TelemetryRollups rollups) {
+        this.telemetry = telemetry;
+        this.rollups = rollups;
+    }
+
+    @PostMapping(consumes = "application/x-ndjson")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> ingest(HttpServletRequest request) throws IOException {
+        return telemetry.ingest(request.getInputStream())
+            .thenApply(TelemetryStreamController::summary)
+            .exceptionally(TelemetryStreamController::failure);
+    }
+
+    // Served from the rollups, accurate to the minute at the window edges.
+    @GetMapping(path = "/energy", produces = "application/x-ndjson")
+    public ResponseEntity<Flux<Document>> energy(@RequestParam(defaultValue = TelemetryRollups.SCOPE_CITY) String scope,
+                                                 @RequestParam(required = false) String key,
+                                                 @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date from,
+                                                 @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date to) {
+        if (!TelemetryRollups.isScope(scope) || from.after(to)) return ResponseEntity.badRequest().build();
+        return ResponseEntity.ok(rollups.totals(scope, key, from, to));
+    }
+
+    @GetMapping(path = "/{vehicleId}", produces = "application/x-ndjson")
+    public ResponseEntity<Flux<Document>> history(@PathVariable String vehicleId,
+                                                  @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date from,
+                                                  @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date to,
+                                                  @RequestParam(defaultValue = "500") int batchSize) {
+        if (from.after(to) || batchSize <= 0) return ResponseEntity.badRequest().build();
+        return ResponseEntity.ok(telemetry.history(vehicleId, from, to, batchSize));
+    }
+
+    @GetMapping(path = "/live", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Document>> live(@RequestParam(required = false) String vehicleId) {
+        return telemetry.livePositions(vehicleId)
+            .map(point -> ServerSentEvent.builder(point).event("position").build());
+    }
+
+    private static ResponseEntity<Map<String, Object>> summary(ReactiveBatchWriter.Result result) {
+        return ResponseEntity.status(result.getFailed() > 0 ? HttpStatus.MULTI_STATUS : HttpStatus.OK).contentType(MediaType.APPLICATION_JSON).body(counts(result));
+    }
+
+    // A malformed line is a 400, anything else (Mongo, reading the body) a 500; both report what was already written.
+    private static ResponseEntity<Map<String, Object>> failure(Throwable t) {
+        Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+        Map<String, Object> body = new LinkedHashMap<>();
+        if (cause instanceof ReactiveBatchWriter.WriteFailedException) {
+            body.putAll(counts(((ReactiveBatchWriter.WriteFailedException) cause).getPartial()));
+            cause = cause.getCause();
+        }
+        body.put("error", cause.getMessage());
+        HttpStatus status = cause instanceof IllegalArgumentException ? HttpStatus.BAD_REQUEST : HttpStatus.INTERNAL_SERVER_ERROR;
+        return ResponseEntity.status(status).contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    private static Map<String, Object> counts(ReactiveBatchWriter.Result result) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("written", result.getWritten());
+        body.put("failed", result.getFailed());
+        body.put("seconds", result.getElapsedSeconds());
+        body.put("docsPerSecond", Math.round(result.getDocsPerSecond()));
+        return body;
+    }
+}
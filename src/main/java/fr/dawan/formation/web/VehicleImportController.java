@@ -0,0 +1,58 @@
+package fr.dawan.formation.web;
+
+import fr.dawan.formation.service.BulkVehicleImporter;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bulk onboarding: the request body is streamed straight into the importer, so a 50k-vehicle
+ * file is never held in memory. Rejected rows come back with their line numbers.
+ */
+@RestController
+@RequestMapping("/fleet/vehicles/import")
+public class VehicleImportController {
+    private final BulkVehicleImporter importer;
+
+    public VehicleImportController(BulkVehicleImporter importer) {
+        this.importer = importer;
+    }
+
+    @PostMapping(consumes = "application/x-ndjson")
+    public ResponseEntity<Map<String, Object>> importNdjson(HttpServletRequest request) throws IOException, InterruptedException {
+        return summary(importer.importStream(request.getInputStream(), BulkVehicleImporter.Format.NDJSON));
+    }
+
+    @PostMapping(consumes = "text/csv")
+    public ResponseEntity<Map<String, Object>> importCsv(HttpServletRequest request) throws IOException, InterruptedException {
+        return summary(importer.importStream(request.getInputStream(), BulkVehicleImporter.Format.CSV));
+    }
+
+    private static ResponseEntity<Map<String, Object>> summary(BulkVehicleImporter.Report report) {
+        List<Map<String, Object>> errors = new ArrayList<>();
+        for (BulkVehicleImporter.RowError e : report.getErrors()) {
+            Map<String, Object> error = new LinkedHashMap<>();
+            error.put("line", e.getLine());
+            error.put("message", e.getMessage());
+            errors.add(error);
+        }
+
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("read", report.getRead());
+        body.put("inserted", report.getInserted());
+        body.put("rejected", report.getRejected());
+        body.put("seconds", report.getElapsedSeconds());
+        body.put("vehiclesPerSecond", Math.round(report.getVehiclesPerSecond()));
+        body.put("errors", errors);
+        return ResponseEntity.status(report.getRejected() > 0 ? HttpStatus.MULTI_STATUS : HttpStatus.OK).body(body);
+    }
+}
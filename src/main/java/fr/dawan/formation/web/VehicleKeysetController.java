@@ -0,0 +1,106 @@
+package fr.dawan.formation.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.dawan.formation.model.Vehicle;
+import fr.dawan.formation.repository.VehicleRepository;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Keyset alternatives to the skip/limit paging of /api/vehicles. Each page seeks past the last
+ * _id returned, so page 10,000 costs the same as page 1. The cursor is opaque to clients and
+ * bound to the status filter it was issued for.
+ */
+@RestController
+@RequestMapping("/fleet/vehicles/keyset")
+public class VehicleKeysetController {
+    private static final int MAX_LIMIT = 1_000;
+    private static final byte CURSOR_VERSION = 1;
+    private static final ObjectId MIN_ID = new ObjectId(new byte[12]);
+
+    private final VehicleRepository vehicles;
+    private final ObjectMapper mapper;
+
+    public VehicleKeysetController(VehicleRepository vehicles, ObjectMapper mapper) {
+        this.vehicles = vehicles;
+        this.mapper = mapper;
+    }
+
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> page(@RequestParam(required = false) String status,
+                                                    @RequestParam(required = false) String cursor,
+                                                    @RequestParam(defaultValue = "100") int limit) {
+        if (limit <= 0) return ResponseEntity.badRequest().build();
+        if (status != null && status.isEmpty()) status = null;
+        ObjectId after = MIN_ID;
+        if (cursor != null) {
+            after = decode(cursor, status);
+            if (after == null) return ResponseEntity.badRequest().build();
+        }
+
+        // one extra row tells whether there is a next page without a count
+        int size = Math.min(limit, MAX_LIMIT);
+        PageRequest page = PageRequest.of(0, size + 1);
+        List<Vehicle> rows = status != null
+            ? vehicles.findByStatusAndIdGreaterThanOrderByIdAsc(status, after, page)
+            : vehicles.findByIdGreaterThanOrderByIdAsc(after, page);
+
+        boolean more = rows.size() > size;
+        if (more) rows = rows.subList(0, size);
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("vehicles", rows);
+        body.put("next", more ? encode(rows.get(rows.size() - 1).getId(), status) : null);
+        return ResponseEntity.ok(body);
+    }
+
+    // The whole status bucket as NDJSON from one cursor, written as it is read.
+    @GetMapping(path = "/stream", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> stream(@RequestParam String status) {
+        StreamingResponseBody body = out -> {
+            try (Stream<Vehicle> rows = vehicles.streamByStatusOrderByIdAsc(status)) {
+                for (Vehicle v : (Iterable<Vehicle>) rows::iterator) {
+                    out.write(mapper.writeValueAsBytes(v));
+                    out.write('\n');
+                }
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson")).body(body);
+    }
+
+    static String encode(ObjectId last, String status) {
+        byte[] filter = status != null ? status.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 12 + filter.length).put(CURSOR_VERSION).put(last.toByteArray()).put(filter);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    // null when the cursor is malformed or was issued for another status
+    static ObjectId decode(String cursor, String status) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(cursor);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (bytes.length < 13 || bytes[0] != CURSOR_VERSION) return null;
+        String issuedFor = bytes.length > 13 ? new String(bytes, 13, bytes.length - 13, StandardCharsets.UTF_8) : null;
+        if (!Objects.equals(issuedFor, status)) return null;
+        return new ObjectId(Arrays.copyOfRange(bytes, 1, 13));
+    }
+}
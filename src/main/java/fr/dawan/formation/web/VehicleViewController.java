@@ -0,0 +1,74 @@
+package fr.dawan.formation.web;
+
+import fr.dawan.formation.model.IncidentSummary;
+import fr.dawan.formation.model.Telemetry;
+import fr.dawan.formation.model.VehiclePosition;
+import fr.dawan.formation.model.VehicleStatus;
+import fr.dawan.formation.service.VehicleService;
+import fr.dawan.formation.service.VehicleView;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+import static com.mongodb.client.model.Filters.eq;
+
+/**
+ * List endpoints returning projected read models instead of full vehicles, and the telemetry
+ * update, which only queues the fix for the ingestor's next flush.
+ */
+@RestController
+@RequestMapping("/fleet/vehicles")
+public class VehicleViewController {
+    private static final int MAX_LIMIT = 1_000;
+
+    private final VehicleService vehicles;
+
+    public VehicleViewController(VehicleService vehicles) {
+        this.vehicles = vehicles;
+    }
+
+    @GetMapping("/positions")
+    public ResponseEntity<List<VehiclePosition>> positions(@RequestParam(required = false) String status,
+                                                           @RequestParam(defaultValue = "100") int limit) {
+        // a limit of 0 would mean no limit to the driver
+        if (limit <= 0) return ResponseEntity.badRequest().build();
+        return ResponseEntity.ok(vehicles.find(statusFilter(status), VehicleView.POSITION, Math.min(limit, MAX_LIMIT)));
+    }
+
+    @GetMapping("/statuses")
+    public ResponseEntity<List<VehicleStatus>> statuses(@RequestParam(required = false) String status,
+                                                        @RequestParam(defaultValue = "100") int limit) {
+        if (limit <= 0) return ResponseEntity.badRequest().build();
+        return ResponseEntity.ok(vehicles.find(statusFilter(status), VehicleView.STATUS, Math.min(limit, MAX_LIMIT)));
+    }
+
+    @GetMapping("/{id}/incidents")
+    public ResponseEntity<IncidentSummary> incidents(@PathVariable String id,
+                                                     @RequestParam(defaultValue = "0") int skip,
+                                                     @RequestParam(defaultValue = "20") int limit) {
+        if (!ObjectId.isValid(id) || limit <= 0) return ResponseEntity.badRequest().build();
+        IncidentSummary summary = vehicles.findIncidents(new ObjectId(id), skip, Math.min(limit, MAX_LIMIT));
+        return summary != null ? ResponseEntity.ok(summary) : ResponseEntity.notFound().build();
+    }
+
+    @PutMapping("/{id}/telemetry")
+    public ResponseEntity<Void> telemetry(@PathVariable String id, @RequestBody Telemetry telemetry) {
+        if (!ObjectId.isValid(id) || telemetry.getTs() == null) return ResponseEntity.badRequest().build();
+        vehicles.updateTelemetry(new ObjectId(id), telemetry);
+        return ResponseEntity.accepted().build();
+    }
+
+    private static Bson statusFilter(String status) {
+        return status != null ? eq("status", status) : new Document();
+    }
+}